@@ -0,0 +1,95 @@
+package io.github.tonnycao.esrest.benchmark;
+
+import com.alibaba.fastjson.JSON;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Canned documents and responses shared by the benchmarks. Every generator uses a fixed seed,
+ * so runs on different versions measure the same data.
+ */
+public final class Fixtures {
+
+    private static final long SEED = 20240501L;
+
+    private static final String[] TAGS = {"news", "sports", "finance", "tech", "travel", "food", "music", "games"};
+
+    private Fixtures() {
+    }
+
+    /***
+     * a flat document of mixed field types: strings, numbers, booleans, a date string and a small array
+     * @param id
+     * @param fields number of fields besides id
+     * @return
+     */
+    public static Map<String, Object> doc(long id, int fields) {
+        Random random = new Random(SEED + id);
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("id", String.valueOf(id));
+        for (int i = 0; i < fields; i++) {
+            switch (i % 5) {
+                case 0:
+                    doc.put("title_" + i, "title " + Long.toHexString(random.nextLong()) + " " + TAGS[random.nextInt(TAGS.length)]);
+                    break;
+                case 1:
+                    doc.put("count_" + i, random.nextInt(100000));
+                    break;
+                case 2:
+                    doc.put("score_" + i, random.nextDouble() * 100);
+                    break;
+                case 3:
+                    doc.put("flag_" + i, random.nextBoolean());
+                    break;
+                default:
+                    List<String> tags = new ArrayList<>();
+                    for (int t = 0; t < 3; t++) {
+                        tags.add(TAGS[random.nextInt(TAGS.length)]);
+                    }
+                    doc.put("tags_" + i, tags);
+            }
+        }
+        doc.put("createdAt", "2024-05-01 12:00:00");
+        return doc;
+    }
+
+    /***
+     * documents with ids 0..count-1
+     * @param count
+     * @param fields
+     * @return
+     */
+    public static List<Map<String, Object>> docs(int count, int fields) {
+        List<Map<String, Object>> docs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            docs.add(doc(i, fields));
+        }
+        return docs;
+    }
+
+    /***
+     * body of a search response as returned by a 7.x cluster, with hits of doc(i, fields) sources
+     * @param hits
+     * @param fields
+     * @return
+     */
+    public static String searchResponse(int hits, int fields) {
+        StringBuilder json = new StringBuilder(hits * fields * 32 + 512);
+        json.append("{\"took\":12,\"timed_out\":false,")
+                .append("\"_shards\":{\"total\":5,\"successful\":5,\"skipped\":0,\"failed\":0},")
+                .append("\"hits\":{\"total\":{\"value\":").append(hits * 10).append(",\"relation\":\"eq\"},")
+                .append("\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"_index\":\"bench\",\"_type\":\"_doc\",\"_id\":\"").append(i)
+                    .append("\",\"_score\":1.0,\"_source\":").append(JSON.toJSONString(doc(i, fields))).append('}');
+        }
+        return json.append("]}}").toString();
+    }
+}
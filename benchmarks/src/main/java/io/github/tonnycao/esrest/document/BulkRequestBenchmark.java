@@ -0,0 +1,70 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.benchmark.Fixtures;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of assembling one bulk from map documents, as bulkAddDoc and BulkIngestor do, by batch size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BulkRequestBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int batchSize;
+
+    @Param({"20"})
+    private int fields;
+
+    private List<Map<String, Object>> docs;
+
+    @Setup
+    public void setup() {
+        docs = Fixtures.docs(batchSize, fields);
+    }
+
+    /***
+     * encode every doc and add it to the bulk
+     */
+    @Benchmark
+    public BulkRequest assemble() {
+        BulkRequest bulk = new BulkRequest();
+        for (Map<String, Object> doc : docs) {
+            bulk.add(DocumentOps.buildIndexRequest("bench", doc));
+        }
+        return bulk;
+    }
+
+    /***
+     * assemble plus the size estimate BulkProcessor checks after every add
+     */
+    @Benchmark
+    public long assembleAndEstimate() {
+        BulkRequest bulk = new BulkRequest();
+        long bytes = 0;
+        for (Map<String, Object> doc : docs) {
+            bulk.add(DocumentOps.buildIndexRequest("bench", doc));
+            bytes = bulk.estimatedSizeInBytes();
+        }
+        return bytes;
+    }
+}
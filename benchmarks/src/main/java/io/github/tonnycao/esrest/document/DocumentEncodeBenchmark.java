@@ -0,0 +1,63 @@
+package io.github.tonnycao.esrest.document;
+
+import com.alibaba.fastjson.JSONObject;
+import io.github.tonnycao.esrest.benchmark.Fixtures;
+import org.elasticsearch.action.index.IndexRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one map document into a request body, paid once per addDoc and per bulk item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DocumentEncodeBenchmark {
+
+    @Param({"10", "50", "200"})
+    private int fields;
+
+    private Map<String, Object> doc;
+
+    @Setup
+    public void setup() {
+        doc = Fixtures.doc(1, fields);
+    }
+
+    /***
+     * the encoding used by the write path
+     */
+    @Benchmark
+    public byte[] codecEncode() {
+        return DocumentCodec.encode(doc);
+    }
+
+    /***
+     * baseline: toJSONString then getBytes, the encoding the starter started with
+     */
+    @Benchmark
+    public byte[] toJsonStringBytes() {
+        return JSONObject.toJSONString(doc).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public IndexRequest buildIndexRequest() {
+        return DocumentOps.buildIndexRequest("bench", doc);
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.benchmark.Fixtures;
+import io.github.tonnycao.esrest.document.BaseDoc;
+import io.github.tonnycao.esrest.document.DocumentCodec;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.lookup.SourceLookup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a canned search response: the client's parsing into a SearchResponse, then each way
+ * SearchOps turns hit sources into results. Parsing is included in every variant because
+ * SearchHit.getSourceAsMap memoizes its map, a parsed response can only be measured once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SearchResponseParseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int hits;
+
+    @Param({"20"})
+    private int fields;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = Fixtures.searchResponse(hits, fields).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public SearchResponse parse() throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    /***
+     * what fetch returns: a fresh map per hit via SourceLookup
+     */
+    @Benchmark
+    public void parseAndSourceLookup(Blackhole blackhole) throws IOException {
+        for (SearchHit hit : parse().getHits().getHits()) {
+            blackhole.consume(SourceLookup.sourceAsMap(hit.getSourceRef()));
+        }
+    }
+
+    /***
+     * the hit's own memoized map, what fetch returned before
+     */
+    @Benchmark
+    public void parseAndGetSourceAsMap(Blackhole blackhole) throws IOException {
+        for (SearchHit hit : parse().getHits().getHits()) {
+            blackhole.consume(hit.getSourceAsMap());
+        }
+    }
+
+    /***
+     * typed fetch: raw source bytes straight into a POJO
+     */
+    @Benchmark
+    public void parseAndDecode(Blackhole blackhole) throws IOException {
+        for (SearchHit hit : parse().getHits().getHits()) {
+            blackhole.consume(DocumentCodec.decode(hit, BaseDoc.class));
+        }
+    }
+}
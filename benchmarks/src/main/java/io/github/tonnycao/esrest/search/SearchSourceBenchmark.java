@@ -0,0 +1,71 @@
+package io.github.tonnycao.esrest.search;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing a typical query: once by the client for the request body, once more by the
+ * search cache for its key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SearchSourceBenchmark {
+
+    private SearchSourceBuilder source;
+
+    @Setup
+    public void setup() {
+        BoolQueryBuilder query = QueryBuilders.boolQuery()
+                .must(QueryBuilders.matchQuery("title", "elasticsearch client"))
+                .filter(QueryBuilders.termQuery("tag", "tech"))
+                .filter(QueryBuilders.termsQuery("tags", "news", "finance", "travel"))
+                .filter(QueryBuilders.rangeQuery("createdAt").gte("2024-01-01 00:00:00").lt("2024-06-01 00:00:00"))
+                .mustNot(QueryBuilders.existsQuery("deletedAt"));
+        source = new SearchSourceBuilder()
+                .query(query)
+                .from(20)
+                .size(20)
+                .fetchSource(new String[]{"id", "title", "tag", "createdAt"}, null)
+                .sort("createdAt", SortOrder.DESC)
+                .sort("_id", SortOrder.ASC);
+    }
+
+    /***
+     * the request body as the client builds it
+     */
+    @Benchmark
+    public BytesReference toBytes() throws IOException {
+        return XContentHelper.toXContent(source, XContentType.JSON, false);
+    }
+
+    /***
+     * the search cache key of the query
+     */
+    @Benchmark
+    public String cacheKey() {
+        return DigestUtil.sha256Hex(source.toString());
+    }
+}
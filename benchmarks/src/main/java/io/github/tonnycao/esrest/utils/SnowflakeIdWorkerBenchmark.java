@@ -0,0 +1,79 @@
+package io.github.tonnycao.esrest.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ids per second of one shared worker as the number of threads minting ids grows.
+ * A worker is capped at 4096 ids per millisecond, about 4M per second, whatever the thread count;
+ * past that the benchmark measures how cheaply threads wait for the clock. The nextIds variants
+ * report ids, not calls, per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SnowflakeIdWorkerBenchmark {
+
+    private static final int BATCH = 100;
+
+    private final SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 1);
+
+    @Benchmark
+    @Threads(1)
+    public long nextId1Thread() {
+        return worker.nextId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextId4Threads() {
+        return worker.nextId();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long nextId16Threads() {
+        return worker.nextId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long nextId64Threads() {
+        return worker.nextId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH)
+    public long[] nextIds1Thread() {
+        return worker.nextIds(BATCH);
+    }
+
+    @Benchmark
+    @Threads(16)
+    @OperationsPerInvocation(BATCH)
+    public long[] nextIds16Threads() {
+        return worker.nextIds(BATCH);
+    }
+
+    @Benchmark
+    @Threads(64)
+    @OperationsPerInvocation(BATCH)
+    public long[] nextIds64Threads() {
+        return worker.nextIds(BATCH);
+    }
+}
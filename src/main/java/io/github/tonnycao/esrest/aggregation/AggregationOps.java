@@ -1,13 +1,15 @@
 package io.github.tonnycao.esrest.aggregation;
 
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
 import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
 import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
@@ -21,6 +23,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class AggregationOps {
@@ -29,6 +32,9 @@ public class AggregationOps {
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private OperationExecutor executor;
+
     /***
      *
      * @param index
@@ -39,14 +45,32 @@ public class AggregationOps {
      * @throws IOException
      */
     public ParsedStats stats(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) throws IOException {
+        SearchRequest request = statsRequest(index, field, name, searchSourceBuilder);
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        Aggregations aggregations = response.getAggregations();
+        return  aggregations.get(name);
+    }
+
+    /***
+     * stats asynchronously
+     * @param index
+     * @param field
+     * @param name
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<ParsedStats> statsAsync(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = statsRequest(index, field, name, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> response.getAggregations().get(name));
+    }
+
+    private SearchRequest statsRequest(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) {
         AggregationBuilder aggr = AggregationBuilders.stats(name).field(field);
         searchSourceBuilder.aggregation(aggr);
         searchSourceBuilder.size(0);
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        Aggregations aggregations = response.getAggregations();
-        return  aggregations.get(name);
+        return request;
     }
 
     /***
@@ -59,14 +83,32 @@ public class AggregationOps {
      * @throws IOException
      */
     public ParsedPercentiles percentiles(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) throws IOException {
+        SearchRequest request = percentilesRequest(index, field, name, searchSourceBuilder);
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        Aggregations aggregations = response.getAggregations();
+        return aggregations.get(name);
+    }
+
+    /***
+     * percentiles asynchronously
+     * @param index
+     * @param field
+     * @param name
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<ParsedPercentiles> percentilesAsync(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = percentilesRequest(index, field, name, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> response.getAggregations().get(name));
+    }
+
+    private SearchRequest percentilesRequest(String index, String field, String name, SearchSourceBuilder searchSourceBuilder) {
         AggregationBuilder aggr = AggregationBuilders.percentiles(name).field(field);
         searchSourceBuilder.aggregation(aggr);
         searchSourceBuilder.size(0);
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        Aggregations aggregations = response.getAggregations();
-        return aggregations.get(name);
+        return request;
     }
 
     /***
@@ -80,20 +122,57 @@ public class AggregationOps {
      * @throws IOException
      */
     public List<? extends Terms.Bucket> bucketTerms(String index, String field, String name, Integer size, SearchSourceBuilder searchSourceBuilder) throws IOException {
+        SearchRequest request = bucketTermsRequest(index, field, name, size, searchSourceBuilder);
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        return termsBuckets(response, name);
+    }
+
+    /***
+     * bucket terms asynchronously
+     * @param index
+     * @param field
+     * @param name
+     * @param size
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<List<? extends Terms.Bucket>> bucketTermsAsync(String index, String field, String name, Integer size, SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = bucketTermsRequest(index, field, name, size, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> termsBuckets(response, name));
+    }
+
+    private SearchRequest bucketTermsRequest(String index, String field, String name, Integer size, SearchSourceBuilder searchSourceBuilder) {
         AggregationBuilder aggr = AggregationBuilders.terms(name).field(field);
         searchSourceBuilder.size(size);
         searchSourceBuilder.aggregation(aggr);
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        Aggregations aggregations = response.getAggregations();
-
-        Terms byCompanyAggregation = aggregations.get(name);
-        List<? extends Terms.Bucket> buckets = byCompanyAggregation.getBuckets();
-        return buckets;
+        return request;
     }
 
     public List<? extends Histogram.Bucket> bucketHistogram(String index, String field, Integer min, Integer max, Integer interval, String name,  SearchSourceBuilder searchSourceBuilder) throws IOException {
+        SearchRequest request = bucketHistogramRequest(index, field, min, max, interval, name, searchSourceBuilder);
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        return histogramBuckets(response, name);
+    }
+
+    /***
+     * bucket histogram asynchronously
+     * @param index
+     * @param field
+     * @param min
+     * @param max
+     * @param interval
+     * @param name
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<List<? extends Histogram.Bucket>> bucketHistogramAsync(String index, String field, Integer min, Integer max, Integer interval, String name, SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = bucketHistogramRequest(index, field, min, max, interval, name, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> histogramBuckets(response, name));
+    }
+
+    private SearchRequest bucketHistogramRequest(String index, String field, Integer min, Integer max, Integer interval, String name, SearchSourceBuilder searchSourceBuilder) {
         AggregationBuilder aggr = AggregationBuilders.histogram(name)
                 .field(field)
                 .extendedBounds(min, max)
@@ -103,11 +182,7 @@ public class AggregationOps {
         searchSourceBuilder.aggregation(aggr);
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        Aggregations aggregations = response.getAggregations();
-        Histogram byCompanyAggregation = aggregations.get(name);
-        List<? extends Histogram.Bucket> buckets = byCompanyAggregation.getBuckets();
-        return buckets;
+        return request;
     }
     /***
      *
@@ -122,21 +197,43 @@ public class AggregationOps {
      * @throws IOException
      */
     public List<? extends Histogram.Bucket> bucketDateHistogram(String index, String field, String name, String format, DateHistogramInterval interval, Integer size, SearchSourceBuilder searchSourceBuilder) throws IOException {
-        AggregationBuilder aggr = AggregationBuilders.dateHistogram(name)
+        SearchRequest request = bucketDateHistogramRequest(index, field, name, format, interval, searchSourceBuilder);
+
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        return histogramBuckets(response, name);
+    }
+
+    /***
+     * bucket date histogram asynchronously
+     * @param index
+     * @param field
+     * @param name
+     * @param format
+     * @param interval
+     * @param size
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<List<? extends Histogram.Bucket>> bucketDateHistogramAsync(String index, String field, String name, String format, DateHistogramInterval interval, Integer size, SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = bucketDateHistogramRequest(index, field, name, format, interval, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> histogramBuckets(response, name));
+    }
+
+    private SearchRequest bucketDateHistogramRequest(String index, String field, String name, String format, DateHistogramInterval interval, SearchSourceBuilder searchSourceBuilder) {
+        DateHistogramAggregationBuilder aggr = AggregationBuilders.dateHistogram(name)
                 .field(field)
-                .interval(1)
-                .dateHistogramInterval(interval)
                 .format(format);
+        // 与旧的 dateHistogramInterval 一致：1d、1M 这类日历单位按日历间隔，其余按固定间隔
+        if (DateHistogramAggregationBuilder.DATE_FIELD_UNITS.containsKey(interval.toString())) {
+            aggr.calendarInterval(interval);
+        } else {
+            aggr.fixedInterval(interval);
+        }
         searchSourceBuilder.size(0);
         searchSourceBuilder.aggregation(aggr);
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        Aggregations aggregations = response.getAggregations();
-        Histogram byCompanyAggregation = aggregations.get(name);
-        List<? extends Histogram.Bucket> buckets = byCompanyAggregation.getBuckets();
-        return buckets;
+        return request;
     }
 
     /***
@@ -155,6 +252,34 @@ public class AggregationOps {
     public List<ParsedTopHits> bucketTop(String index, String bucketField, String bucketName, Integer bucketSize,
                                                    String metricField, String metricName, Integer metricSize,
                                                    SearchSourceBuilder searchSourceBuilder) throws IOException {
+        SearchRequest request = bucketTopRequest(index, bucketField, bucketName, bucketSize, metricField, metricName, metricSize, searchSourceBuilder);
+        // 执行请求
+        SearchResponse response = executor.execute(EsOperation.SEARCH, index, options -> client.search(request, options));
+        return topHits(response, bucketName, metricName);
+    }
+
+    /***
+     * bucket top asynchronously
+     * @param index
+     * @param bucketField
+     * @param bucketName
+     * @param bucketSize
+     * @param metricField
+     * @param metricName
+     * @param metricSize
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<List<ParsedTopHits>> bucketTopAsync(String index, String bucketField, String bucketName, Integer bucketSize,
+                                                                 String metricField, String metricName, Integer metricSize,
+                                                                 SearchSourceBuilder searchSourceBuilder) {
+        SearchRequest request = bucketTopRequest(index, bucketField, bucketName, bucketSize, metricField, metricName, metricSize, searchSourceBuilder);
+        return searchAsync(request).thenApply(response -> topHits(response, bucketName, metricName));
+    }
+
+    private SearchRequest bucketTopRequest(String index, String bucketField, String bucketName, Integer bucketSize,
+                                           String metricField, String metricName, Integer metricSize,
+                                           SearchSourceBuilder searchSourceBuilder) {
         AggregationBuilder metricTop = AggregationBuilders.topHits(metricName)
                 .size(metricSize)
                 .sort(metricField, SortOrder.DESC);
@@ -171,8 +296,10 @@ public class AggregationOps {
         // 创建查询请求对象，将查询条件配置到其中
         SearchRequest request = new SearchRequest(index);
         request.source(searchSourceBuilder);
-        // 执行请求
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+        return request;
+    }
+
+    private List<ParsedTopHits> topHits(SearchResponse response, String bucketName, String metricName) {
         // 获取响应中的聚合信息
         Aggregations aggregations = response.getAggregations();
         // 输出内容
@@ -186,4 +313,18 @@ public class AggregationOps {
             }
             return items;
     }
+
+    private List<? extends Terms.Bucket> termsBuckets(SearchResponse response, String name) {
+        Terms byCompanyAggregation = response.getAggregations().get(name);
+        return byCompanyAggregation.getBuckets();
+    }
+
+    private List<? extends Histogram.Bucket> histogramBuckets(SearchResponse response, String name) {
+        Histogram byCompanyAggregation = response.getAggregations().get(name);
+        return byCompanyAggregation.getBuckets();
+    }
+
+    private CompletableFuture<SearchResponse> searchAsync(SearchRequest request) {
+        return executor.executeAsync(EsOperation.SEARCH, String.join(",", request.indices()), (options, listener) -> client.searchAsync(request, options, listener));
+    }
 }
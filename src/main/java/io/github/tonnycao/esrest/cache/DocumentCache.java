@@ -0,0 +1,172 @@
+package io.github.tonnycao.esrest.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size and TTL bounded cache of get results, keyed by the index name passed by the caller and the doc id.
+ * <p>
+ * Writes made through {@code DocumentOps} or {@code BulkIngestor} invalidate their entries once the write completes.
+ * A get that was sent before a write to its index completed is not cached: callers read {@link #generation(String)}
+ * before sending the get and pass it back to {@code put}, which skips the response when a write bumped it meanwhile.
+ * Writes made through an alias do not invalidate entries cached under a concrete index name, and vice versa.
+ */
+@Slf4j
+@Component
+public class DocumentCache {
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private Cache<String, Entry> cache;
+
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.Cache settings = properties.getDocumentCache();
+        if (settings.isEnabled()) {
+            cache = Caffeine.newBuilder()
+                    .maximumSize(settings.getMaximumSize())
+                    .expireAfterWrite(Duration.ofSeconds(settings.getTtlSeconds()))
+                    .recordStats()
+                    .build();
+        }
+    }
+
+    /***
+     * whether gets on this index go through the cache
+     * @param index
+     * @return
+     */
+    public boolean isCached(String index) {
+        return null != cache && properties.getDocumentCache().isCached(index);
+    }
+
+    /***
+     * cached get response, null on a miss or when only the existence of the doc is known
+     * @param index
+     * @param id
+     * @return
+     */
+    public GetResponse getResponse(String index, String id) {
+        Entry entry = cache.getIfPresent(key(index, id));
+        return null == entry ? null : entry.response;
+    }
+
+    /***
+     * cached existence of the doc, null on a miss
+     * @param index
+     * @param id
+     * @return
+     */
+    public Boolean exists(String index, String id) {
+        Entry entry = cache.getIfPresent(key(index, id));
+        return null == entry ? null : entry.exists;
+    }
+
+    /***
+     * write generation of the index, read before the get is sent
+     * @param index
+     * @return
+     */
+    public long generation(String index) {
+        return null == cache ? 0 : generationOf(index).get();
+    }
+
+    /***
+     * cache a get response, skipped when the index was written since generation was read
+     * @param index
+     * @param id
+     * @param generation
+     * @param response
+     */
+    public void put(String index, String id, long generation, GetResponse response) {
+        store(index, id, generation, new Entry(response.isExists(), response), false);
+    }
+
+    /***
+     * remember the existence of the doc without its source, never replaces a full get response
+     * @param index
+     * @param id
+     * @param generation
+     * @param exists
+     */
+    public void putExists(String index, String id, long generation, boolean exists) {
+        store(index, id, generation, new Entry(exists, null), true);
+    }
+
+    public void invalidate(String index, String id) {
+        if (null != cache && null != id) {
+            // 先递增代数再删除，之后完成的旧 get 不会再写回
+            generationOf(index).incrementAndGet();
+            cache.invalidate(key(index, id));
+        }
+    }
+
+    /***
+     * invalidate every doc touched by the write requests
+     * @param requests
+     */
+    public void invalidate(Iterable<? extends DocWriteRequest<?>> requests) {
+        if (null == cache) {
+            return;
+        }
+        for (DocWriteRequest<?> request : requests) {
+            invalidate(request.index(), request.id());
+        }
+    }
+
+    /***
+     * hit, miss and eviction counts, empty when the cache is disabled
+     * @return
+     */
+    public CacheStats stats() {
+        return null == cache ? CacheStats.empty() : cache.stats();
+    }
+
+    public long size() {
+        return null == cache ? 0 : cache.estimatedSize();
+    }
+
+    /***
+     * the generation is compared under the entry's lock, an invalidate that bumps it afterwards removes the entry
+     */
+    private void store(String index, String id, long generation, Entry entry, boolean ifAbsent) {
+        AtomicLong current = generationOf(index);
+        cache.asMap().compute(key(index, id), (key, previous) ->
+                current.get() != generation || (ifAbsent && null != previous) ? previous : entry);
+    }
+
+    private AtomicLong generationOf(String index) {
+        return generations.computeIfAbsent(index, name -> new AtomicLong());
+    }
+
+    private static String key(String index, String id) {
+        return index + '\u0000' + id;
+    }
+
+    private static class Entry {
+
+        private final boolean exists;
+
+        private final GetResponse response;
+
+        private Entry(boolean exists, GetResponse response) {
+            this.exists = exists;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package io.github.tonnycao.esrest.cache;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Weight and TTL bounded cache of search responses, keyed by the index name passed by the caller,
+ * its write generation and a sha-256 of the serialized request body (query, from/size, sort, projection).
+ * <p>
+ * Each entry lives at most {@code ttlSeconds}, shortened to the index refresh_interval when
+ * {@code alignToRefreshInterval} is set. Writes made through {@code DocumentOps} or {@code BulkIngestor}
+ * bump the generation of the index, so entries cached before the write are never served again and age out.
+ * Like {@link DocumentCache}, writes through an alias do not invalidate results cached under a concrete index name.
+ */
+@Slf4j
+@Component
+public class SearchCache {
+
+    private static final long DEFAULT_REFRESH_MILLIS = 1000;
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private Cache<String, Entry> cache;
+
+    private AsyncLoadingCache<String, Long> refreshIntervals;
+
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.SearchCache settings = properties.getSearchCache();
+        if (!settings.isEnabled()) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumWeight(settings.getMaximumWeightMb() * 1024 * 1024)
+                .weigher((String key, Entry entry) -> entry.weight)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        refreshIntervals = Caffeine.newBuilder()
+                .expireAfterWrite(5, TimeUnit.MINUTES)
+                .buildAsync((index, loader) -> loadRefreshInterval(index));
+    }
+
+    /***
+     * whether searches on this index go through the cache
+     * @param index
+     * @return
+     */
+    public boolean isCached(String index) {
+        return null != cache && properties.getSearchCache().isCached(index);
+    }
+
+    /***
+     * cache key of the request, computed before the search is sent so that a write racing
+     * with the search leaves the response under the previous generation
+     * @param index
+     * @param request
+     * @return
+     */
+    public String key(String index, SearchRequest request) {
+        String body = null == request.source() ? "" : request.source().toString();
+        return index + '\u0000' + generation(index).get() + '\u0000' + DigestUtil.sha256Hex(body);
+    }
+
+    /***
+     * cached response, null on a miss
+     * @param key
+     * @return
+     */
+    public SearchResponse get(String key) {
+        Entry entry = cache.getIfPresent(key);
+        return null == entry ? null : entry.response;
+    }
+
+    /***
+     * cache a complete response, timed out or partial responses are skipped
+     * @param index
+     * @param key
+     * @param response
+     */
+    public void put(String index, String key, SearchResponse response) {
+        if (response.isTimedOut() || response.getFailedShards() > 0) {
+            return;
+        }
+        cache.put(key, new Entry(response, weigh(response), ttlNanos(index)));
+    }
+
+    /***
+     * drop every result cached for the index
+     * @param index
+     */
+    public void invalidate(String index) {
+        if (null != cache && null != index) {
+            generation(index).incrementAndGet();
+        }
+    }
+
+    /***
+     * drop the results of every index touched by the write requests
+     * @param requests
+     */
+    public void invalidate(Iterable<? extends DocWriteRequest<?>> requests) {
+        if (null == cache) {
+            return;
+        }
+        Set<String> indices = new HashSet<>();
+        for (DocWriteRequest<?> request : requests) {
+            indices.add(request.index());
+        }
+        indices.forEach(this::invalidate);
+    }
+
+    /***
+     * hit, miss and eviction counts, empty when the cache is disabled
+     * @return
+     */
+    public CacheStats stats() {
+        return null == cache ? CacheStats.empty() : cache.stats();
+    }
+
+    public long size() {
+        return null == cache ? 0 : cache.estimatedSize();
+    }
+
+    private AtomicLong generation(String index) {
+        return generations.computeIfAbsent(index, name -> new AtomicLong());
+    }
+
+    private long ttlNanos(String index) {
+        ElasticsearchProperties.SearchCache settings = properties.getSearchCache();
+        long ttl = TimeUnit.SECONDS.toMillis(settings.getTtlSeconds());
+        if (settings.isAlignToRefreshInterval()) {
+            // 设置未返回前按默认的 1s 处理
+            long refresh = refreshIntervals.get(index).getNow(DEFAULT_REFRESH_MILLIS);
+            if (refresh > 0) {
+                ttl = Math.min(ttl, refresh);
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /***
+     * shortest refresh_interval across the indices the name resolves to, -1 when refresh is disabled on all of them
+     */
+    private CompletableFuture<Long> loadRefreshInterval(String index) {
+        GetSettingsRequest request = new GetSettingsRequest().indices(index).names(REFRESH_INTERVAL).includeDefaults(true);
+        return executor.<GetSettingsResponse>executeAsync(EsOperation.GET_SETTINGS, index, (options, listener) -> client.indices().getSettingsAsync(request, options, listener))
+                .thenApply(response -> {
+                    long shortest = -1;
+                    Iterator<String> names = response.getIndexToSettings().keysIt();
+                    while (names.hasNext()) {
+                        String name = names.next();
+                        String value = response.getSetting(name, REFRESH_INTERVAL);
+                        long millis = null == value ? DEFAULT_REFRESH_MILLIS
+                                : TimeValue.parseTimeValue(value, REFRESH_INTERVAL).millis();
+                        if (millis > 0 && (shortest < 0 || millis < shortest)) {
+                            shortest = millis;
+                        }
+                    }
+                    return shortest;
+                })
+                .exceptionally(e -> {
+                    log.warn("ES get refresh_interval of {} failed, caching with {}ms: {}", index, DEFAULT_REFRESH_MILLIS, e.getMessage());
+                    return DEFAULT_REFRESH_MILLIS;
+                });
+    }
+
+    /***
+     * approximate retained size: the _source bytes of every hit plus a fixed overhead
+     */
+    private static int weigh(SearchResponse response) {
+        long bytes = 1024;
+        for (SearchHit hit : response.getHits().getHits()) {
+            bytes += 256 + (hit.hasSource() ? hit.getSourceRef().length() : 0);
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static class Entry {
+
+        private final SearchResponse response;
+
+        private final int weight;
+
+        private final long ttlNanos;
+
+        private Entry(SearchResponse response, int weight, long ttlNanos) {
+            this.response = response;
+            this.weight = weight;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+}
@@ -1,13 +1,27 @@
 package io.github.tonnycao.esrest.config;
 
 import cn.hutool.core.util.StrUtil;
+import io.github.tonnycao.esrest.support.LatencyAwareNodeSelector;
+import io.github.tonnycao.esrest.support.RequestTracker;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
@@ -27,35 +41,90 @@ public class ElasticsearchConfig {
     @Autowired
     private ElasticsearchProperties properties;
 
+    @Autowired
+    private RequestTracker requestTracker;
+
+    @Autowired
+    private LatencyAwareNodeSelector nodeSelector;
+
     @Bean
-    public RestHighLevelClient restHighLevelClient() {
+    public RestHighLevelClient restHighLevelClient(PoolingNHttpClientConnectionManager esConnectionManager) {
+        RestClientBuilder builder = RestClient.builder(getHttpHosts(properties.getHosts(), Integer.valueOf(properties.getPort())))
+                .setRequestConfigCallback(this::customizeRequestConfig)
+                .setHttpClientConfigCallback(httpAsyncClientBuilder -> customizeHttpClient(httpAsyncClientBuilder, esConnectionManager));
+        // 按各节点的响应时间与在途请求数选择节点，默认轮询
+        if (nodeSelector.isActive()) {
+            builder.setNodeSelector(nodeSelector);
+        }
+        return new RestHighLevelClient(builder);
+    }
+
+    /**
+     * 连接池、IO reactor 线程及 TCP 参数，作为 bean 暴露以便读取连接池的使用情况
+     */
+    @Bean
+    public PoolingNHttpClientConnectionManager esConnectionManager() throws IOReactorException {
+        ElasticsearchProperties.Pool pool = properties.getPool();
+        ElasticsearchProperties.Tcp tcp = properties.getTcp();
+
+        IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom()
+                .setTcpNoDelay(tcp.isNoDelay())
+                .setSoKeepAlive(tcp.isSoKeepAlive())
+                .setSoReuseAddress(tcp.isSoReuseAddress())
+                .setSoLinger(tcp.getSoLinger());
+        if (pool.getIoThreadCount() > 0) {
+            ioReactorConfig.setIoThreadCount(pool.getIoThreadCount());
+        }
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig.build()),
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                        .register("http", NoopIOSessionStrategy.INSTANCE)
+                        .register("https", SSLIOSessionStrategy.getSystemDefaultStrategy())
+                        .build());
+        connectionManager.setMaxTotal(pool.getMaxTotalConnections());
+        connectionManager.setDefaultMaxPerRoute(pool.getMaxConnectionsPerRoute());
+        return connectionManager;
+    }
 
-        RestHighLevelClient client = null;
+    /**
+     * 连接、读取及从连接池获取连接的超时时间
+     */
+    private RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder builder) {
+        if (StrUtil.isNotBlank(properties.getTimeout())) {
+            builder.setConnectTimeout(Integer.parseInt(properties.getTimeout()));
+        }
+        if (StrUtil.isNotBlank(properties.getSocketTimeout())) {
+            builder.setSocketTimeout(Integer.parseInt(properties.getSocketTimeout()));
+        }
+        builder.setConnectionRequestTimeout(properties.getPool().getConnectionRequestTimeout());
+        return builder;
+    }
 
-        if(StrUtil.isNotBlank(properties.getUsername()) && StrUtil.isNotBlank(properties.getPassword())){
+    /**
+     * 认证、连接池、保活策略及请求各阶段的计时
+     */
+    private HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpAsyncClientBuilder,
+                                                       PoolingNHttpClientConnectionManager connectionManager) {
+        ElasticsearchProperties.Pool pool = properties.getPool();
 
+        if (StrUtil.isNotBlank(properties.getUsername()) && StrUtil.isNotBlank(properties.getPassword())) {
             final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
             credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(properties.getUsername(), properties.getPassword()));
-            client = new RestHighLevelClient(
-                    RestClient.builder(getHttpHosts(properties.getHosts(), Integer.valueOf(properties.getPort())))
-                            .setHttpClientConfigCallback((HttpAsyncClientBuilder httpAsyncClientBuilder) -> {
-                                httpAsyncClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-                                // httpclient保活策略
-                                httpAsyncClientBuilder.setKeepAliveStrategy(((response, context) -> Duration.ofMinutes(5).toMillis()));
-                                return httpAsyncClientBuilder;
-                            })
-            );
-        }else{
-            client = new RestHighLevelClient(RestClient.builder(getHttpHosts(properties.getHosts(), Integer.valueOf(properties.getPort())))
-                    .setHttpClientConfigCallback((HttpAsyncClientBuilder httpAsyncClientBuilder) -> {
-                        // httpclient保活策略
-                        httpAsyncClientBuilder.setKeepAliveStrategy(((response, context) -> Duration.ofMinutes(5).toMillis()));
-                        return httpAsyncClientBuilder;
-                    })
-            );
+            httpAsyncClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        }
 
+        httpAsyncClientBuilder.setConnectionManager(connectionManager);
+        httpAsyncClientBuilder.addInterceptorLast((HttpRequestInterceptor) requestTracker);
+        httpAsyncClientBuilder.addInterceptorFirst((HttpResponseInterceptor) requestTracker);
+        if (nodeSelector.isActive()) {
+            httpAsyncClientBuilder.addInterceptorLast((HttpRequestInterceptor) nodeSelector);
+            httpAsyncClientBuilder.addInterceptorFirst((HttpResponseInterceptor) nodeSelector);
         }
-        return client;
+
+        // httpclient保活策略
+        long keepAlive = Duration.ofMinutes(pool.getKeepAliveMinutes()).toMillis();
+        httpAsyncClientBuilder.setKeepAliveStrategy((response, context) -> keepAlive);
+        return httpAsyncClientBuilder;
     }
 
     /**
@@ -5,6 +5,11 @@ import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @ConfigurationProperties(prefix = "elasticsearch.connection")
 public class ElasticsearchProperties {
@@ -18,6 +23,7 @@ public class ElasticsearchProperties {
     @Value("elasticsearch.connection.password")
     private String password;
 
+    /** connect timeout in ms */
     @Value("elasticsearch.connection.timeout")
     private String timeout;
 
@@ -27,7 +33,351 @@ public class ElasticsearchProperties {
     @Value("elasticsearch.connection.port")
     private String port;
 
-    @Value("elasticsearch.connection.socket.timeout")
+    /** socket (read) timeout in ms */
+    @Value("elasticsearch.connection.socket-timeout")
     private String socketTimeout;
 
+    /** http connection pool settings (elasticsearch.connection.pool.*) */
+    private Pool pool = new Pool();
+
+    /** tcp options of the io reactor sockets (elasticsearch.connection.tcp.*) */
+    private Tcp tcp = new Tcp();
+
+    /** bulk ingestion pipeline settings (elasticsearch.connection.bulk.*) */
+    private Bulk bulk = new Bulk();
+
+    /** read-through cache in front of getDoc/exits (elasticsearch.connection.document-cache.*) */
+    private Cache documentCache = new Cache();
+
+    /** result cache in front of SearchOps.fetch (elasticsearch.connection.search-cache.*) */
+    private SearchCache searchCache = new SearchCache();
+
+    /** tracking and reaping of open scroll contexts (elasticsearch.connection.scroll.*) */
+    private Scroll scroll = new Scroll();
+
+    /** coalescing of concurrent getDoc calls into one _mget (elasticsearch.connection.mget-batching.*) */
+    private Batching mgetBatching = new Batching();
+
+    /** coalescing of concurrent fetch calls into one _msearch (elasticsearch.connection.msearch-batching.*) */
+    private Batching msearchBatching = new Batching();
+
+    /** micrometer meters of every call (elasticsearch.connection.metrics.*) */
+    private Metrics metrics = new Metrics();
+
+    /** log of operations slower than a threshold (elasticsearch.connection.slow-log.*) */
+    private SlowLog slowLog = new SlowLog();
+
+    /** document ids of the write path (elasticsearch.connection.ids.*) */
+    private Ids ids = new Ids();
+
+    /** retries of failed calls with exponential backoff (elasticsearch.connection.retry.*) */
+    private Retry retry = new Retry();
+
+    /** fail fast while the cluster is overloaded (elasticsearch.connection.circuit-breaker.*) */
+    private Breaker circuitBreaker = new Breaker();
+
+    /** routing of requests to the least loaded host (elasticsearch.connection.node-selection.*) */
+    private NodeSelection nodeSelection = new NodeSelection();
+
+    /** duplicate requests for slow searches (elasticsearch.connection.hedging.*) */
+    private Hedging hedging = new Hedging();
+
+    @Data
+    public static class Pool {
+
+        /** connections across all nodes */
+        private int maxTotalConnections = 100;
+
+        /** connections to a single node, the apache client default of 10 throttles concurrent searches */
+        private int maxConnectionsPerRoute = 50;
+
+        /** max wait in ms to lease a pooled connection, -1 waits forever */
+        private int connectionRequestTimeout = -1;
+
+        /** io reactor dispatcher threads, 0 keeps the default of one per cpu */
+        private int ioThreadCount = 0;
+
+        /** idle pooled connections are kept alive this long */
+        private long keepAliveMinutes = 5;
+    }
+
+    @Data
+    public static class Tcp {
+
+        private boolean noDelay = true;
+
+        private boolean soKeepAlive = true;
+
+        private boolean soReuseAddress = false;
+
+        /** SO_LINGER in seconds, -1 disables it */
+        private int soLinger = -1;
+    }
+
+    @Data
+    public static class Bulk {
+
+        /** flush once this many actions are buffered */
+        private int actions = 1000;
+
+        /** flush once the buffered actions reach this size in MB */
+        private long sizeMb = 5;
+
+        /** flush buffered actions at this interval, 0 disables the timer */
+        private long flushIntervalSeconds = 5;
+
+        /** bulk requests allowed in flight, producers block in add() beyond it; 0 means synchronous flushes */
+        private int concurrentRequests = 2;
+
+        /** initial delay of the exponential backoff applied to rejected bulks */
+        private long backoffDelayMillis = 100;
+
+        /** retries of a rejected bulk before its items are reported as failed */
+        private int backoffRetries = 3;
+
+        /** how long shutdown waits for in-flight bulks to complete */
+        private long closeTimeoutSeconds = 30;
+
+        /** batch size and concurrency adjusted at runtime, starting from actions and concurrent-requests */
+        private Adaptive adaptive = new Adaptive();
+    }
+
+    @Data
+    public static class Adaptive {
+
+        private boolean enabled = false;
+
+        /** bulks taking up to this long grow the batch size, then the concurrency */
+        private long targetLatencyMillis = 1000;
+
+        /** bulks taking longer than target-latency-millis times this shrink both, as do 429 rejections */
+        private double spikeFactor = 2.0;
+
+        /** multiplier applied on a rejection or latency spike */
+        private double decreaseFactor = 0.5;
+
+        /** actions added to the batch size per round of fast bulks */
+        private int actionsStep = 100;
+
+        private int minActions = 100;
+
+        private int maxActions = 10000;
+
+        private int maxConcurrentRequests = 8;
+    }
+
+    @Data
+    public static class Cache {
+
+        private boolean enabled = false;
+
+        /** max cached entries, evicted by W-TinyLFU */
+        private long maximumSize = 10000;
+
+        /** entries expire this long after being written */
+        private long ttlSeconds = 60;
+
+        /** indices to cache, empty means every index */
+        private List<String> indices = new ArrayList<>();
+
+        /** indices never cached, e.g. volatile ones */
+        private List<String> excludedIndices = new ArrayList<>();
+
+        public boolean isCached(String index) {
+            return enabled && !excludedIndices.contains(index) && (indices.isEmpty() || indices.contains(index));
+        }
+    }
+
+    @Data
+    public static class Scroll {
+
+        /** scroll contexts not advanced for this long are cleared, capped by their keep alive */
+        private long idleTimeoutSeconds = 300;
+
+        /** how often open contexts are checked */
+        private long reaperIntervalSeconds = 30;
+
+        /** remember the stack of the caller that opened each context and log it when the context is reaped */
+        private boolean captureOrigin = false;
+
+        /** slices a slice export drives at once, further slices wait for a free worker */
+        private int exportThreads = 8;
+    }
+
+    @Data
+    public static class Batching {
+
+        private boolean enabled = false;
+
+        /** dispatch a batch once it holds this many requests */
+        private int maxBatchSize = 100;
+
+        /** dispatch a batch at the latest this long after its first request, in microseconds */
+        private long windowMicros = 1000;
+    }
+
+    @Data
+    public static class SearchCache {
+
+        private boolean enabled = false;
+
+        /** upper bound of the cached hits' _source bytes, evicted by W-TinyLFU */
+        private long maximumWeightMb = 64;
+
+        /** entries never live longer than this */
+        private long ttlSeconds = 30;
+
+        /** shorten the ttl to the index refresh_interval, after which a refresh may change the results */
+        private boolean alignToRefreshInterval = true;
+
+        /** indices to cache, empty means every index */
+        private List<String> indices = new ArrayList<>();
+
+        /** indices never cached, e.g. volatile ones */
+        private List<String> excludedIndices = new ArrayList<>();
+
+        public boolean isCached(String index) {
+            return enabled && !excludedIndices.contains(index) && (indices.isEmpty() || indices.contains(index));
+        }
+    }
+
+    @Data
+    public static class Metrics {
+
+        private boolean enabled = true;
+
+        /** tag meters with the index name, turn off when names are unbounded, e.g. one index per day */
+        private boolean indexTag = true;
+
+        /** publish histogram buckets so percentiles can be aggregated across instances */
+        private boolean percentileHistogram = true;
+    }
+
+    @Data
+    public static class SlowLog {
+
+        /** also sends every request with an X-Opaque-Id to time its http phases */
+        private boolean enabled = false;
+
+        /** operations taking at least this long are logged */
+        private long thresholdMillis = 1000;
+
+        /** request body logged up to this many chars */
+        private int maxSourceChars = 1024;
+
+        /** fraction of slow searches sent again with profile=true, 0 disables profiling */
+        private double profileSampleRate = 0;
+    }
+
+    @Data
+    public static class Ids {
+
+        /** caller, auto, snowflake or the name of an IdStrategy bean */
+        private String strategy = "caller";
+
+        /** strategy by index name, a trailing * matches a prefix, e.g. index-strategies[logs-*]=auto */
+        private Map<String, String> indexStrategies = new LinkedHashMap<>();
+
+        /** where the snowflake node id comes from: lease, host or fixed */
+        private String workerIdSource = "lease";
+
+        /** node id 0..1023 used with worker-id-source=fixed */
+        private int workerId = 0;
+
+        /** index holding one lease doc per node id */
+        private String leaseIndex = "esrest-worker-ids";
+
+        private long leaseTtlSeconds = 60;
+
+        /** node ids tried per lease acquisition, starting at a hash of the JVM; after a takeover the renewer keeps trying */
+        private int leaseProbes = 64;
+
+        /** how far snowflake ids may run ahead of the clock */
+        private long maxDriftMillis = 5;
+    }
+
+    @Data
+    public static class Retry {
+
+        /** off: every call is sent once and fails with its first failure */
+        private boolean enabled = false;
+
+        /** retries after the first attempt */
+        private int maxRetries = 2;
+
+        /** override of max-retries by operation, e.g. max-retries-by-operation.search=3, bulk=0 */
+        private Map<String, Integer> maxRetriesByOperation = new LinkedHashMap<>();
+
+        /** delays are drawn uniformly below initial-delay-millis * 2^retry, capped at max-delay-millis */
+        private long initialDelayMillis = 50;
+
+        private long maxDelayMillis = 2000;
+
+        /** retries allowed per call made, so a struggling cluster sees at most this much extra load */
+        private double budgetRatio = 0.1;
+
+        /** retries that can be spent in a burst, the budget starts full */
+        private int budgetBurst = 10;
+    }
+
+    @Data
+    public static class Breaker {
+
+        /** off: calls are always sent, never failed fast with CircuitOpenException */
+        private boolean enabled = false;
+
+        /** outcomes of the last calls the failure rate is computed over */
+        private int windowSize = 100;
+
+        /** no decision before this many calls are in the window */
+        private int minimumCalls = 20;
+
+        /** share of overload failures (429, 5xx gateway/unavailable, timeouts, connection errors) that opens the breaker */
+        private double failureRateThreshold = 0.5;
+
+        /** calls fail fast this long before trial calls are let through */
+        private long openMillis = 5000;
+
+        /** trial calls that must all succeed to close the breaker again */
+        private int halfOpenCalls = 5;
+    }
+
+    @Data
+    public static class NodeSelection {
+
+        /**
+         * off: the low level client round-robins over the hosts. On, each request is pinned to one host and the
+         * low level client no longer fails over to another; only calls retried by retry.* reach a second host, so
+         * it is ignored while retry is off, and calls that are not retried fail with their host
+         */
+        private boolean enabled = false;
+
+        /** time constant of the latency average, an idle host's latency halves in about 0.7 of it */
+        private long decayMillis = 10000;
+
+        /** requests without a response after this long count as that slow and stop counting as in flight */
+        private long staleMillis = 30000;
+    }
+
+    @Data
+    public static class Hedging {
+
+        /** the duplicate avoids the first attempt's host through node selection, ignored with a warning unless node-selection.enabled and retry.enabled */
+        private boolean enabled = false;
+
+        /** operations hedged, only idempotent ones are */
+        private List<String> operations = new ArrayList<>(List.of("search"));
+
+        /** a duplicate is sent to another host when no answer came within this percentile of recent latencies */
+        private double percentile = 0.95;
+
+        /** no hedging before this many latencies are known */
+        private int minSamples = 100;
+
+        private long minDelayMillis = 5;
+
+        /** duplicates allowed per call made, bounds the extra load */
+        private double budgetRatio = 0.05;
+    }
+
 }
@@ -0,0 +1,203 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationListener;
+import io.github.tonnycao.esrest.support.OperationTrace;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes bulks and limits how many are in flight from what the cluster answers (AIMD).
+ * <p>
+ * Every bulk sent through the starter is fed back here. A bulk finishing within {@code target-latency-millis}
+ * adds {@code actions-step / concurrency} to the batch size, so the batch grows by about one step per round of
+ * bulks; at {@code max-actions} the concurrency grows by about one per round instead. An item rejected with 429,
+ * a bulk rejected as a whole, a timeout or a bulk slower than target times {@code spike-factor} multiplies both
+ * by {@code decrease-factor}. Bulks that were already in flight when a decrease happened do not decrease again,
+ * one overload costs one step back.
+ * <p>
+ * With {@code bulk.adaptive.enabled=false} the batch size and concurrency stay at {@code bulk.actions} and
+ * {@code bulk.concurrent-requests}, and the streaming bulks of {@link DocumentOps} send one chunk at a time;
+ * the rejection metrics are recorded either way.
+ */
+@Slf4j
+@Component
+public class AdaptiveBulkController implements OperationListener, MeterBinder {
+
+    /** weight of the latest bulk in the rejection ratio */
+    private static final double RATIO_WEIGHT = 0.2;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private double batchSize;
+
+    private double concurrency;
+
+    private int inFlight;
+
+    /** System.nanoTime() of the last decrease */
+    private long lastDecrease = System.nanoTime();
+
+    private volatile double rejectionRatio;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder decreases = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.Bulk bulk = properties.getBulk();
+        ElasticsearchProperties.Adaptive adaptive = bulk.getAdaptive();
+        batchSize = adaptive.isEnabled()
+                ? Math.max(adaptive.getMinActions(), Math.min(adaptive.getMaxActions(), bulk.getActions()))
+                : bulk.getActions();
+        concurrency = adaptive.isEnabled()
+                ? Math.max(1, Math.min(adaptive.getMaxConcurrentRequests(), bulk.getConcurrentRequests()))
+                : Math.max(1, bulk.getConcurrentRequests());
+    }
+
+    /***
+     * actions to put in the next bulk
+     * @return
+     */
+    public synchronized int getBatchSize() {
+        return (int) batchSize;
+    }
+
+    /***
+     * bulks allowed in flight
+     * @return
+     */
+    public synchronized int getConcurrency() {
+        return (int) concurrency;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /***
+     * share of bulk items rejected with 429, weighted towards recent bulks
+     * @return
+     */
+    public double getRejectionRatio() {
+        return rejectionRatio;
+    }
+
+    /***
+     * wait for a free bulk slot, pair with {@link #release()}
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) concurrency) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    @Override
+    public void onOperation(OperationTrace trace, Object response, Throwable failure) {
+        if (EsOperation.BULK != trace.getOperation()) {
+            return;
+        }
+        long started = System.nanoTime() - trace.getNanos();
+        if (null != failure) {
+            if (isRejection(failure) || failure instanceof SocketTimeoutException) {
+                decrease(started, "bulk " + failure.getMessage());
+            }
+            return;
+        }
+        BulkItemResponse[] responses = ((BulkResponse) response).getItems();
+        int rejections = 0;
+        for (BulkItemResponse item : responses) {
+            if (item.isFailed() && RestStatus.TOO_MANY_REQUESTS == item.getFailure().getStatus()) {
+                rejections++;
+            }
+        }
+        rejected.add(rejections);
+        if (responses.length > 0) {
+            updateRatio((double) rejections / responses.length);
+        }
+
+        ElasticsearchProperties.Adaptive settings = properties.getBulk().getAdaptive();
+        long target = TimeUnit.MILLISECONDS.toNanos(settings.getTargetLatencyMillis());
+        if (rejections > 0) {
+            decrease(started, rejections + " of " + responses.length + " items rejected");
+        } else if (trace.getNanos() > target * settings.getSpikeFactor()) {
+            decrease(started, "bulk took " + TimeUnit.NANOSECONDS.toMillis(trace.getNanos()) + "ms");
+        } else if (trace.getNanos() <= target) {
+            increase(started);
+        }
+    }
+
+    private synchronized void updateRatio(double ratio) {
+        rejectionRatio += RATIO_WEIGHT * (ratio - rejectionRatio);
+    }
+
+    private synchronized void increase(long started) {
+        ElasticsearchProperties.Adaptive settings = properties.getBulk().getAdaptive();
+        if (!settings.isEnabled() || started - lastDecrease < 0) {
+            return;
+        }
+        if (batchSize < settings.getMaxActions()) {
+            batchSize = Math.min(settings.getMaxActions(), batchSize + settings.getActionsStep() / concurrency);
+        } else if (concurrency < settings.getMaxConcurrentRequests()) {
+            concurrency = Math.min(settings.getMaxConcurrentRequests(), concurrency + 1 / concurrency);
+            notifyAll();
+        }
+    }
+
+    private synchronized void decrease(long started, String reason) {
+        ElasticsearchProperties.Adaptive settings = properties.getBulk().getAdaptive();
+        if (!settings.isEnabled() || started - lastDecrease < 0) {
+            return;
+        }
+        batchSize = Math.max(settings.getMinActions(), batchSize * settings.getDecreaseFactor());
+        concurrency = Math.max(1, concurrency * settings.getDecreaseFactor());
+        lastDecrease = System.nanoTime();
+        decreases.increment();
+        log.info("bulk backing off to {} actions, {} in flight: {}", (int) batchSize, (int) concurrency, reason);
+    }
+
+    private static boolean isRejection(Throwable failure) {
+        return failure instanceof ElasticsearchException
+                && RestStatus.TOO_MANY_REQUESTS == ((ElasticsearchException) failure).status();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("es.bulk.batch.size", this, AdaptiveBulkController::getBatchSize)
+                .description("actions per bulk").register(registry);
+        Gauge.builder("es.bulk.concurrency", this, AdaptiveBulkController::getConcurrency)
+                .description("bulks allowed in flight").register(registry);
+        Gauge.builder("es.bulk.in.flight", this, AdaptiveBulkController::getInFlight)
+                .description("bulks in flight through the adaptive paths").register(registry);
+        Gauge.builder("es.bulk.rejection.ratio", this, AdaptiveBulkController::getRejectionRatio)
+                .description("share of bulk items rejected with 429, recent bulks weigh more").register(registry);
+        FunctionCounter.builder("es.bulk.rejected", rejected, LongAdder::sum)
+                .description("bulk items rejected with 429").register(registry);
+        FunctionCounter.builder("es.bulk.backoffs", decreases, LongAdder::sum)
+                .description("times batch size and concurrency were cut").register(registry);
+    }
+}
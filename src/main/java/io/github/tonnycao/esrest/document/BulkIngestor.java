@@ -0,0 +1,229 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.cache.DocumentCache;
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.id.DocumentIds;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous ingestion pipeline backed by a {@link BulkProcessor}.
+ * <p>
+ * Documents are buffered and flushed by action count, byte size and time interval
+ * (see {@link ElasticsearchProperties.Bulk}). At most {@code concurrentRequests} bulks
+ * are in flight; once that limit is reached {@link #add} blocks the calling thread until
+ * a bulk completes, which is the backpressure applied to producers.
+ * <p>
+ * With {@code bulk.adaptive.enabled} the in-flight limit follows the {@link AdaptiveBulkController} instead,
+ * up to {@code bulk.adaptive.max-concurrent-requests}; the flush thresholds stay fixed.
+ */
+@Slf4j
+@Service
+public class BulkIngestor {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private SearchCache searchCache;
+
+    @Autowired
+    private DocumentIds documentIds;
+
+    @Autowired
+    private AdaptiveBulkController bulkController;
+
+    private BulkProcessor processor;
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.Bulk bulk = properties.getBulk();
+        boolean adaptive = bulk.getAdaptive().isEnabled();
+        BulkProcessor.Builder builder = BulkProcessor.builder(
+                (request, bulkListener) -> {
+                    if (adaptive) {
+                        try {
+                            bulkController.acquire();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            bulkListener.onFailure(e);
+                            return;
+                        }
+                    }
+                    executor.<BulkResponse>executeAsync(EsOperation.BULK, null,
+                            (options, listener) -> client.bulkAsync(request, options, listener))
+                            .whenComplete((response, e) -> {
+                                if (adaptive) {
+                                    bulkController.release();
+                                }
+                                if (null == e) {
+                                    bulkListener.onResponse(response);
+                                } else {
+                                    bulkListener.onFailure(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+                                }
+                            });
+                },
+                new Listener())
+                .setBulkActions(bulk.getActions())
+                .setBulkSize(new ByteSizeValue(bulk.getSizeMb(), ByteSizeUnit.MB))
+                .setConcurrentRequests(adaptive ? bulk.getAdaptive().getMaxConcurrentRequests() : bulk.getConcurrentRequests())
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+                        TimeValue.timeValueMillis(bulk.getBackoffDelayMillis()), bulk.getBackoffRetries()));
+        if (bulk.getFlushIntervalSeconds() > 0) {
+            builder.setFlushInterval(TimeValue.timeValueSeconds(bulk.getFlushIntervalSeconds()));
+        }
+        processor = builder.build();
+    }
+
+    /***
+     * queue one doc for indexing, the id comes from the index's id strategy
+     * @param index
+     * @param doc
+     */
+    public void add(String index, Map<String, Object> doc) {
+        processor.add(DocumentOps.buildIndexRequest(index, documentIds.id(index, doc), doc));
+    }
+
+    /***
+     * queue one POJO doc for indexing, the id comes from the index's id strategy
+     * @param index
+     * @param doc
+     */
+    public void add(String index, BaseDoc doc) {
+        processor.add(DocumentOps.buildIndexRequest(index, documentIds.id(index, doc), doc));
+    }
+
+    /***
+     * queue a partial update, doc is merged into the existing doc
+     * @param index
+     * @param id
+     * @param doc
+     */
+    public void update(String index, String id, Map<String, Object> doc) {
+        processor.add(DocumentOps.buildUpdateRequest(index, id, doc));
+    }
+
+    /***
+     * queue a partial update that indexes doc as a new doc when the id does not exist
+     * @param index
+     * @param id
+     * @param doc
+     */
+    public void upsert(String index, String id, Map<String, Object> doc) {
+        processor.add(DocumentOps.buildUpsertRequest(index, id, doc));
+    }
+
+    /***
+     * queue a delete
+     * @param index
+     * @param id
+     */
+    public void delete(String index, String id) {
+        processor.add(DocumentOps.buildDeleteRequest(index, id));
+    }
+
+    /***
+     * queue any write request (index, update or delete)
+     * @param request
+     */
+    public void add(DocWriteRequest<?> request) {
+        processor.add(request);
+    }
+
+    /***
+     * flush buffered actions now
+     */
+    public void flush() {
+        processor.flush();
+    }
+
+    /***
+     * items acknowledged by the cluster
+     * @return
+     */
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    /***
+     * items rejected by the cluster or lost with a failed bulk
+     * @return
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        long timeout = properties.getBulk().getCloseTimeoutSeconds();
+        if (!processor.awaitClose(timeout, TimeUnit.SECONDS)) {
+            log.warn("bulk ingestor closed with bulks still in flight after {}s", timeout);
+        }
+    }
+
+    private class Listener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.debug("bulk [{}] executing {} actions", executionId, request.numberOfActions());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            documentCache.invalidate(request.requests());
+            searchCache.invalidate(request.requests());
+            int failures = 0;
+            if (response.hasFailures()) {
+                for (BulkItemResponse item : response.getItems()) {
+                    if (item.isFailed()) {
+                        failures++;
+                    }
+                }
+                log.warn("bulk [{}] completed with {} failures: {}", executionId, failures, response.buildFailureMessage());
+            }
+            succeeded.add(request.numberOfActions() - failures);
+            failed.add(failures);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            documentCache.invalidate(request.requests());
+            searchCache.invalidate(request.requests());
+            failed.add(request.numberOfActions());
+            log.error("bulk [{}] of {} actions failed: {}", executionId, request.numberOfActions(), failure.getMessage());
+        }
+    }
+}
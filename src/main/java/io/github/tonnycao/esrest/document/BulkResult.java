@@ -0,0 +1,43 @@
+package io.github.tonnycao.esrest.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact outcome of a bulk call: the number of acknowledged items plus one entry per failed item.
+ */
+@Data
+public class BulkResult implements Serializable {
+
+    private long succeeded;
+
+    private List<Failure> failures = new ArrayList<>();
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public void merge(BulkResult other) {
+        succeeded += other.succeeded;
+        failures.addAll(other.failures);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Failure implements Serializable {
+
+        /** position of the item in the submitted sequence */
+        private long position;
+
+        private String id;
+
+        /** http status of the item, 429 for rejections that ran out of retries */
+        private int status;
+
+        private String reason;
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.tonnycao.esrest.document;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes documents into UTF-8 request bodies and decodes sources straight from the raw
+ * response bytes into POJOs, without building the intermediate {@code Map<String, Object>} tree.
+ */
+public final class DocumentCodec {
+
+    private static final SerializerFeature[] FEATURES = {
+            SerializerFeature.WriteMapNullValue,
+            SerializerFeature.DisableCircularReferenceDetect,
+            SerializerFeature.WriteDateUseDateFormat
+    };
+
+    private DocumentCodec() {
+    }
+
+    /***
+     * encode a map or POJO into UTF-8 json bytes with the global serializer config, as JSON.toJSONString does;
+     * the writer reuses fastjson's thread local char buffer, and the result is encoded once, straight into a right-sized byte array
+     * @param doc
+     * @return
+     */
+    public static byte[] encode(Object doc) {
+        SerializeWriter out = new SerializeWriter(null, JSON.DEFAULT_GENERATE_FEATURE, FEATURES);
+        try {
+            new JSONSerializer(out, SerializeConfig.getGlobalInstance()).write(doc);
+            return out.toBytes(StandardCharsets.UTF_8);
+        } finally {
+            out.close();
+        }
+    }
+
+    /***
+     * decode raw source bytes into type
+     * @param source
+     * @param type
+     * @return null when there is no source
+     */
+    public static <T> T decode(BytesReference source, Class<T> type) {
+        if (null == source || source.length() == 0) {
+            return null;
+        }
+        BytesRef ref = source.toBytesRef();
+        return JSON.parseObject(ref.bytes, ref.offset, ref.length, StandardCharsets.UTF_8, type);
+    }
+
+    /***
+     * decode the source of one search hit into type
+     * @param hit
+     * @param type
+     * @return
+     */
+    public static <T> T decode(SearchHit hit, Class<T> type) {
+        return decode(hit.getSourceRef(), type);
+    }
+}
@@ -1,28 +1,52 @@
 package io.github.tonnycao.esrest.document;
 
-import com.alibaba.fastjson.JSONObject;
-import com.alibaba.fastjson.serializer.SerializerFeature;
+import io.github.tonnycao.esrest.cache.DocumentCache;
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.id.DocumentIds;
+import io.github.tonnycao.esrest.search.SourceFilter;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import io.github.tonnycao.esrest.utils.ActionFutures;
+import io.github.tonnycao.esrest.utils.MicroBatcher;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -32,27 +56,87 @@ public class DocumentOps {
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private SearchCache searchCache;
+
+    @Autowired
+    private DocumentIds documentIds;
+
+    @Autowired
+    private AdaptiveBulkController bulkController;
+
+    private MicroBatcher<MultiGetRequest.Item, MultiGetItemResponse> getBatcher;
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.Batching batching = properties.getMgetBatching();
+        if (batching.isEnabled()) {
+            getBatcher = new MicroBatcher<>("es-mget-batcher", batching.getMaxBatchSize(), batching.getWindowMicros(), this::multiGetBatch);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (null != getBatcher) {
+            getBatcher.close();
+        }
+    }
+
     /***
-     * add one doc
+     * add one doc, the id comes from the index's id strategy
      * @param name
      * @param jsonMap
      * @return
      * @throws IOException
      */
     public Boolean addDoc(String name, Map<String, Object> jsonMap) throws IOException {
-        IndexRequest request = new IndexRequest(name);
-        request.type("_doc");
-        if(null != jsonMap.get("id")){
-            request.id(jsonMap.get("id").toString());
-        }
-        String json = JSONObject.toJSONString(jsonMap, SerializerFeature.WriteMapNullValue,
-                SerializerFeature.DisableCircularReferenceDetect,
-                SerializerFeature.WriteDateUseDateFormat);
-        request.source(json, XContentType.JSON);
-
-        IndexResponse response = client.index(request, RequestOptions.DEFAULT);
-        log.info("{}", JSONObject.toJSONString(response));
-        return response.getResult() == DocWriteResponse.Result.CREATED;
+        IndexRequest request = buildIndexRequest(name, documentIds.id(name, jsonMap), jsonMap);
+
+        try {
+            IndexResponse response = executor.execute(EsOperation.INDEX, name, options -> client.index(request, options));
+            return isCreated(response);
+        } finally {
+            invalidate(name, request.id());
+        }
+    }
+
+    /***
+     * add one POJO doc, the id comes from the index's id strategy
+     * @param name
+     * @param doc
+     * @return
+     * @throws IOException
+     */
+    public Boolean addDoc(String name, BaseDoc doc) throws IOException {
+        IndexRequest request = buildIndexRequest(name, documentIds.id(name, doc), doc);
+        try {
+            IndexResponse response = executor.execute(EsOperation.INDEX, name, options -> client.index(request, options));
+            return isCreated(response);
+        } finally {
+            invalidate(name, request.id());
+        }
+    }
+
+    /***
+     * add one doc asynchronously
+     * @param name
+     * @param jsonMap
+     * @return
+     */
+    public CompletableFuture<Boolean> addDocAsync(String name, Map<String, Object> jsonMap) {
+        IndexRequest request = buildIndexRequest(name, documentIds.id(name, jsonMap), jsonMap);
+        return executor.<IndexResponse>executeAsync(EsOperation.INDEX, name, (options, listener) -> client.indexAsync(request, options, listener))
+                .whenComplete((response, e) -> invalidate(name, request.id()))
+                .thenApply(this::isCreated);
     }
 
     /***
@@ -63,39 +147,396 @@ public class DocumentOps {
      * @throws IOException
      */
     public Map<String, Object> getDoc(String indexName, String id) throws IOException {
-        GetRequest request = new GetRequest (
-                indexName,
-                "_doc",
-                id);
-        GetResponse getResponse = client.get(request, RequestOptions.DEFAULT);
-        return getResponse.getSource();
+        return toSource(indexName, get(indexName, id));
+    }
+
+    /***
+     * query one doc asynchronously
+     * @param indexName
+     * @param id
+     * @return
+     */
+    public CompletableFuture<Map<String, Object>> getDocAsync(String indexName, String id) {
+        return getAsync(indexName, id).thenApply(response -> toSource(indexName, response));
+    }
+
+    /***
+     * query one doc returning only the projected fields
+     * @param indexName
+     * @param id
+     * @param sourceFilter _source includes/excludes and stored fields, docvalue fields are not supported by get
+     * @return null when the doc does not exist
+     * @throws IOException
+     */
+    public Map<String, Object> getDoc(String indexName, String id, SourceFilter sourceFilter) throws IOException {
+        GetRequest request = new GetRequest(indexName, id);
+        request.fetchSourceContext(sourceFilter.toFetchSourceContext());
+        if (!sourceFilter.getStoredFields().isEmpty()) {
+            request.storedFields(sourceFilter.getStoredFields().toArray(new String[0]));
+        }
+        GetResponse getResponse = executor.execute(EsOperation.GET, indexName, options -> client.get(request, options));
+        return sourceFilter.toItem(getResponse);
+    }
+
+    /***
+     * query one doc decoded into type
+     * @param indexName
+     * @param id
+     * @param type
+     * @return null when the doc does not exist
+     * @throws IOException
+     */
+    public <T> T getDoc(String indexName, String id, Class<T> type) throws IOException {
+        GetResponse getResponse = get(indexName, id);
+        return DocumentCodec.decode(getResponse.getSourceAsBytesRef(), type);
+    }
+
+    /***
+     * query one doc decoded into type asynchronously
+     * @param indexName
+     * @param id
+     * @param type
+     * @return
+     */
+    public <T> CompletableFuture<T> getDocAsync(String indexName, String id, Class<T> type) {
+        return getAsync(indexName, id).thenApply(response -> DocumentCodec.decode(response.getSourceAsBytesRef(), type));
+    }
+
+    /***
+     * query several docs with one _mget, cached docs are not requested again
+     * @param indexName
+     * @param ids
+     * @return source of every existing doc by id, in the order of ids
+     * @throws IOException
+     */
+    public Map<String, Map<String, Object>> multiGet(String indexName, Collection<String> ids) throws IOException {
+        return toItems(ids, multiGetResponses(indexName, ids), response -> toSource(indexName, response));
+    }
+
+    /***
+     * query several docs with one _mget, decoded into type
+     * @param indexName
+     * @param ids
+     * @param type
+     * @return every existing doc by id, in the order of ids
+     * @throws IOException
+     */
+    public <T> Map<String, T> multiGet(String indexName, Collection<String> ids, Class<T> type) throws IOException {
+        return toItems(ids, multiGetResponses(indexName, ids), response -> DocumentCodec.decode(response.getSourceAsBytesRef(), type));
+    }
+
+    /***
+     * query several docs with one _mget asynchronously
+     * @param indexName
+     * @param ids
+     * @return
+     */
+    public CompletableFuture<Map<String, Map<String, Object>>> multiGetAsync(String indexName, Collection<String> ids) {
+        Map<String, GetResponse> responses = new HashMap<>();
+        long generation = documentCache.generation(indexName);
+        MultiGetRequest request = buildMultiGetRequest(indexName, ids, responses);
+        if (request.getItems().isEmpty()) {
+            return CompletableFuture.completedFuture(toItems(ids, responses, response -> toSource(indexName, response)));
+        }
+        return executor.<MultiGetResponse>executeAsync(EsOperation.MGET, indexName, (options, listener) -> client.mgetAsync(request, options, listener))
+                .thenApply(response -> {
+                    collect(indexName, generation, response, responses);
+                    return toItems(ids, responses, item -> toSource(indexName, item));
+                });
     }
 
     /***
      * batch add docs
      * @param index
      * @param items
-     * @return
+     * @return number of docs indexed successfully
      * @throws IOException
      */
     public Integer bulkAddDoc(String index, List<Map<String, Object>> items) throws IOException {
+        BulkRequest bulk = buildBulkRequest(index, items);
+        try {
+            BulkResponse responses =  executor.execute(EsOperation.BULK, index, options -> client.bulk(bulk,options));
+            return countSucceeded(responses);
+        } finally {
+            invalidate(bulk.requests());
+        }
+    }
+
+    /***
+     * batch add POJO docs
+     * @param index
+     * @param docs
+     * @return number of docs indexed successfully
+     * @throws IOException
+     */
+    public Integer bulkAddDocs(String index, List<? extends BaseDoc> docs) throws IOException {
+        String[] ids = documentIds.ids(index, docs);
         BulkRequest bulk = new BulkRequest();
+        for (int i = 0; i < ids.length; i++) {
+            bulk.add(buildIndexRequest(index, ids[i], docs.get(i)));
+        }
+        try {
+            return countSucceeded(executor.execute(EsOperation.BULK, index, options -> client.bulk(bulk, options)));
+        } finally {
+            invalidate(bulk.requests());
+        }
+    }
+
+    /***
+     * batch add docs asynchronously
+     * @param index
+     * @param items
+     * @return number of docs indexed successfully
+     */
+    public CompletableFuture<Integer> bulkAddDocAsync(String index, List<Map<String, Object>> items) {
+        BulkRequest bulk = buildBulkRequest(index, items);
+        return executor.<BulkResponse>executeAsync(EsOperation.BULK, index, (options, listener) -> client.bulkAsync(bulk, options, listener))
+                .whenComplete((response, e) -> invalidate(bulk.requests()))
+                .thenApply(this::countSucceeded);
+    }
+
+    /***
+     * batch add docs asynchronously, failed items are reported at position offset + i
+     * @param index
+     * @param items
+     * @param offset position of the first item in the caller's sequence
+     * @return
+     */
+    public CompletableFuture<BulkResult> bulkAddDocAsync(String index, List<Map<String, Object>> items, long offset) {
+        BulkRequest bulk = buildBulkRequest(index, items);
+        return executor.<BulkResponse>executeAsync(EsOperation.BULK, index, (options, listener) -> client.bulkAsync(bulk, options, listener))
+                .whenComplete((response, e) -> invalidate(bulk.requests()))
+                .thenApply(response -> toBulkResult(response, offset));
+    }
+
+    /***
+     * stream docs into the index in chunks of chunkSize, only one chunk is held in memory;
+     * items rejected with 429 are re-submitted alone with exponential backoff
+     * @param index
+     * @param items
+     * @param chunkSize
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException when chunkSize is below 1
+     */
+    public BulkResult bulkAddDoc(String index, Iterator<Map<String, Object>> items, int chunkSize) throws IOException {
+        return bulk(new Iterator<IndexRequest>() {
+            @Override
+            public boolean hasNext() {
+                return items.hasNext();
+            }
 
-        for (Map<String, Object> item: items) {
-            IndexRequest request = new IndexRequest(index);
-            String json = JSONObject.toJSONString(item, SerializerFeature.WriteMapNullValue,
-                    SerializerFeature.DisableCircularReferenceDetect,
-                    SerializerFeature.WriteDateUseDateFormat);
-            request.type("_doc");
-            if(null != item.get("id")){
-                request.id(item.get("id").toString());
+            @Override
+            public IndexRequest next() {
+                Map<String, Object> item = items.next();
+                return buildIndexRequest(index, documentIds.id(index, item), item);
+            }
+        }, chunkSize);
+    }
+
+    /***
+     * stream variant of {@link #bulkAddDoc(String, Iterator, int)}, the stream is consumed lazily
+     * @param index
+     * @param items
+     * @param chunkSize
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException when chunkSize is below 1
+     */
+    public BulkResult bulkAddDoc(String index, Stream<Map<String, Object>> items, int chunkSize) throws IOException {
+        return bulkAddDoc(index, items.iterator(), chunkSize);
+    }
+
+    /***
+     * stream docs into the index in chunks sized by the {@link AdaptiveBulkController}, see {@link #bulk(Iterator)};
+     * with bulk.adaptive.enabled chunks run concurrently and may complete out of order, so of two docs with the
+     * same id in different chunks either may be indexed last
+     * @param index
+     * @param items
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkAddDoc(String index, Iterator<Map<String, Object>> items) throws IOException {
+        return bulk(new Iterator<IndexRequest>() {
+            @Override
+            public boolean hasNext() {
+                return items.hasNext();
+            }
+
+            @Override
+            public IndexRequest next() {
+                Map<String, Object> item = items.next();
+                return buildIndexRequest(index, documentIds.id(index, item), item);
+            }
+        });
+    }
+
+    /***
+     * stream variant of {@link #bulkAddDoc(String, Iterator)}, the stream is consumed lazily;
+     * with bulk.adaptive.enabled docs with the same id may be indexed out of order
+     * @param index
+     * @param items
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkAddDoc(String index, Stream<Map<String, Object>> items) throws IOException {
+        return bulkAddDoc(index, items.iterator());
+    }
+
+    /***
+     * partially update many docs, each map is merged into the existing doc; missing docs are reported as 404 failures
+     * @param index
+     * @param docs partial doc by id
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkUpdate(String index, Map<String, Map<String, Object>> docs) throws IOException {
+        return bulk(docs.entrySet().stream().map(doc -> buildUpdateRequest(index, doc.getKey(), doc.getValue())));
+    }
+
+    /***
+     * update many docs, indexing the partial doc as a new doc when the id does not exist (doc_as_upsert)
+     * @param index
+     * @param docs partial doc by id
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkUpsert(String index, Map<String, Map<String, Object>> docs) throws IOException {
+        return bulk(docs.entrySet().stream().map(doc -> buildUpsertRequest(index, doc.getKey(), doc.getValue())));
+    }
+
+    /***
+     * run one painless script against many docs, each with its own params
+     * @param index
+     * @param source painless source, e.g. "ctx._source.status = params.status"
+     * @param params script params by id
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkUpdateByScript(String index, String source, Map<String, Map<String, Object>> params) throws IOException {
+        return bulk(params.entrySet().stream().map(doc -> buildScriptedUpdateRequest(index, doc.getKey(), source, doc.getValue())));
+    }
+
+    /***
+     * delete many docs by id, ids that do not exist count as succeeded
+     * @param index
+     * @param ids
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulkDelete(String index, Collection<String> ids) throws IOException {
+        return bulk(ids.stream().map(id -> buildDeleteRequest(index, id)));
+    }
+
+    /***
+     * execute any mix of index, update and delete requests in chunks of chunkSize, only one chunk is held in memory;
+     * items rejected with 429 are re-submitted alone with exponential backoff
+     * @param requests
+     * @param chunkSize
+     * @return succeeded count plus one failure per rejected item, positioned in the order of requests
+     * @throws IOException
+     * @throws IllegalArgumentException when chunkSize is below 1, before any request is read
+     */
+    public BulkResult bulk(Iterator<? extends DocWriteRequest<?>> requests, int chunkSize) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be at least 1, got " + chunkSize);
+        }
+        BulkResult result = new BulkResult();
+        List<DocWriteRequest<?>> chunk = new ArrayList<>(chunkSize);
+        long position = 0;
+        while (requests.hasNext()) {
+            chunk.add(requests.next());
+            if (chunk.size() == chunkSize || !requests.hasNext()) {
+                result.merge(bulkWithRetry(chunk, position));
+                position += chunk.size();
+                chunk = new ArrayList<>(chunkSize);
             }
-            request.source(json, XContentType.JSON);
-            bulk.add(request);
         }
+        return result;
+    }
 
-        BulkResponse responses =  client.bulk(bulk,RequestOptions.DEFAULT);
-        return responses.getItems().length;
+    /***
+     * stream variant of {@link #bulk(Iterator, int)}, the stream is consumed lazily
+     * @param requests
+     * @param chunkSize
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException when chunkSize is below 1
+     */
+    public BulkResult bulk(Stream<? extends DocWriteRequest<?>> requests, int chunkSize) throws IOException {
+        return bulk(requests.iterator(), chunkSize);
+    }
+
+    /***
+     * execute any mix of index, update and delete requests in chunks sized by the {@link AdaptiveBulkController},
+     * with as many chunks in flight as it allows; items rejected with 429 are re-submitted alone with exponential backoff.
+     * With bulk.adaptive.enabled chunks may complete out of order, requests on the same id should be in the same
+     * chunk or in separate calls; otherwise chunks of bulk.actions are sent one after another
+     * @param requests
+     * @return succeeded count plus one failure per rejected item, positioned in the order of requests
+     * @throws IOException
+     */
+    public BulkResult bulk(Iterator<? extends DocWriteRequest<?>> requests) throws IOException {
+        if (!properties.getBulk().getAdaptive().isEnabled()) {
+            // 未开启自适应时逐块发送，同一 id 的请求按流中的顺序生效
+            return bulk(requests, bulkController.getBatchSize());
+        }
+        BulkResult result = new BulkResult();
+        List<CompletableFuture<BulkResult>> inFlight = new ArrayList<>();
+        long position = 0;
+        while (requests.hasNext()) {
+            int size = bulkController.getBatchSize();
+            List<DocWriteRequest<?>> chunk = new ArrayList<>(size);
+            while (chunk.size() < size && requests.hasNext()) {
+                chunk.add(requests.next());
+            }
+            try {
+                bulkController.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a bulk slot");
+            }
+            inFlight.add(bulkWithRetryAsync(chunk, position).whenComplete((response, e) -> bulkController.release()));
+            position += chunk.size();
+
+            Iterator<CompletableFuture<BulkResult>> done = inFlight.iterator();
+            while (done.hasNext()) {
+                CompletableFuture<BulkResult> future = done.next();
+                if (future.isDone()) {
+                    result.merge(ActionFutures.await(future));
+                    done.remove();
+                }
+            }
+        }
+        for (CompletableFuture<BulkResult> future : inFlight) {
+            result.merge(ActionFutures.await(future));
+        }
+        return result;
+    }
+
+    /***
+     * stream variant of {@link #bulk(Iterator)}, the stream is consumed lazily;
+     * with bulk.adaptive.enabled requests on the same id may apply out of order
+     * @param requests
+     * @return
+     * @throws IOException
+     */
+    public BulkResult bulk(Stream<? extends DocWriteRequest<?>> requests) throws IOException {
+        return bulk(requests.iterator());
+    }
+
+    /***
+     * execute one bulk of index, update and delete requests asynchronously, without retries
+     * @param requests
+     * @param offset position of the first request, reported in failures
+     * @return
+     */
+    public CompletableFuture<BulkResult> bulkAsync(List<? extends DocWriteRequest<?>> requests, long offset) {
+        BulkRequest bulk = new BulkRequest();
+        requests.forEach(bulk::add);
+        return executor.<BulkResponse>executeAsync(EsOperation.BULK, null, (options, listener) -> client.bulkAsync(bulk, options, listener))
+                .whenComplete((response, e) -> invalidate(bulk.requests()))
+                .thenApply(response -> toBulkResult(response, offset));
     }
 
     /***
@@ -106,10 +547,41 @@ public class DocumentOps {
      * @throws IOException
      */
     public Boolean exits(String index,  String id) throws IOException {
-        GetRequest getRequest = new GetRequest(index, id);
-        getRequest.fetchSourceContext(new FetchSourceContext(false));
-        getRequest.storedFields("_none_");
-        return client.exists(getRequest, RequestOptions.DEFAULT);
+        if (!documentCache.isCached(index)) {
+            return executor.execute(EsOperation.EXISTS, index, options -> client.exists(buildExistsRequest(index, id), options));
+        }
+        Boolean cached = documentCache.exists(index, id);
+        if (null != cached) {
+            return cached;
+        }
+        long generation = documentCache.generation(index);
+        boolean exists = executor.execute(EsOperation.EXISTS, index, options -> client.exists(buildExistsRequest(index, id), options));
+        documentCache.putExists(index, id, generation, exists);
+        return exists;
+    }
+
+    /***
+     * check doc by id asynchronously
+     * @param index
+     * @param id
+     * @return
+     */
+    public CompletableFuture<Boolean> exitsAsync(String index, String id) {
+        GetRequest getRequest = buildExistsRequest(index, id);
+        if (!documentCache.isCached(index)) {
+            return executor.executeAsync(EsOperation.EXISTS, index, (options, listener) -> client.existsAsync(getRequest, options, listener));
+        }
+        Boolean cached = documentCache.exists(index, id);
+        if (null != cached) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long generation = documentCache.generation(index);
+        return executor.<Boolean>executeAsync(EsOperation.EXISTS, index, (options, listener) -> client.existsAsync(getRequest, options, listener))
+                .whenComplete((exists, e) -> {
+                    if (null == e) {
+                        documentCache.putExists(index, id, generation, exists);
+                    }
+                });
     }
 
     /***
@@ -120,11 +592,27 @@ public class DocumentOps {
      * @throws IOException
      */
     public Boolean deleteById(String index,  String id) throws IOException {
-        DeleteRequest request = new DeleteRequest(
-                index, id);
-        DeleteResponse deleteResponse = client.delete(
-                request, RequestOptions.DEFAULT);
-        return deleteResponse.getResult().equals(DocWriteResponse.Result.DELETED) ||  deleteResponse.getResult().equals(DocWriteResponse.Result.NOT_FOUND);
+        DeleteRequest request = buildDeleteRequest(index, id);
+        try {
+            DeleteResponse deleteResponse = executor.execute(EsOperation.DELETE, index, options -> client.delete(
+                    request, options));
+            return isDeleted(deleteResponse);
+        } finally {
+            invalidate(index, id);
+        }
+    }
+
+    /***
+     * delete by id asynchronously
+     * @param index
+     * @param id
+     * @return
+     */
+    public CompletableFuture<Boolean> deleteByIdAsync(String index, String id) {
+        DeleteRequest request = buildDeleteRequest(index, id);
+        return executor.<DeleteResponse>executeAsync(EsOperation.DELETE, index, (options, listener) -> client.deleteAsync(request, options, listener))
+                .whenComplete((response, e) -> invalidate(index, id))
+                .thenApply(this::isDeleted);
     }
 
     /***
@@ -137,15 +625,357 @@ public class DocumentOps {
      */
     public Boolean updateById(String indexName, String id, Map<String, Object> data) throws IOException {
 
-        UpdateRequest request = new UpdateRequest(indexName, "_doc", id);
-        String json = JSONObject.toJSONString(data, SerializerFeature.WriteMapNullValue,
-                SerializerFeature.DisableCircularReferenceDetect,
-                SerializerFeature.WriteDateUseDateFormat);
-        request.doc(json, XContentType.JSON);
+        UpdateRequest request = buildUpdateRequest(indexName, id, data);
 
-        UpdateResponse updateResponse = client.update(
-                request, RequestOptions.DEFAULT);
+        try {
+            UpdateResponse updateResponse = executor.execute(EsOperation.UPDATE, indexName, options -> client.update(
+                    request, options));
 
-        return updateResponse.getResult() == DocWriteResponse.Result.UPDATED;
+            return updateResponse.getResult() == DocWriteResponse.Result.UPDATED;
+        } finally {
+            invalidate(indexName, id);
+        }
+    }
+
+    /***
+     * update one doc by id asynchronously
+     * @param indexName
+     * @param id
+     * @param data
+     * @return
+     */
+    public CompletableFuture<Boolean> updateByIdAsync(String indexName, String id, Map<String, Object> data) {
+        UpdateRequest request = buildUpdateRequest(indexName, id, data);
+        return executor.<UpdateResponse>executeAsync(EsOperation.UPDATE, indexName, (options, listener) -> client.updateAsync(request, options, listener))
+                .whenComplete((response, e) -> invalidate(indexName, id))
+                .thenApply(response -> response.getResult() == DocWriteResponse.Result.UPDATED);
+    }
+
+    /***
+     * drop the cached doc and the cached search results of its index after a write
+     */
+    private void invalidate(String index, String id) {
+        documentCache.invalidate(index, id);
+        searchCache.invalidate(index);
+    }
+
+    private void invalidate(Iterable<? extends DocWriteRequest<?>> requests) {
+        documentCache.invalidate(requests);
+        searchCache.invalidate(requests);
+    }
+
+    /***
+     * get one doc through the document cache when the index is cached
+     */
+    private GetResponse get(String indexName, String id) throws IOException {
+        boolean cached = documentCache.isCached(indexName);
+        if (cached) {
+            GetResponse response = documentCache.getResponse(indexName, id);
+            if (null != response) {
+                return response;
+            }
+        }
+        long generation = documentCache.generation(indexName);
+        GetResponse response = null == getBatcher
+                ? executor.execute(EsOperation.GET, indexName, options -> client.get(new GetRequest(indexName, id), options))
+                : toGetResponse(ActionFutures.await(getBatcher.submit(new MultiGetRequest.Item(indexName, id))));
+        if (cached) {
+            documentCache.put(indexName, id, generation, response);
+        }
+        return response;
+    }
+
+    private CompletableFuture<GetResponse> getAsync(String indexName, String id) {
+        boolean cached = documentCache.isCached(indexName);
+        if (cached) {
+            GetResponse response = documentCache.getResponse(indexName, id);
+            if (null != response) {
+                return CompletableFuture.completedFuture(response);
+            }
+        }
+        long generation = documentCache.generation(indexName);
+        CompletableFuture<GetResponse> future;
+        if (null == getBatcher) {
+            GetRequest request = new GetRequest(indexName, id);
+            future = executor.executeAsync(EsOperation.GET, indexName, (options, listener) -> client.getAsync(request, options, listener));
+        } else {
+            future = getBatcher.submit(new MultiGetRequest.Item(indexName, id)).thenApply(DocumentOps::toGetResponse);
+        }
+        return cached ? future.thenApply(response -> {
+            documentCache.put(indexName, id, generation, response);
+            return response;
+        }) : future;
+    }
+
+    /***
+     * one coalesced _mget, item responses are returned in request order
+     */
+    private CompletableFuture<List<MultiGetItemResponse>> multiGetBatch(List<MultiGetRequest.Item> items) {
+        MultiGetRequest request = new MultiGetRequest();
+        items.forEach(request::add);
+        return executor.<MultiGetResponse>executeAsync(EsOperation.MGET, null, (options, listener) -> client.mgetAsync(request, options, listener))
+                .thenApply(response -> Arrays.asList(response.getResponses()));
+    }
+
+    private static GetResponse toGetResponse(MultiGetItemResponse item) {
+        if (item.isFailed()) {
+            MultiGetResponse.Failure failure = item.getFailure();
+            throw new ElasticsearchException("get [{}]/[{}] failed", failure.getFailure(), failure.getIndex(), failure.getId());
+        }
+        return item.getResponse();
+    }
+
+    /***
+     * _mget of the ids missing from the document cache, cached responses are put into found
+     */
+    private MultiGetRequest buildMultiGetRequest(String indexName, Collection<String> ids, Map<String, GetResponse> found) {
+        MultiGetRequest request = new MultiGetRequest();
+        boolean cached = documentCache.isCached(indexName);
+        for (String id : new LinkedHashSet<>(ids)) {
+            GetResponse response = cached ? documentCache.getResponse(indexName, id) : null;
+            if (null != response) {
+                found.put(id, response);
+            } else {
+                request.add(indexName, id);
+            }
+        }
+        return request;
+    }
+
+    private Map<String, GetResponse> multiGetResponses(String indexName, Collection<String> ids) throws IOException {
+        Map<String, GetResponse> responses = new HashMap<>();
+        long generation = documentCache.generation(indexName);
+        MultiGetRequest request = buildMultiGetRequest(indexName, ids, responses);
+        if (!request.getItems().isEmpty()) {
+            collect(indexName, generation, executor.execute(EsOperation.MGET, indexName, options -> client.mget(request, options)), responses);
+        }
+        return responses;
+    }
+
+    /***
+     * add the item responses to found and the document cache, failed items are logged and skipped
+     */
+    private void collect(String indexName, long generation, MultiGetResponse response, Map<String, GetResponse> found) {
+        boolean cached = documentCache.isCached(indexName);
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (item.isFailed()) {
+                log.warn("ES mget [{}]/[{}] failed: {}", item.getIndex(), item.getId(), item.getFailure().getMessage());
+                continue;
+            }
+            found.put(item.getId(), item.getResponse());
+            if (cached) {
+                documentCache.put(indexName, item.getId(), generation, item.getResponse());
+            }
+        }
+    }
+
+    private static <T> Map<String, T> toItems(Collection<String> ids, Map<String, GetResponse> responses, Function<GetResponse, T> mapper) {
+        Map<String, T> items = new LinkedHashMap<>();
+        for (String id : ids) {
+            GetResponse response = responses.get(id);
+            if (null != response && response.isExists() && !items.containsKey(id)) {
+                items.put(id, mapper.apply(response));
+            }
+        }
+        return items;
+    }
+
+    /***
+     * source of a get response, copied when it may be shared through the cache
+     */
+    private Map<String, Object> toSource(String indexName, GetResponse response) {
+        Map<String, Object> source = response.getSource();
+        return null != source && documentCache.isCached(indexName) ? new HashMap<>(source) : source;
+    }
+
+    private BulkRequest buildBulkRequest(String index, List<Map<String, Object>> items) {
+        String[] ids = documentIds.ids(index, items);
+        BulkRequest bulk = new BulkRequest();
+        for (int i = 0; i < ids.length; i++) {
+            bulk.add(buildIndexRequest(index, ids[i], items.get(i)));
+        }
+        return bulk;
+    }
+
+    private GetRequest buildExistsRequest(String index, String id) {
+        GetRequest getRequest = new GetRequest(index, id);
+        getRequest.fetchSourceContext(new FetchSourceContext(false));
+        getRequest.storedFields("_none_");
+        return getRequest;
+    }
+
+    /***
+     * build a partial update request, data is merged into the existing doc
+     * @param indexName
+     * @param id
+     * @param data
+     * @return
+     */
+    static UpdateRequest buildUpdateRequest(String indexName, String id, Map<String, Object> data) {
+        UpdateRequest request = new UpdateRequest(indexName, id);
+        request.doc(DocumentCodec.encode(data), XContentType.JSON);
+        return request;
+    }
+
+    /***
+     * build a partial update request that indexes data as a new doc when the id does not exist
+     * @param indexName
+     * @param id
+     * @param data
+     * @return
+     */
+    static UpdateRequest buildUpsertRequest(String indexName, String id, Map<String, Object> data) {
+        return buildUpdateRequest(indexName, id, data).docAsUpsert(true);
+    }
+
+    /***
+     * build a scripted update request with an inline painless script
+     * @param indexName
+     * @param id
+     * @param source
+     * @param params
+     * @return
+     */
+    static UpdateRequest buildScriptedUpdateRequest(String indexName, String id, String source, Map<String, Object> params) {
+        UpdateRequest request = new UpdateRequest(indexName, id);
+        request.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, source,
+                null == params ? Collections.emptyMap() : params));
+        return request;
+    }
+
+    static DeleteRequest buildDeleteRequest(String index, String id) {
+        return new DeleteRequest(index, id);
+    }
+
+    private boolean isCreated(IndexResponse response) {
+        log.debug("{}", response);
+        return response.getResult() == DocWriteResponse.Result.CREATED;
+    }
+
+    private boolean isDeleted(DeleteResponse deleteResponse) {
+        return deleteResponse.getResult().equals(DocWriteResponse.Result.DELETED) ||  deleteResponse.getResult().equals(DocWriteResponse.Result.NOT_FOUND);
+    }
+
+    private BulkResult toBulkResult(BulkResponse response, long offset) {
+        BulkResult result = new BulkResult();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length; i++) {
+            BulkItemResponse item = items[i];
+            if (item.isFailed()) {
+                result.getFailures().add(new BulkResult.Failure(offset + i, item.getId(),
+                        item.getFailure().getStatus().getStatus(), item.getFailureMessage()));
+            } else {
+                result.setSucceeded(result.getSucceeded() + 1);
+            }
+        }
+        return result;
+    }
+
+    private int countSucceeded(BulkResponse responses) {
+        int succeeded = 0;
+        for (BulkItemResponse item : responses.getItems()) {
+            if (!item.isFailed()) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    /***
+     * build an index request for one doc, the "id" field becomes the document id
+     * @param index
+     * @param item
+     * @return
+     */
+    static IndexRequest buildIndexRequest(String index, Map<String, Object> item) {
+        Object id = item.get("id");
+        return buildIndexRequest(index, null == id ? null : id.toString(), item);
+    }
+
+    /***
+     * build an index request for one POJO doc
+     * @param index
+     * @param doc
+     * @return
+     */
+    static IndexRequest buildIndexRequest(String index, BaseDoc doc) {
+        return buildIndexRequest(index, doc.getId(), doc);
+    }
+
+    /***
+     * build an index request with an explicit id
+     * @param index
+     * @param id null to let elasticsearch generate it
+     * @param doc map or POJO
+     * @return
+     */
+    static IndexRequest buildIndexRequest(String index, String id, Object doc) {
+        IndexRequest request = new IndexRequest(index);
+        if(null != id){
+            request.id(id);
+        }
+        request.source(DocumentCodec.encode(doc), XContentType.JSON);
+        return request;
+    }
+
+    /***
+     * execute one chunk, re-submitting only the items rejected with 429 until the backoff is exhausted
+     * @param requests
+     * @param offset position of the first request in the whole stream
+     * @return
+     * @throws IOException
+     */
+    BulkResult bulkWithRetry(List<? extends DocWriteRequest<?>> requests, long offset) throws IOException {
+        return ActionFutures.await(bulkWithRetryAsync(requests, offset));
+    }
+
+    /***
+     * asynchronous {@link #bulkWithRetry(List, long)}, the backoff delays do not hold a thread
+     * @param requests
+     * @param offset
+     * @return
+     */
+    CompletableFuture<BulkResult> bulkWithRetryAsync(List<? extends DocWriteRequest<?>> requests, long offset) {
+        ElasticsearchProperties.Bulk settings = properties.getBulk();
+        Iterator<TimeValue> backoff = BackoffPolicy.exponentialBackoff(
+                TimeValue.timeValueMillis(settings.getBackoffDelayMillis()), settings.getBackoffRetries()).iterator();
+        List<Long> positions = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            positions.add(offset + i);
+        }
+        return attempt(requests, positions, backoff, new BulkResult());
+    }
+
+    private CompletableFuture<BulkResult> attempt(List<? extends DocWriteRequest<?>> pending, List<Long> positions,
+                                                  Iterator<TimeValue> backoff, BulkResult result) {
+        BulkRequest bulk = new BulkRequest();
+        pending.forEach(bulk::add);
+        return executor.<BulkResponse>executeAsync(EsOperation.BULK, null, (options, listener) -> client.bulkAsync(bulk, options, listener))
+                .whenComplete((response, e) -> invalidate(pending))
+                .thenCompose(response -> {
+                    List<DocWriteRequest<?>> retry = new ArrayList<>();
+                    List<Long> retryPositions = new ArrayList<>();
+                    boolean canRetry = backoff.hasNext();
+                    BulkItemResponse[] items = response.getItems();
+                    for (int i = 0; i < items.length; i++) {
+                        BulkItemResponse item = items[i];
+                        if (!item.isFailed()) {
+                            result.setSucceeded(result.getSucceeded() + 1);
+                        } else if (canRetry && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                            retry.add(pending.get(i));
+                            retryPositions.add(positions.get(i));
+                        } else {
+                            result.getFailures().add(new BulkResult.Failure(positions.get(i), item.getId(),
+                                    item.getFailure().getStatus().getStatus(), item.getFailureMessage()));
+                        }
+                    }
+                    if (retry.isEmpty()) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    TimeValue delay = backoff.next();
+                    log.warn("bulk rejected {} items, retrying in {}", retry.size(), delay);
+                    return CompletableFuture.supplyAsync(() -> retry, CompletableFuture.delayedExecutor(delay.millis(), TimeUnit.MILLISECONDS))
+                            .thenCompose(rejected -> attempt(rejected, retryPositions, backoff, result));
+                });
     }
 }
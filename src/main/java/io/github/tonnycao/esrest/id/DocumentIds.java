@@ -0,0 +1,151 @@
+package io.github.tonnycao.esrest.id;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.document.BaseDoc;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies the configured {@link IdStrategy} of an index to the docs written to it.
+ * <p>
+ * The strategy is {@code ids.index-strategies[<index>]} when the index is listed there (a trailing * matches
+ * a prefix), else {@code ids.strategy}. A generated id is also written into the doc, the "id" entry of a map
+ * or BaseDoc.id, so the caller can read it back and the source carries the id as with caller supplied ids.
+ */
+@Component
+public class DocumentIds {
+
+    private static final String ID_FIELD = "id";
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private WorkerIdAssigner workerIds;
+
+    private final Map<String, IdStrategy> strategies = new ConcurrentHashMap<>();
+
+    /***
+     * strategy of an index
+     * @param index
+     * @return
+     */
+    public IdStrategy strategy(String index) {
+        return strategies.computeIfAbsent(strategyName(index), this::resolve);
+    }
+
+    /***
+     * id to index one doc with
+     * @param index
+     * @param doc
+     * @return null when elasticsearch generates the id
+     */
+    public String id(String index, Map<String, Object> doc) {
+        String callerId = callerId(doc);
+        String id = strategy(index).id(index, callerId);
+        writeBack(doc, callerId, id);
+        return id;
+    }
+
+    /***
+     * id to index one POJO doc with
+     * @param index
+     * @param doc
+     * @return null when elasticsearch generates the id
+     */
+    public String id(String index, BaseDoc doc) {
+        String callerId = doc.getId();
+        String id = strategy(index).id(index, callerId);
+        writeBack(doc, callerId, id);
+        return id;
+    }
+
+    /***
+     * ids of a batch of map or BaseDoc docs, generated together
+     * @param index
+     * @param docs
+     * @return ids[i] is the id of docs.get(i)
+     */
+    public String[] ids(String index, List<?> docs) {
+        IdStrategy strategy = strategy(index);
+        String[] callerIds = new String[docs.size()];
+        for (int i = 0; i < callerIds.length; i++) {
+            callerIds[i] = callerId(docs.get(i));
+        }
+        if (IdStrategies.CALLER == strategy) {
+            return callerIds;
+        }
+        String[] ids = strategy.ids(index, callerIds);
+        for (int i = 0; i < ids.length; i++) {
+            writeBack(docs.get(i), callerIds[i], ids[i]);
+        }
+        return ids;
+    }
+
+    private String strategyName(String index) {
+        ElasticsearchProperties.Ids settings = properties.getIds();
+        if (null != index && !settings.getIndexStrategies().isEmpty()) {
+            String name = settings.getIndexStrategies().get(index);
+            if (null != name) {
+                return name;
+            }
+            for (Map.Entry<String, String> entry : settings.getIndexStrategies().entrySet()) {
+                String pattern = entry.getKey();
+                if (pattern.endsWith("*") && index.startsWith(pattern.substring(0, pattern.length() - 1))) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return settings.getStrategy();
+    }
+
+    private IdStrategy resolve(String name) {
+        switch (name) {
+            case IdStrategies.CALLER_NAME:
+                return IdStrategies.CALLER;
+            case IdStrategies.AUTO_NAME:
+                return IdStrategies.AUTO;
+            case IdStrategies.SNOWFLAKE_NAME:
+                return new SnowflakeIdStrategy(workerIds::worker);
+            default:
+                if (!context.containsBean(name)) {
+                    throw new IllegalArgumentException("unknown id strategy " + name
+                            + ", expected caller, auto, snowflake or the name of an IdStrategy bean");
+                }
+                return context.getBean(name, IdStrategy.class);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String callerId(Object doc) {
+        if (doc instanceof BaseDoc) {
+            return ((BaseDoc) doc).getId();
+        }
+        Object id = ((Map<String, Object>) doc).get(ID_FIELD);
+        return null == id ? null : id.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeBack(Object doc, String callerId, String id) {
+        if (null != callerId || null == id) {
+            return;
+        }
+        if (doc instanceof BaseDoc) {
+            ((BaseDoc) doc).setId(id);
+            return;
+        }
+        try {
+            ((Map<String, Object>) doc).put(ID_FIELD, id);
+        } catch (UnsupportedOperationException e) {
+            // immutable map, the id is only used as the document id
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.tonnycao.esrest.id;
+
+/**
+ * Names and instances of the built in {@link IdStrategy}s.
+ */
+public final class IdStrategies {
+
+    public static final String CALLER_NAME = "caller";
+
+    public static final String AUTO_NAME = "auto";
+
+    public static final String SNOWFLAKE_NAME = "snowflake";
+
+    /**
+     * the doc's own id, elasticsearch generates one when the doc has none. Default.
+     */
+    public static final IdStrategy CALLER = (index, callerId) -> callerId;
+
+    /**
+     * always let elasticsearch generate the id, even when the doc has one.
+     * Auto generated ids are known to be unique, so the shard appends the doc without looking up an existing
+     * version first; use it for append-only indices such as logs and events that are never updated by id.
+     */
+    public static final IdStrategy AUTO = new IdStrategy() {
+        @Override
+        public String id(String index, String callerId) {
+            return null;
+        }
+
+        @Override
+        public String[] ids(String index, String[] callerIds) {
+            return new String[callerIds.length];
+        }
+    };
+
+    private IdStrategies() {
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.tonnycao.esrest.id;
+
+/**
+ * Chooses the document id written with each index request of {@code DocumentOps} and {@code BulkIngestor}.
+ * <p>
+ * Built in strategies are {@link IdStrategies#CALLER}, {@link IdStrategies#AUTO} and {@link SnowflakeIdStrategy};
+ * an application registers its own as a bean and names it in {@code elasticsearch.connection.ids.strategy}
+ * or {@code elasticsearch.connection.ids.index-strategies[<index>]}.
+ */
+public interface IdStrategy {
+
+    /***
+     * id of one doc
+     * @param index
+     * @param callerId the doc's own id ("id" field or BaseDoc.id), null when it has none
+     * @return null to let elasticsearch generate the id
+     */
+    String id(String index, String callerId);
+
+    /***
+     * ids of a batch of docs, override when ids are cheaper to generate together
+     * @param index
+     * @param callerIds callerIds[i] is the own id of the i-th doc, may contain nulls
+     * @return ids[i] is the id of the i-th doc
+     */
+    default String[] ids(String index, String[] callerIds) {
+        String[] ids = new String[callerIds.length];
+        for (int i = 0; i < callerIds.length; i++) {
+            ids[i] = id(index, callerIds[i]);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.tonnycao.esrest.id;
+
+import io.github.tonnycao.esrest.utils.SnowflakeIdWorker;
+
+import java.util.function.Supplier;
+
+/**
+ * Keeps the doc's own id and gives docs without one a Snowflake id, so ids sort by creation time.
+ * The worker is looked up for every call since a leased worker id may be replaced.
+ */
+public class SnowflakeIdStrategy implements IdStrategy {
+
+    private final Supplier<SnowflakeIdWorker> worker;
+
+    public SnowflakeIdStrategy(Supplier<SnowflakeIdWorker> worker) {
+        this.worker = worker;
+    }
+
+    @Override
+    public String id(String index, String callerId) {
+        return null != callerId ? callerId : String.valueOf(worker.get().nextId());
+    }
+
+    @Override
+    public String[] ids(String index, String[] callerIds) {
+        int missing = 0;
+        for (String callerId : callerIds) {
+            if (null == callerId) {
+                missing++;
+            }
+        }
+        if (0 == missing) {
+            return callerIds.clone();
+        }
+        long[] generated = worker.get().nextIds(missing);
+        String[] ids = new String[callerIds.length];
+        for (int i = 0, next = 0; i < callerIds.length; i++) {
+            ids[i] = null != callerIds[i] ? callerIds[i] : String.valueOf(generated[next++]);
+        }
+        return ids;
+    }
+}
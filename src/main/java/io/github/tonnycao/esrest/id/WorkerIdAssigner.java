@@ -0,0 +1,366 @@
+package io.github.tonnycao.esrest.id;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import io.github.tonnycao.esrest.utils.SnowflakeIdWorker;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives this JVM the Snowflake worker used by {@link SnowflakeIdStrategy}.
+ * <p>
+ * The 10 bit node id (5 bit datacenter, 5 bit worker) comes from {@code ids.worker-id-source}:
+ * <pre>
+ * lease   one of the docs 0..1023 of the {@code ids.lease-index} index, created with op_type=create so only one
+ *         JVM holds it; renewed every ttl/3, an expired lease is taken over with if_seq_no/if_primary_term
+ * host    the low 10 bits of the host address, unique within a /22 subnet, nothing to coordinate
+ * fixed   {@code ids.worker-id}
+ * </pre>
+ * A lease is acquired with the first id and deleted on shutdown. The holder stops issuing ids a third of the
+ * ttl before its lease expires, which leaves that much room for clock skew between the holder and a JVM
+ * taking the lease over. When a renewal finds the lease taken, ids are refused right away and the renewer
+ * leases another node id, trying {@code ids.lease-probes} ids per run, before a new worker replaces the old;
+ * when the cluster cannot be reached ids are refused once the lease is past that point.
+ */
+@Slf4j
+@Component
+public class WorkerIdAssigner {
+
+    public static final String LEASE = "lease";
+
+    public static final String HOST = "host";
+
+    public static final String FIXED = "fixed";
+
+    private static final int NODE_IDS = (int) ((SnowflakeIdWorker.MAX_DATACENTER_ID + 1) * (SnowflakeIdWorker.MAX_WORKER_ID + 1));
+
+    private static final int WORKER_ID_BITS = Long.bitCount(SnowflakeIdWorker.MAX_WORKER_ID);
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private ObjectProvider<MeterRegistry> meterRegistry;
+
+    private final String owner = host() + ":" + ManagementFactory.getRuntimeMXBean().getName() + ":"
+            + UUID.randomUUID().toString().substring(0, 8);
+
+    /** worker and lease are swapped together, a caller never pairs the old worker with a new lease */
+    private volatile Assignment assignment;
+
+    private ScheduledExecutorService renewer;
+
+    private boolean closed;
+
+    /***
+     * worker of this JVM, acquiring the node id on first use
+     * @return
+     * @throws IllegalStateException when no node id is free or the lease could not be renewed in time
+     */
+    public SnowflakeIdWorker worker() {
+        Assignment current = assignment;
+        if (null == current) {
+            current = init();
+        }
+        Lease held = current.lease;
+        if (null != held && held.takenOver) {
+            throw new IllegalStateException("worker id lease of node " + held.nodeId + " was taken over, refusing to issue ids until another is leased");
+        }
+        if (null != held && System.currentTimeMillis() > held.validUntil) {
+            throw new IllegalStateException("worker id lease of node " + held.nodeId + " could not be renewed, refusing to issue ids");
+        }
+        return current.worker;
+    }
+
+    /***
+     * node id in use, -1 before the first id
+     * @return
+     */
+    public int getNodeId() {
+        Assignment current = assignment;
+        return null == current ? -1 : (int) (current.worker.getDatacenterId() << WORKER_ID_BITS | current.worker.getWorkerId());
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        closed = true;
+        if (null != renewer) {
+            renewer.shutdownNow();
+        }
+        Assignment current = assignment;
+        if (null != current && null != current.lease && !current.lease.takenOver) {
+            release(current.lease);
+        }
+    }
+
+    private void release(Lease held) {
+        DeleteRequest request = new DeleteRequest(leaseIndex(), String.valueOf(held.nodeId))
+                .setIfSeqNo(held.seqNo).setIfPrimaryTerm(held.primaryTerm);
+        try {
+            executor.execute(EsOperation.DELETE, leaseIndex(), options -> client.delete(request, options));
+            log.info("released worker id lease {}", held.nodeId);
+        } catch (IOException | ElasticsearchStatusException e) {
+            log.warn("could not release worker id lease {}, it expires on its own: {}", held.nodeId, e.getMessage());
+        }
+    }
+
+    private synchronized Assignment init() {
+        if (null != assignment) {
+            return assignment;
+        }
+        ElasticsearchProperties.Ids settings = properties.getIds();
+        int nodeId;
+        Lease acquired = null;
+        switch (settings.getWorkerIdSource()) {
+            case LEASE:
+                acquired = acquire();
+                nodeId = acquired.nodeId;
+                renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "es-worker-id-lease");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long interval = TimeUnit.SECONDS.toMillis(settings.getLeaseTtlSeconds()) / 3;
+                renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+                break;
+            case HOST:
+                nodeId = hostNodeId();
+                break;
+            case FIXED:
+                nodeId = settings.getWorkerId();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown worker id source " + settings.getWorkerIdSource()
+                        + ", expected lease, host or fixed");
+        }
+        if (nodeId < 0 || nodeId >= NODE_IDS) {
+            throw new IllegalArgumentException("worker id " + nodeId + " out of range 0.." + (NODE_IDS - 1));
+        }
+        assignment = new Assignment(newWorker(nodeId), acquired);
+        log.info("snowflake ids use node id {} from {}", nodeId, settings.getWorkerIdSource());
+        return assignment;
+    }
+
+    /***
+     * lease the first free node id, starting at a hash of the owner so JVMs starting together rarely collide
+     * @throws IllegalStateException when none of the ids.lease-probes ids tried is free
+     */
+    private Lease acquire() {
+        int start = Math.floorMod(owner.hashCode(), NODE_IDS);
+        int probes = Math.min(Math.max(1, properties.getIds().getLeaseProbes()), NODE_IDS);
+        for (int i = 0; i < probes; i++) {
+            int nodeId = (start + i) % NODE_IDS;
+            try {
+                Lease acquired = tryCreate(nodeId);
+                if (null == acquired) {
+                    acquired = tryTakeOver(nodeId);
+                }
+                if (null != acquired) {
+                    return acquired;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("could not lease a worker id from " + leaseIndex(), e);
+            }
+        }
+        throw new IllegalStateException("the " + probes + " worker ids tried from " + start + " of " + leaseIndex() + " are leased");
+    }
+
+    private Lease tryCreate(int nodeId) throws IOException {
+        IndexRequest request = leaseRequest(nodeId).opType(DocWriteRequest.OpType.CREATE);
+        return write(nodeId, request);
+    }
+
+    private Lease tryTakeOver(int nodeId) throws IOException {
+        GetRequest get = new GetRequest(leaseIndex(), String.valueOf(nodeId));
+        GetResponse current = executor.execute(EsOperation.GET, leaseIndex(), options -> client.get(get, options));
+        if (!current.isExists()) {
+            return tryCreate(nodeId);
+        }
+        Object expiresAt = current.getSourceAsMap().get("expiresAt");
+        if (expiresAt instanceof Number && ((Number) expiresAt).longValue() > System.currentTimeMillis()) {
+            return null;
+        }
+        log.info("taking over expired worker id lease {} of {}", nodeId, current.getSourceAsMap().get("owner"));
+        IndexRequest request = leaseRequest(nodeId).setIfSeqNo(current.getSeqNo()).setIfPrimaryTerm(current.getPrimaryTerm());
+        return write(nodeId, request);
+    }
+
+    void renew() {
+        Assignment current = assignment;
+        Lease held = current.lease;
+        if (held.takenOver) {
+            reacquire();
+            return;
+        }
+        IndexRequest request = leaseRequest(held.nodeId).setIfSeqNo(held.seqNo).setIfPrimaryTerm(held.primaryTerm);
+        Lease renewed;
+        try {
+            renewed = write(held.nodeId, request);
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not renew worker id lease {}, valid for {}ms more: {}", held.nodeId,
+                    held.validUntil - System.currentTimeMillis(), e.getMessage());
+            return;
+        }
+        if (null != renewed) {
+            assignment = new Assignment(current.worker, renewed);
+            return;
+        }
+        // 另一个 JVM 已持有该节点号，先停止发号再去申请新的
+        assignment = new Assignment(current.worker, held.takeOver());
+        log.error("worker id lease {} was taken over, refusing ids until another is leased", held.nodeId);
+        reacquire();
+    }
+
+    /***
+     * lease another node id on the renewer thread, outside the monitor so close is not held up by the probes
+     */
+    private void reacquire() {
+        Lease acquired;
+        try {
+            acquired = acquire();
+        } catch (RuntimeException e) {
+            log.warn("could not lease another worker id, trying again on the next renewal: {}", e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                release(acquired);
+                return;
+            }
+            assignment = new Assignment(newWorker(acquired.nodeId), acquired);
+        }
+        log.info("snowflake ids use node id {} from a new lease", acquired.nodeId);
+    }
+
+    /***
+     * write a lease doc
+     * @return null when another JVM holds the doc or changed it since it was read
+     */
+    private Lease write(int nodeId, IndexRequest request) throws IOException {
+        long now = System.currentTimeMillis();
+        try {
+            IndexResponse response = executor.execute(EsOperation.INDEX, leaseIndex(), options -> client.index(request, options));
+            long ttl = TimeUnit.SECONDS.toMillis(properties.getIds().getLeaseTtlSeconds());
+            return new Lease(nodeId, response.getSeqNo(), response.getPrimaryTerm(), now + ttl - ttl / 3);
+        } catch (ElasticsearchStatusException e) {
+            if (RestStatus.CONFLICT == e.status()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private IndexRequest leaseRequest(int nodeId) {
+        Map<String, Object> source = new HashMap<>();
+        source.put("owner", owner);
+        source.put("host", host());
+        source.put("expiresAt", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(properties.getIds().getLeaseTtlSeconds()));
+        return new IndexRequest(leaseIndex()).id(String.valueOf(nodeId)).source(source);
+    }
+
+    private SnowflakeIdWorker newWorker(int nodeId) {
+        SnowflakeIdWorker created = new SnowflakeIdWorker(nodeId & SnowflakeIdWorker.MAX_WORKER_ID,
+                nodeId >>> WORKER_ID_BITS, properties.getIds().getMaxDriftMillis());
+        meterRegistry.ifAvailable(created::bindTo);
+        return created;
+    }
+
+    private String leaseIndex() {
+        return properties.getIds().getLeaseIndex();
+    }
+
+    /***
+     * low 10 bits of the host address
+     */
+    private static int hostNodeId() {
+        try {
+            byte[] address = InetAddress.getLocalHost().getAddress();
+            return ((address[address.length - 2] & 0xff) << 8 | (address[address.length - 1] & 0xff)) % NODE_IDS;
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("could not derive a worker id from the host address", e);
+        }
+    }
+
+    private static String host() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    private static class Lease {
+
+        private final int nodeId;
+
+        private final long seqNo;
+
+        private final long primaryTerm;
+
+        /** ids are issued until then */
+        private final long validUntil;
+
+        /** another JVM holds the node id now */
+        private final boolean takenOver;
+
+        Lease(int nodeId, long seqNo, long primaryTerm, long validUntil) {
+            this(nodeId, seqNo, primaryTerm, validUntil, false);
+        }
+
+        private Lease(int nodeId, long seqNo, long primaryTerm, long validUntil, boolean takenOver) {
+            this.nodeId = nodeId;
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+            this.validUntil = validUntil;
+            this.takenOver = takenOver;
+        }
+
+        Lease takeOver() {
+            return new Lease(nodeId, seqNo, primaryTerm, validUntil, true);
+        }
+    }
+
+    private static class Assignment {
+
+        private final SnowflakeIdWorker worker;
+
+        /** null unless the node id comes from a lease */
+        private final Lease lease;
+
+        Assignment(SnowflakeIdWorker worker, Lease lease) {
+            this.worker = worker;
+            this.lease = lease;
+        }
+    }
+}
@@ -1,25 +1,27 @@
 package io.github.tonnycao.esrest.index;
 import com.alibaba.fastjson.JSONObject;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
 import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
-import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
-import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 
-import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
-import org.elasticsearch.action.admin.indices.get.GetIndexResponse;
-import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
 import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.client.indices.PutMappingRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 @Slf4j
@@ -29,6 +31,9 @@ public class IndexOps {
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private OperationExecutor executor;
+
     /***
      * create by name
      * @param name
@@ -37,10 +42,19 @@ public class IndexOps {
      */
     public Boolean create(String name) throws IOException {
         CreateIndexRequest request = new CreateIndexRequest(name);
-        CreateIndexResponse response =  client.indices().create(request,RequestOptions.DEFAULT);
+        CreateIndexResponse response =  executor.execute(EsOperation.CREATE_INDEX, name, options -> client.indices().create(request,options));
         return response.isAcknowledged();
     }
 
+    /***
+     * create by name asynchronously
+     * @param name
+     * @return
+     */
+    public CompletableFuture<Boolean> createAsync(String name) {
+        return createAsync(new CreateIndexRequest(name));
+    }
+
     /***
      * delete one by name
      * @param name
@@ -49,10 +63,21 @@ public class IndexOps {
      */
     public Boolean delete(String name) throws IOException {
         DeleteIndexRequest request = new DeleteIndexRequest(name);
-        AcknowledgedResponse response = client.indices().delete(request,RequestOptions.DEFAULT);
+        AcknowledgedResponse response = executor.execute(EsOperation.DELETE_INDEX, name, options -> client.indices().delete(request,options));
         return response.isAcknowledged();
     }
 
+    /***
+     * delete one by name asynchronously
+     * @param name
+     * @return
+     */
+    public CompletableFuture<Boolean> deleteAsync(String name) {
+        DeleteIndexRequest request = new DeleteIndexRequest(name);
+        return executor.<AcknowledgedResponse>executeAsync(EsOperation.DELETE_INDEX, name, (options, listener) -> client.indices().deleteAsync(request, options, listener))
+                .thenApply(AcknowledgedResponse::isAcknowledged);
+    }
+
     /***
      * check index name exist
      * @param name
@@ -60,9 +85,18 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean checkExist(String name) throws IOException {
-        org.elasticsearch.action.admin.indices.get.GetIndexRequest request = new org.elasticsearch.action.admin.indices.get.GetIndexRequest();
-        request.indices(name);
-        return client.indices().exists(request, RequestOptions.DEFAULT);
+        GetIndexRequest request = new GetIndexRequest(name);
+        return executor.execute(EsOperation.INDEX_EXISTS, name, options -> client.indices().exists(request, options));
+    }
+
+    /***
+     * check index name exist asynchronously
+     * @param name
+     * @return
+     */
+    public CompletableFuture<Boolean> checkExistAsync(String name) {
+        GetIndexRequest request = new GetIndexRequest(name);
+        return executor.executeAsync(EsOperation.INDEX_EXISTS, name, (options, listener) -> client.indices().existsAsync(request, options, listener));
     }
 
     /***
@@ -72,10 +106,26 @@ public class IndexOps {
      * @throws IOException
      */
     public String queryOne(String name) throws IOException {
-        org.elasticsearch.action.admin.indices.get.GetIndexRequest request = new GetIndexRequest();
-        request.indices(name);
-        GetIndexResponse getIndexResponse = client.indices().get(request, RequestOptions.DEFAULT);
-        return JSONObject.toJSONString(getIndexResponse.getMappings());
+        GetIndexRequest request = new GetIndexRequest(name);
+        GetIndexResponse getIndexResponse = executor.execute(EsOperation.GET_INDEX, name, options -> client.indices().get(request, options));
+        return mappingsJson(getIndexResponse);
+    }
+
+    /***
+     * query one index by name asynchronously
+     * @param name
+     * @return
+     */
+    public CompletableFuture<String> queryOneAsync(String name) {
+        GetIndexRequest request = new GetIndexRequest(name);
+        return executor.<GetIndexResponse>executeAsync(EsOperation.GET_INDEX, name, (options, listener) -> client.indices().getAsync(request, options, listener))
+                .thenApply(IndexOps::mappingsJson);
+    }
+
+    private static String mappingsJson(GetIndexResponse response) {
+        Map<String, Object> mappings = new HashMap<>();
+        response.getMappings().forEach((index, mapping) -> mappings.put(index, mapping.getSourceAsMap()));
+        return JSONObject.toJSONString(mappings);
     }
 
     /***
@@ -86,6 +136,28 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean create(String name, Map<String, Map<String, Object>> properties, Map<String, Object> setting) throws IOException {
+        CreateIndexRequest request = buildCreateRequest(name, properties, setting);
+        CreateIndexResponse response =  executor.execute(EsOperation.CREATE_INDEX, name, options -> client.indices().create(request, options));
+        return response.isAcknowledged();
+    }
+
+    /***
+     * create index with Mapping and Setting asynchronously
+     * @param name
+     * @param properties
+     * @param setting
+     * @return
+     */
+    public CompletableFuture<Boolean> createAsync(String name, Map<String, Map<String, Object>> properties, Map<String, Object> setting) {
+        return createAsync(buildCreateRequest(name, properties, setting));
+    }
+
+    private CompletableFuture<Boolean> createAsync(CreateIndexRequest request) {
+        return executor.<CreateIndexResponse>executeAsync(EsOperation.CREATE_INDEX, request.index(), (options, listener) -> client.indices().createAsync(request, options, listener))
+                .thenApply(CreateIndexResponse::isAcknowledged);
+    }
+
+    private CreateIndexRequest buildCreateRequest(String name, Map<String, Map<String, Object>> properties, Map<String, Object> setting) {
         CreateIndexRequest request =new CreateIndexRequest(name);
         Map<String, Object> jsonMap = new HashMap<>();
         {
@@ -94,10 +166,9 @@ public class IndexOps {
         Map<String, Object> source = new HashMap<>();
         source.put("enabled", false);
         jsonMap.put("_source", source);
-        request.mapping("_doc", jsonMap);
+        request.mapping(jsonMap);
         request.settings(setting);
-        AcknowledgedResponse response =  client.indices().create(request, RequestOptions.DEFAULT);
-        return response.isAcknowledged();
+        return request;
     }
 
     /***
@@ -108,14 +179,31 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean updateMapping(String name, Map<String, Map<String, Object>> properties) throws IOException {
+        PutMappingRequest request = buildPutMappingRequest(name, properties);
+        AcknowledgedResponse putMappingResponse = executor.execute(EsOperation.PUT_MAPPING, name, options -> client.indices().putMapping(request, options));
+        return putMappingResponse.isAcknowledged();
+    }
+
+    /***
+     * update index Mapping asynchronously
+     * @param name
+     * @param properties
+     * @return
+     */
+    public CompletableFuture<Boolean> updateMappingAsync(String name, Map<String, Map<String, Object>> properties) {
+        PutMappingRequest request = buildPutMappingRequest(name, properties);
+        return executor.<AcknowledgedResponse>executeAsync(EsOperation.PUT_MAPPING, name, (options, listener) -> client.indices().putMappingAsync(request, options, listener))
+                .thenApply(AcknowledgedResponse::isAcknowledged);
+    }
+
+    private PutMappingRequest buildPutMappingRequest(String name, Map<String, Map<String, Object>> properties) {
         PutMappingRequest request = new PutMappingRequest(name);
         Map<String, Object> jsonMap = new HashMap<>();
         {
             jsonMap.put("properties", properties);
         }
-        request.type("_doc").source(jsonMap);
-        AcknowledgedResponse putMappingResponse = client.indices().putMapping(request, RequestOptions.DEFAULT);
-        return putMappingResponse.isAcknowledged();
+        request.source(jsonMap);
+        return request;
     }
 
     /***
@@ -128,26 +216,24 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean addAlias(String[] indexNames, String aliasName, String routing, Map<String, Object>termFilter) throws IOException {
-        IndicesAliasesRequest.AliasActions addIndicesAction =
-                new IndicesAliasesRequest.AliasActions(IndicesAliasesRequest.AliasActions.Type.ADD)
-                        .indices(indexNames)
-                        .alias(aliasName);
-
-        if(null != routing){
-            addIndicesAction.routing(routing);
-        }
-
-        if(null != termFilter){
-            addIndicesAction.filter(JSONObject.toJSONString(termFilter));
-        }
-
-        IndicesAliasesRequest request = new IndicesAliasesRequest();
-        request.addAliasAction(addIndicesAction);
-        AcknowledgedResponse indicesAliasesResponse = client.indices().updateAliases(request, RequestOptions.DEFAULT);
+        IndicesAliasesRequest request = buildAliasRequest(IndicesAliasesRequest.AliasActions.Type.ADD, indexNames, aliasName, routing, termFilter);
+        AcknowledgedResponse indicesAliasesResponse = executor.execute(EsOperation.UPDATE_ALIASES, aliasName, options -> client.indices().updateAliases(request, options));
         return indicesAliasesResponse.isAcknowledged();
 
     }
 
+    /***
+     * add index names alias to aliasName asynchronously
+     * @param indexNames
+     * @param aliasName
+     * @param routing
+     * @param termFilter
+     * @return
+     */
+    public CompletableFuture<Boolean> addAliasAsync(String[] indexNames, String aliasName, String routing, Map<String, Object> termFilter) {
+        return updateAliasesAsync(aliasName, buildAliasRequest(IndicesAliasesRequest.AliasActions.Type.ADD, indexNames, aliasName, routing, termFilter));
+    }
+
     /***
      * remove index Names from aliasName
      * @param indexNames
@@ -158,24 +244,47 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean removeAlias(String[] indexNames, String aliasName, String routing, Map<String, Object>termFilter) throws IOException {
-        IndicesAliasesRequest.AliasActions addIndicesAction =
-                new IndicesAliasesRequest.AliasActions(IndicesAliasesRequest.AliasActions.Type.REMOVE)
+        IndicesAliasesRequest request = buildAliasRequest(IndicesAliasesRequest.AliasActions.Type.REMOVE, indexNames, aliasName, routing, termFilter);
+        AcknowledgedResponse indicesAliasesResponse = executor.execute(EsOperation.UPDATE_ALIASES, aliasName, options -> client.indices().updateAliases(request, options));
+        return indicesAliasesResponse.isAcknowledged();
+
+    }
+
+    /***
+     * remove index Names from aliasName asynchronously
+     * @param indexNames
+     * @param aliasName
+     * @param routing
+     * @param termFilter
+     * @return
+     */
+    public CompletableFuture<Boolean> removeAliasAsync(String[] indexNames, String aliasName, String routing, Map<String, Object> termFilter) {
+        return updateAliasesAsync(aliasName, buildAliasRequest(IndicesAliasesRequest.AliasActions.Type.REMOVE, indexNames, aliasName, routing, termFilter));
+    }
+
+    private CompletableFuture<Boolean> updateAliasesAsync(String aliasName, IndicesAliasesRequest request) {
+        return executor.<AcknowledgedResponse>executeAsync(EsOperation.UPDATE_ALIASES, aliasName, (options, listener) -> client.indices().updateAliasesAsync(request, options, listener))
+                .thenApply(AcknowledgedResponse::isAcknowledged);
+    }
+
+    private IndicesAliasesRequest buildAliasRequest(IndicesAliasesRequest.AliasActions.Type type, String[] indexNames, String aliasName,
+                                                    String routing, Map<String, Object> termFilter) {
+        IndicesAliasesRequest.AliasActions aliasAction =
+                new IndicesAliasesRequest.AliasActions(type)
                         .indices(indexNames)
                         .alias(aliasName);
 
         if(null != routing){
-            addIndicesAction.routing(routing);
+            aliasAction.routing(routing);
         }
 
         if(null != termFilter){
-            addIndicesAction.filter(JSONObject.toJSONString(termFilter));
+            aliasAction.filter(JSONObject.toJSONString(termFilter));
         }
 
         IndicesAliasesRequest request = new IndicesAliasesRequest();
-        request.addAliasAction(addIndicesAction);
-        AcknowledgedResponse indicesAliasesResponse = client.indices().updateAliases(request, RequestOptions.DEFAULT);
-        return indicesAliasesResponse.isAcknowledged();
-
+        request.addAliasAction(aliasAction);
+        return request;
     }
 
     /***
@@ -186,11 +295,26 @@ public class IndexOps {
      * @throws IOException
      */
     public Boolean existsAlias(String[] index, String alias) throws IOException {
+        return  executor.execute(EsOperation.ALIAS_EXISTS, alias, options -> client.indices().existsAlias(buildGetAliasesRequest(index, alias), options));
+    }
+
+    /***
+     * check index exists Alias asynchronously
+     * @param index
+     * @param alias
+     * @return
+     */
+    public CompletableFuture<Boolean> existsAliasAsync(String[] index, String alias) {
+        GetAliasesRequest request = buildGetAliasesRequest(index, alias);
+        return executor.executeAsync(EsOperation.ALIAS_EXISTS, alias, (options, listener) -> client.indices().existsAliasAsync(request, options, listener));
+    }
+
+    private GetAliasesRequest buildGetAliasesRequest(String[] index, String alias) {
         GetAliasesRequest request = new GetAliasesRequest();
         request.indices(index);
         request.aliases(alias);
         request.indicesOptions(IndicesOptions.lenientExpandOpen());
         request.local(true);
-        return  client.indices().existsAlias(request, RequestOptions.DEFAULT);
+        return request;
     }
 }
@@ -2,13 +2,14 @@ package io.github.tonnycao.esrest.index;
 
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson.JSONObject;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.admin.indices.alias.Alias;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateRequest;
 import org.elasticsearch.action.admin.indices.template.get.GetIndexTemplatesResponse;
 import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetIndexTemplatesRequest;
 import org.elasticsearch.client.indices.IndexTemplatesExistRequest;
@@ -28,6 +29,9 @@ public class IndexTemplateOps {
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private OperationExecutor executor;
+
     /***
      * standard create
      * @param name
@@ -56,7 +60,7 @@ public class IndexTemplateOps {
         if(StrUtil.isNotBlank(aliasName)){
             request.alias(new Alias(aliasName));
         }
-        AcknowledgedResponse response = client.indices().putTemplate(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse response = executor.execute(EsOperation.PUT_TEMPLATE, name, options -> client.indices().putTemplate(request, options));
         return response.isAcknowledged();
     }
 
@@ -73,7 +77,7 @@ public class IndexTemplateOps {
         request.source(jsonStr, XContentType.JSON);
         request.create(true);
         request.order(20);
-        AcknowledgedResponse response = client.indices().putTemplate(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse response = executor.execute(EsOperation.PUT_TEMPLATE, name, options -> client.indices().putTemplate(request, options));
         return response.isAcknowledged();
     }
 
@@ -86,7 +90,7 @@ public class IndexTemplateOps {
     public Boolean checkExist(String name) throws IOException {
         IndexTemplatesExistRequest request;
         request = new IndexTemplatesExistRequest(name);
-        return client.indices().existsTemplate(request, RequestOptions.DEFAULT);
+        return executor.execute(EsOperation.TEMPLATE_EXISTS, name, options -> client.indices().existsTemplate(request, options));
     }
 
     /***
@@ -97,7 +101,7 @@ public class IndexTemplateOps {
     public Map<String, String> queryOne(String name) throws IOException {
         GetIndexTemplatesRequest request = new GetIndexTemplatesRequest(name);
 
-        GetIndexTemplatesResponse response = client.indices().getTemplate(request, RequestOptions.DEFAULT);
+        GetIndexTemplatesResponse response = executor.execute(EsOperation.GET_TEMPLATE, name, options -> client.indices().getTemplate(request, options));
         Map<String, String> map = new HashMap<>();
         map.put("setting", response.getIndexTemplates().get(0).getMappings().toString());
         map.put("mapping", response.getIndexTemplates().get(0).getMappings().toString());
@@ -114,7 +118,7 @@ public class IndexTemplateOps {
     public Boolean deleteOne(String name) throws IOException {
         DeleteIndexTemplateRequest request = new DeleteIndexTemplateRequest();
         request.name(name);
-        AcknowledgedResponse deleteTemplateAcknowledge = client.indices().deleteTemplate(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse deleteTemplateAcknowledge = executor.execute(EsOperation.DELETE_TEMPLATE, name, options -> client.indices().deleteTemplate(request, options));
         return deleteTemplateAcknowledge.isAcknowledged();
     }
 
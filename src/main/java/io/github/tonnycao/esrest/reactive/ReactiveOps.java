@@ -0,0 +1,193 @@
+package io.github.tonnycao.esrest.reactive;
+
+import io.github.tonnycao.esrest.document.BulkResult;
+import io.github.tonnycao.esrest.document.DocumentCodec;
+import io.github.tonnycao.esrest.document.DocumentOps;
+import io.github.tonnycao.esrest.search.ScrollRegistry;
+import io.github.tonnycao.esrest.search.SearchAfterCursor;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Project Reactor facade over scroll, search_after and bulk.
+ * <p>
+ * Pages are fetched on demand: the next page is requested only once downstream has
+ * drained the current one, so at most one page is read ahead of a slow consumer.
+ * Only active when reactor-core is on the classpath.
+ */
+@Service
+@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+public class ReactiveOps {
+
+    private static final int DEFAULT_SIZE = 10;
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private DocumentOps documentOps;
+
+    @Autowired
+    private ScrollRegistry scrollRegistry;
+
+    /***
+     * stream every hit of the query through a scroll context, the context is tracked by the
+     * {@link ScrollRegistry} while open and cleared on completion, error or cancellation
+     * @param index
+     * @param sourceBuilder page size is taken from sourceBuilder.size()
+     * @param minutes scroll keep alive between pages
+     * @return
+     */
+    public Flux<SearchHit> scroll(String index, SearchSourceBuilder sourceBuilder, Integer minutes) {
+        return Flux.defer(() -> {
+            Scroll scroll = new Scroll(TimeValue.timeValueMinutes(minutes));
+            AtomicReference<String> scrollId = new AtomicReference<>();
+            SearchRequest searchRequest = new SearchRequest(index);
+            searchRequest.source(sourceBuilder);
+            searchRequest.scroll(scroll);
+
+            return Mono.fromFuture(() -> search(EsOperation.OPEN_SCROLL, searchRequest))
+                    .expand(response -> hasHits(response)
+                            ? Mono.fromFuture(() -> scroll(index, response.getScrollId(), scroll))
+                            : Mono.empty())
+                    .doOnNext(response -> {
+                        scrollRegistry.touch(scrollId.get(), response.getScrollId(), index, scroll.keepAlive().millis());
+                        scrollId.set(response.getScrollId());
+                    })
+                    .concatMapIterable(response -> Arrays.asList(response.getHits().getHits()), 1)
+                    .doFinally(signal -> scrollRegistry.clear(scrollId.get()));
+        });
+    }
+
+    /***
+     * stream the source of every hit through a scroll context
+     * @param index
+     * @param sourceBuilder
+     * @param minutes
+     * @return
+     */
+    public Flux<Map<String, Object>> scrollSource(String index, SearchSourceBuilder sourceBuilder, Integer minutes) {
+        return scroll(index, sourceBuilder, minutes).map(SearchHit::getSourceAsMap);
+    }
+
+    /***
+     * stream the source of every hit through a scroll context, decoded into type
+     * @param index
+     * @param sourceBuilder
+     * @param minutes
+     * @param type
+     * @return
+     */
+    public <T> Flux<T> scrollSource(String index, SearchSourceBuilder sourceBuilder, Integer minutes, Class<T> type) {
+        return scroll(index, sourceBuilder, minutes).map(hit -> DocumentCodec.decode(hit, type));
+    }
+
+    /***
+     * stream every hit of the query with search_after, sorted by the builder's sort plus _id as tie-breaker
+     * @param index
+     * @param sourceBuilder page size is taken from sourceBuilder.size(), a searchAfter already set resumes after it
+     * @return
+     */
+    public Flux<SearchHit> searchAfter(String index, SearchSourceBuilder sourceBuilder) {
+        return searchAfter(index, sourceBuilder, "_id");
+    }
+
+    /***
+     * stream every hit of the query with search_after; like {@code SearchOps.searchAfterCursor} the tie-breaker
+     * is appended to the sort of sourceBuilder, the pages are sent with copies, so sourceBuilder never carries
+     * the search_after of a page and can be subscribed again
+     * @param index
+     * @param sourceBuilder
+     * @param tieBreaker unique field appended to the sort, prefer a keyword field with doc values over _id
+     * @return
+     */
+    public Flux<SearchHit> searchAfter(String index, SearchSourceBuilder sourceBuilder, String tieBreaker) {
+        return Flux.defer(() -> {
+            SearchAfterCursor.addTieBreaker(sourceBuilder, tieBreaker);
+            int size = sourceBuilder.size() < 0 ? DEFAULT_SIZE : sourceBuilder.size();
+            return Mono.fromFuture(() -> searchAfterPage(index, sourceBuilder, size, sourceBuilder.searchAfter()))
+                    .expand(response -> {
+                        SearchHit[] hits = response.getHits().getHits();
+                        if (hits.length < size) {
+                            return Mono.empty();
+                        }
+                        return Mono.fromFuture(() -> searchAfterPage(index, sourceBuilder, size, hits[hits.length - 1].getSortValues()));
+                    })
+                    .concatMapIterable(response -> Arrays.asList(response.getHits().getHits()), 1);
+        });
+    }
+
+    /***
+     * index a stream of docs in batches of batchSize with at most concurrency bulks in flight;
+     * the upstream is only requested as bulks complete
+     * @param index
+     * @param docs
+     * @param batchSize
+     * @param concurrency
+     * @return
+     */
+    public Mono<BulkResult> bulk(String index, Flux<Map<String, Object>> docs, int batchSize, int concurrency) {
+        return docs.buffer(batchSize)
+                .index()
+                .flatMap(batch -> bulk(index, batch.getT2(), batch.getT1() * batchSize), concurrency)
+                .reduceWith(BulkResult::new, (total, result) -> {
+                    total.merge(result);
+                    return total;
+                });
+    }
+
+    private Mono<BulkResult> bulk(String index, List<Map<String, Object>> batch, long offset) {
+        return Mono.fromFuture(() -> documentOps.bulkAddDocAsync(index, batch, offset));
+    }
+
+    private CompletableFuture<SearchResponse> searchAfterPage(String index, SearchSourceBuilder sourceBuilder, int size, Object[] after) {
+        SearchSourceBuilder page = sourceBuilder.copyWithNewSlice(sourceBuilder.slice()).size(size);
+        if (null != after && after.length > 0) {
+            page.searchAfter(after);
+        }
+        if (null == page.trackTotalHitsUpTo()) {
+            page.trackTotalHits(false);
+        }
+        return search(EsOperation.SEARCH, new SearchRequest(index).source(page));
+    }
+
+    /***
+     * a search opening a scroll is sent as OPEN_SCROLL, neither hedged nor retried after an unknown outcome,
+     * either would leave a context nobody clears
+     */
+    private CompletableFuture<SearchResponse> search(EsOperation operation, SearchRequest request) {
+        return executor.executeAsync(operation, String.join(",", request.indices()), (options, listener) -> client.searchAsync(request, options, listener));
+    }
+
+    private CompletableFuture<SearchResponse> scroll(String index, String scrollId, Scroll scroll) {
+        SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+        scrollRequest.scroll(scroll);
+        return executor.executeAsync(EsOperation.SCROLL, index, (options, listener) -> client.scrollAsync(scrollRequest, options, listener));
+    }
+
+    private boolean hasHits(SearchResponse response) {
+        return response.getHits().getHits().length > 0;
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.tonnycao.esrest.search;
+
+import lombok.Getter;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+/**
+ * Per call hit counting: exact, exact up to a threshold or off (track_total_hits), optionally
+ * stopping each shard after a number of matches (terminate_after).
+ * <p>
+ * Pages of untracked searches carry no "total"/"totalPage", only "hasMore".
+ */
+@Getter
+public class HitCount {
+
+    private Boolean track;
+
+    private Integer threshold;
+
+    private Integer terminateAfter;
+
+    /***
+     * count every match, the most expensive option
+     * @return
+     */
+    public static HitCount exact() {
+        HitCount count = new HitCount();
+        count.track = true;
+        return count;
+    }
+
+    /***
+     * count exactly up to threshold matches, beyond it total is a lower bound (relation gte)
+     * @param threshold
+     * @return
+     */
+    public static HitCount upTo(int threshold) {
+        HitCount count = new HitCount();
+        count.threshold = threshold;
+        return count;
+    }
+
+    /***
+     * do not count, e.g. for infinite scroll
+     * @return
+     */
+    public static HitCount none() {
+        HitCount count = new HitCount();
+        count.track = false;
+        return count;
+    }
+
+    /***
+     * stop collecting on each shard after this many matches
+     * @param terminateAfter
+     * @return
+     */
+    public HitCount terminateAfter(int terminateAfter) {
+        this.terminateAfter = terminateAfter;
+        return this;
+    }
+
+    public void applyTo(SearchSourceBuilder builder) {
+        if (null != threshold) {
+            builder.trackTotalHitsUpTo(threshold);
+        } else if (null != track) {
+            builder.trackTotalHits(track);
+        }
+        if (null != terminateAfter) {
+            builder.terminateAfter(terminateAfter);
+        }
+    }
+}
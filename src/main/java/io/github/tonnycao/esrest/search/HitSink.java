@@ -0,0 +1,21 @@
+package io.github.tonnycao.esrest.search;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+
+/**
+ * Receives the pages of a sliced export. Called concurrently from one worker per slice,
+ * so implementations must be thread safe.
+ */
+@FunctionalInterface
+public interface HitSink {
+
+    /***
+     * consume one page of hits
+     * @param slice id of the slice the page belongs to
+     * @param hits
+     * @throws IOException aborts the whole export
+     */
+    void accept(int slice, SearchHit[] hits) throws IOException;
+}
@@ -0,0 +1,96 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+
+/**
+ * A scroll whose context is cleared for the caller: when the last page has been read, when a page fails,
+ * or on {@link #close()}, e.g. at the end of a try-with-resources block. Contexts abandoned without either
+ * are cleared by the {@link ScrollRegistry} reaper.
+ */
+public class ManagedScroll implements AutoCloseable {
+
+    private static final SearchHit[] NO_HITS = new SearchHit[0];
+
+    private final RestHighLevelClient client;
+
+    private final OperationExecutor executor;
+
+    private final ScrollRegistry registry;
+
+    private final SearchRequest searchRequest;
+
+    private final Scroll scroll;
+
+    private String scrollId;
+
+    private boolean started;
+
+    private boolean closed;
+
+    ManagedScroll(RestHighLevelClient client, OperationExecutor executor, ScrollRegistry registry, SearchRequest searchRequest) {
+        this.client = client;
+        this.executor = executor;
+        this.registry = registry;
+        this.searchRequest = searchRequest;
+        this.scroll = searchRequest.scroll();
+    }
+
+    /***
+     * read the next page
+     * @return hits of the page, empty once the scroll is exhausted
+     * @throws IOException the context is cleared before the failure is rethrown
+     */
+    public synchronized SearchHit[] nextPage() throws IOException {
+        if (closed) {
+            return NO_HITS;
+        }
+        SearchResponse response;
+        String index = String.join(",", searchRequest.indices());
+        try {
+            if (started) {
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(scroll);
+                response = executor.execute(EsOperation.SCROLL, index, options -> client.scroll(scrollRequest, options));
+            } else {
+                started = true;
+                response = executor.execute(EsOperation.OPEN_SCROLL, index, options -> client.search(searchRequest, options));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        registry.touch(scrollId, response.getScrollId(), index, scroll.keepAlive().millis());
+        scrollId = response.getScrollId();
+        SearchHit[] hits = response.getHits().getHits();
+        if (hits.length == 0) {
+            close();
+        }
+        return hits;
+    }
+
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        registry.clear(scrollId);
+    }
+}
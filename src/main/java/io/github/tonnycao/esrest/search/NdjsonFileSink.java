@@ -0,0 +1,57 @@
+package io.github.tonnycao.esrest.search;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the raw source of every hit as one line of an NDJSON file.
+ * Each page is written with a single channel write, so lines from different slices never interleave.
+ */
+public class NdjsonFileSink implements HitSink, Closeable {
+
+    private final FileChannel channel;
+
+    public NdjsonFileSink(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void accept(int slice, SearchHit[] hits) throws IOException {
+        int length = 0;
+        for (SearchHit hit : hits) {
+            BytesReference source = hit.getSourceRef();
+            if (source != null) {
+                length += source.length() + 1;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (SearchHit hit : hits) {
+            BytesReference source = hit.getSourceRef();
+            if (source != null) {
+                BytesRef ref = source.toBytesRef();
+                buffer.put(ref.bytes, ref.offset, ref.length);
+                buffer.put((byte) '\n');
+            }
+        }
+        buffer.flip();
+        synchronized (channel) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the scroll contexts opened through {@link SearchOps} and clears the ones left behind.
+ * <p>
+ * Contexts are registered when a scroll page is returned and released when the caller clears them or the
+ * scroll is exhausted. A background reaper clears contexts that have not been advanced within the idle
+ * timeout (capped by their keep alive) instead of leaving them to pin segments until they expire.
+ */
+@Slf4j
+@Component
+public class ScrollRegistry {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private final Map<String, Context> open = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reaper;
+
+    @PostConstruct
+    public void init() {
+        long interval = properties.getScroll().getReaperIntervalSeconds();
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "es-scroll-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        reaper.shutdownNow();
+        new ArrayList<>(open.keySet()).forEach(this::clear);
+    }
+
+    /***
+     * record that a scroll page was returned
+     * @param previousId scroll id the page was requested with, null for the first page
+     * @param scrollId scroll id returned with the page
+     * @param index
+     * @param keepAliveMillis
+     */
+    public void touch(String previousId, String scrollId, String index, long keepAliveMillis) {
+        if (null == scrollId) {
+            return;
+        }
+        Context context = null == previousId ? null : open.remove(previousId);
+        if (null == context) {
+            context = new Context(index, keepAliveMillis,
+                    properties.getScroll().isCaptureOrigin() ? new Throwable("scroll opened here") : null);
+        }
+        context.lastAccess = System.currentTimeMillis();
+        open.put(scrollId, context);
+    }
+
+    /***
+     * stop tracking a context the caller is clearing itself
+     * @param scrollId
+     */
+    public void release(String scrollId) {
+        if (null != scrollId) {
+            open.remove(scrollId);
+        }
+    }
+
+    /***
+     * stop tracking and clear the context asynchronously
+     * @param scrollId
+     */
+    public void clear(String scrollId) {
+        if (null == scrollId) {
+            return;
+        }
+        open.remove(scrollId);
+        ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        executor.<ClearScrollResponse>executeAsync(EsOperation.CLEAR_SCROLL, null, (options, listener) -> client.clearScrollAsync(request, options, listener))
+                .whenComplete((response, e) -> {
+                    if (null != e) {
+                        log.error("ES clear Scroll exception: {}", e.getMessage());
+                    }
+                });
+    }
+
+    /***
+     * number of tracked open scroll contexts
+     * @return
+     */
+    public int openCount() {
+        return open.size();
+    }
+
+    /***
+     * age of the oldest tracked context in ms, 0 when none is open
+     * @return
+     */
+    public long oldestAgeMillis() {
+        long now = System.currentTimeMillis();
+        long oldest = 0;
+        for (Context context : open.values()) {
+            oldest = Math.max(oldest, now - context.openedAt);
+        }
+        return oldest;
+    }
+
+    void reap() {
+        long now = System.currentTimeMillis();
+        long idleTimeout = TimeUnit.SECONDS.toMillis(properties.getScroll().getIdleTimeoutSeconds());
+        for (Map.Entry<String, Context> entry : open.entrySet()) {
+            Context context = entry.getValue();
+            long idle = now - context.lastAccess;
+            if (idle < Math.min(idleTimeout, context.keepAliveMillis)) {
+                continue;
+            }
+            if (null == context.origin) {
+                log.warn("clearing scroll on {} idle for {}ms, opened {}ms ago", context.index, idle, now - context.openedAt);
+            } else {
+                log.warn("clearing scroll on {} idle for {}ms, opened {}ms ago", context.index, idle, now - context.openedAt, context.origin);
+            }
+            clear(entry.getKey());
+        }
+    }
+
+    private static class Context {
+
+        private final String index;
+
+        private final long keepAliveMillis;
+
+        private final Throwable origin;
+
+        private final long openedAt = System.currentTimeMillis();
+
+        private volatile long lastAccess;
+
+        private Context(String index, long keepAliveMillis, Throwable origin) {
+            this.index = index;
+            this.keepAliveMillis = keepAliveMillis;
+            this.origin = origin;
+        }
+    }
+}
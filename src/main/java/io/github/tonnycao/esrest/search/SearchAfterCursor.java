@@ -0,0 +1,169 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.utils.ActionFutures;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates every hit of a query page by page with search_after.
+ * <p>
+ * A unique tie-breaker sort is appended when the sort does not already end with it, so hits with equal
+ * sort values are neither skipped nor repeated across pages. Sort values are passed on as returned by
+ * the cluster, keeping numbers and dates typed. Page N+1 is requested as soon as page N arrives, so its
+ * round trip overlaps with the consumption of page N; {@link #close()} drops a prefetched page that is no
+ * longer wanted, e.g. when iteration stops early.
+ * <p>
+ * Hits are not counted unless the builder sets track_total_hits itself. Failures surface from
+ * {@link #hasNext()} as {@link UncheckedIOException} or the client's runtime exception.
+ */
+public class SearchAfterCursor<T> implements Iterator<T>, Iterable<T>, AutoCloseable {
+
+    private static final int DEFAULT_SIZE = 10;
+
+    private final String index;
+
+    private final SearchSourceBuilder sourceBuilder;
+
+    private final int size;
+
+    private final Function<SearchRequest, CompletableFuture<SearchResponse>> search;
+
+    private final Function<SearchHit, T> mapper;
+
+    private CompletableFuture<SearchResponse> prefetched;
+
+    private SearchHit[] page = new SearchHit[0];
+
+    private int position;
+
+    private Object[] searchAfter;
+
+    private boolean closed;
+
+    SearchAfterCursor(String index, SearchSourceBuilder sourceBuilder, String tieBreaker,
+                      Function<SearchRequest, CompletableFuture<SearchResponse>> search, Function<SearchHit, T> mapper) {
+        this.index = index;
+        this.sourceBuilder = sourceBuilder;
+        this.size = sourceBuilder.size() < 0 ? DEFAULT_SIZE : sourceBuilder.size();
+        this.search = search;
+        this.mapper = mapper;
+        addTieBreaker(sourceBuilder, tieBreaker);
+        if (null == sourceBuilder.trackTotalHitsUpTo()) {
+            sourceBuilder.trackTotalHits(false);
+        }
+        this.searchAfter = sourceBuilder.searchAfter();
+        this.prefetched = fetch(searchAfter);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= page.length) {
+            if (closed || null == prefetched) {
+                return false;
+            }
+            SearchResponse response = await(prefetched);
+            prefetched = null;
+            page = response.getHits().getHits();
+            position = 0;
+            if (page.length >= size) {
+                prefetched = fetch(page[page.length - 1].getSortValues());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SearchHit hit = page[position++];
+        searchAfter = hit.getSortValues();
+        return mapper.apply(hit);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    /***
+     * stream of the remaining hits, closing the stream closes the cursor
+     * @return
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /***
+     * stop iterating, cancelling the prefetched page; hits of the current page are dropped too
+     */
+    @Override
+    public void close() {
+        closed = true;
+        page = new SearchHit[0];
+        if (null != prefetched) {
+            prefetched.cancel(false);
+            prefetched = null;
+        }
+    }
+
+    /***
+     * sort values of the last returned hit, set them with SearchSourceBuilder.searchAfter to resume after it
+     * @return
+     */
+    public Object[] getSearchAfter() {
+        return searchAfter;
+    }
+
+    private CompletableFuture<SearchResponse> fetch(Object[] after) {
+        // the only public shallow copy in 7.x, the builder keeps its own slice
+        SearchSourceBuilder builder = sourceBuilder.copyWithNewSlice(sourceBuilder.slice()).size(size);
+        if (null != after && after.length > 0) {
+            builder.searchAfter(after);
+        }
+        return search.apply(new SearchRequest(index).source(builder));
+    }
+
+    private static SearchResponse await(CompletableFuture<SearchResponse> future) {
+        try {
+            return ActionFutures.await(future);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /***
+     * sort by tieBreaker ascending last, unless the sort already contains it
+     * @param builder
+     * @param tieBreaker
+     */
+    public static void addTieBreaker(SearchSourceBuilder builder, String tieBreaker) {
+        if (null != builder.sorts()) {
+            for (SortBuilder<?> sort : builder.sorts()) {
+                if (sort instanceof FieldSortBuilder && tieBreaker.equals(((FieldSortBuilder) sort).getFieldName())) {
+                    return;
+                }
+            }
+        }
+        builder.sort(SortBuilders.fieldSort(tieBreaker).order(SortOrder.ASC));
+    }
+}
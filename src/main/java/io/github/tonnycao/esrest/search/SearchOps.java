@@ -2,17 +2,32 @@ package io.github.tonnycao.esrest.search;
 
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.StrUtil;
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.document.DocumentCodec;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import io.github.tonnycao.esrest.utils.ActionFutures;
+import io.github.tonnycao.esrest.utils.MicroBatcher;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.search.*;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.core.CountResponse;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.Scroll;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.lookup.SourceLookup;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.search.suggest.SuggestBuilder;
@@ -22,8 +37,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -32,6 +51,35 @@ public class SearchOps {
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private OperationExecutor executor;
+
+    @Autowired
+    private SearchCache searchCache;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private ScrollRegistry scrollRegistry;
+
+    private MicroBatcher<SearchRequest, MultiSearchResponse.Item> searchBatcher;
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchProperties.Batching batching = properties.getMsearchBatching();
+        if (batching.isEnabled()) {
+            searchBatcher = new MicroBatcher<>("es-msearch-batcher", batching.getMaxBatchSize(), batching.getWindowMicros(), this::multiSearchBatch);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (null != searchBatcher) {
+            searchBatcher.close();
+        }
+    }
+
     /***
      * fuzzy  search query builder
      * @param field
@@ -195,8 +243,171 @@ public class SearchOps {
      */
     public Map<String, Object> fetch(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
                                      String orderBy, String order, String unmappedType) throws IOException {
+        SearchRequest searchRequest = buildFetchRequest(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+        SearchResponse response = search(index, searchRequest);
+        return buildPage(response, size, from, SearchOps::sourceOf);
+    }
+
+    /***
+     * do search request returning only the projected fields
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @param orderBy
+     * @param order
+     * @param unmappedType
+     * @param sourceFilter _source includes/excludes, docvalue and stored fields
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> fetch(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                     String orderBy, String order, String unmappedType, SourceFilter sourceFilter) throws IOException {
+        SearchRequest searchRequest = buildFetchRequest(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+        sourceFilter.applyTo(searchSourceBuilder);
+        SearchResponse response = search(index, searchRequest);
+        return buildPage(response, size, from, sourceFilter::toItem);
+    }
+
+    /***
+     * do search request with explicit hit counting, e.g. HitCount.none() for infinite scroll
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @param orderBy
+     * @param order
+     * @param unmappedType
+     * @param hitCount track_total_hits and terminate_after of this call
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> fetch(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                     String orderBy, String order, String unmappedType, HitCount hitCount) throws IOException {
+        hitCount.applyTo(searchSourceBuilder);
+        return fetch(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+    }
+
+    /***
+     * do search request, items are decoded straight from the source bytes into type
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @param orderBy
+     * @param order
+     * @param unmappedType
+     * @param type
+     * @return
+     * @throws IOException
+     */
+    public <T> Map<String, Object> fetch(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                         String orderBy, String order, String unmappedType, Class<T> type) throws IOException {
+        SearchRequest searchRequest = buildFetchRequest(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+        SearchResponse response = search(index, searchRequest);
+        return buildPage(response, size, from, hit -> DocumentCodec.decode(hit, type));
+    }
+
+    /***
+     * do search request asynchronously
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @param orderBy
+     * @param order
+     * @param unmappedType
+     * @return
+     */
+    public CompletableFuture<Map<String, Object>> fetchAsync(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                                             String orderBy, String order, String unmappedType) {
+        SearchRequest searchRequest = buildFetchRequest(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+        return searchAsync(index, searchRequest)
+                .thenApply(response -> buildPage(response, size, from, SearchOps::sourceOf));
+    }
+
+    /***
+     * do search request asynchronously, items are decoded into type
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @param orderBy
+     * @param order
+     * @param unmappedType
+     * @param type
+     * @return
+     */
+    public <T> CompletableFuture<Map<String, Object>> fetchAsync(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                                                 String orderBy, String order, String unmappedType, Class<T> type) {
+        SearchRequest searchRequest = buildFetchRequest(index, searchSourceBuilder, size, from, orderBy, order, unmappedType);
+        return searchAsync(index, searchRequest)
+                .thenApply(response -> buildPage(response, size, from, hit -> DocumentCodec.decode(hit, type)));
+    }
+
+    /***
+     * search through the result cache when the index is cached
+     */
+    private SearchResponse search(String index, SearchRequest searchRequest) throws IOException {
+        if (!searchCache.isCached(index)) {
+            return execute(index, searchRequest);
+        }
+        String key = searchCache.key(index, searchRequest);
+        SearchResponse response = searchCache.get(key);
+        if (null == response) {
+            response = execute(index, searchRequest);
+            searchCache.put(index, key, response);
+        }
+        return response;
+    }
+
+    private CompletableFuture<SearchResponse> searchAsync(String index, SearchRequest searchRequest) {
+        if (!searchCache.isCached(index)) {
+            return executeAsync(index, searchRequest);
+        }
+        String key = searchCache.key(index, searchRequest);
+        SearchResponse cached = searchCache.get(key);
+        if (null != cached) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return executeAsync(index, searchRequest)
+                .thenApply(response -> {
+                    searchCache.put(index, key, response);
+                    return response;
+                });
+    }
+
+    /***
+     * send one fetch, merged with concurrent fetches into one _msearch when batching is enabled
+     */
+    private SearchResponse execute(String index, SearchRequest searchRequest) throws IOException {
+        if (null == searchBatcher && executor.isHedged(EsOperation.SEARCH)) {
+            // a duplicate can only be sent from the async path
+            return ActionFutures.await(executeAsync(index, searchRequest));
+        }
+        if (null == searchBatcher) {
+            return executor.execute(EsOperation.SEARCH, index, options -> client.search(searchRequest, options));
+        }
+        return toSearchResponse(ActionFutures.await(searchBatcher.submit(searchRequest)));
+    }
+
+    private CompletableFuture<SearchResponse> executeAsync(String index, SearchRequest searchRequest) {
+        if (null == searchBatcher) {
+            return executor.executeAsync(EsOperation.SEARCH, index, (options, listener) -> client.searchAsync(searchRequest, options, listener));
+        }
+        return searchBatcher.submit(searchRequest).thenApply(SearchOps::toSearchResponse);
+    }
+
+    /***
+     * source of a hit parsed into a new map, cached hits are shared so their memoized map must not leak to callers
+     */
+    private static Map<String, Object> sourceOf(SearchHit hit) {
+        return hit.hasSource() ? SourceLookup.sourceAsMap(hit.getSourceRef()) : null;
+    }
+
+    private SearchRequest buildFetchRequest(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from,
+                                            String orderBy, String order, String unmappedType) {
         SearchRequest searchRequest = new SearchRequest(index);
-        searchRequest.types("_doc");
         searchRequest.indices(index);
 
         searchSourceBuilder.from(from);
@@ -212,15 +423,19 @@ public class SearchOps {
         searchSourceBuilder.timeout(new TimeValue(60, TimeUnit.SECONDS));
         searchRequest.source(searchSourceBuilder);
         searchRequest.indices(index);
-        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchRequest;
+    }
+
+    private Map<String, Object> buildPage(SearchResponse response, Integer size, Integer from, Function<SearchHit, ?> mapper) {
         Map<String, Object> searchMap = new HashMap<>();
-        Long total = response.getHits().getTotalHits().value;
-        List<Map<String, Object>> items = new ArrayList<>(response.getHits().getHits().length);
+        List<Object> items = new ArrayList<>(response.getHits().getHits().length);
         Arrays.asList(response.getHits().getHits()).forEach(item -> {
-            items.add(item.getSourceAsMap());
+            items.add(mapper.apply(item));
         });
-        searchMap.put("total", total);
-        searchMap.put("totalPage", Math.ceil(total / size));
+        Long total = putTotal(searchMap, response, size, null == from ? 0 : from);
+        if (null != total) {
+            searchMap.put("totalPage", Math.ceil((double) total / size));
+        }
         searchMap.put("from", from);
         searchMap.put("items", items);
 
@@ -228,19 +443,102 @@ public class SearchOps {
     }
 
     /***
-     * multi search
+     * multi search over every index, page size and offset are taken from searchSourceBuilder
      * @param searchSourceBuilder
-     * @return
+     * @return page of the query, or its error
      * @throws IOException
      */
     public Map<String, Object> multiSearch(SearchSourceBuilder searchSourceBuilder) throws IOException {
+        return multiSearch(Collections.singletonList(toSpec(searchSourceBuilder))).get(0);
+    }
+
+    /***
+     * multi search asynchronously
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<Map<String, Object>> multiSearchAsync(SearchSourceBuilder searchSourceBuilder) {
+        return multiSearchAsync(Collections.singletonList(toSpec(searchSourceBuilder))).thenApply(pages -> pages.get(0));
+    }
+
+    /***
+     * run several queries in one _msearch round trip
+     * @param specs
+     * @return one page per spec in the same order, shaped like {@link #fetch}; a failed query yields
+     * a map with "error" and "status" instead
+     * @throws IOException
+     */
+    public List<Map<String, Object>> multiSearch(List<SearchSpec> specs) throws IOException {
+        MultiSearchResponse response = executor.execute(EsOperation.MSEARCH, null, options -> client.msearch(buildMultiSearchRequest(specs), options));
+        return buildMultiSearchPages(specs, response);
+    }
+
+    /***
+     * run several queries in one _msearch round trip asynchronously
+     * @param specs
+     * @return
+     */
+    public CompletableFuture<List<Map<String, Object>>> multiSearchAsync(List<SearchSpec> specs) {
+        MultiSearchRequest request = buildMultiSearchRequest(specs);
+        return executor.<MultiSearchResponse>executeAsync(EsOperation.MSEARCH, null, (options, listener) -> client.msearchAsync(request, options, listener))
+                .thenApply(response -> buildMultiSearchPages(specs, response));
+    }
+
+    private MultiSearchRequest buildMultiSearchRequest(List<SearchSpec> specs) {
         MultiSearchRequest request = new MultiSearchRequest();
-        SearchRequest firstSearchRequest = new SearchRequest();
-        firstSearchRequest.source(searchSourceBuilder);
-        request.add(firstSearchRequest);
-        MultiSearchResponse response = client.msearch(request, RequestOptions.DEFAULT);
-        Map<String, Object> searchMap = new HashMap<>();
-        return searchMap;
+        for (SearchSpec spec : specs) {
+            if (null == spec.getIndex()) {
+                request.add(new SearchRequest().source(spec.getSearchSourceBuilder()));
+            } else {
+                request.add(buildFetchRequest(spec.getIndex(), spec.getSearchSourceBuilder(), spec.getSize(), spec.getFrom(),
+                        spec.getOrderBy(), spec.getOrder(), spec.getUnmappedType()));
+            }
+        }
+        return request;
+    }
+
+    private List<Map<String, Object>> buildMultiSearchPages(List<SearchSpec> specs, MultiSearchResponse response) {
+        MultiSearchResponse.Item[] items = response.getResponses();
+        List<Map<String, Object>> pages = new ArrayList<>(items.length);
+        for (int i = 0; i < items.length; i++) {
+            MultiSearchResponse.Item item = items[i];
+            if (item.isFailure()) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", item.getFailureMessage());
+                error.put("status", ExceptionsHelper.status(item.getFailure()).getStatus());
+                pages.add(error);
+            } else {
+                SearchSpec spec = specs.get(i);
+                pages.add(buildPage(item.getResponse(), spec.getSize(), spec.getFrom(), SearchOps::sourceOf));
+            }
+        }
+        return pages;
+    }
+
+    /***
+     * spec of a query over every index, paged by the builder's own size and from
+     */
+    private static SearchSpec toSpec(SearchSourceBuilder searchSourceBuilder) {
+        int size = searchSourceBuilder.size() < 0 ? 10 : searchSourceBuilder.size();
+        int from = Math.max(0, searchSourceBuilder.from());
+        return SearchSpec.of(null, searchSourceBuilder, size, from);
+    }
+
+    /***
+     * one coalesced _msearch, item responses are returned in request order
+     */
+    private CompletableFuture<List<MultiSearchResponse.Item>> multiSearchBatch(List<SearchRequest> requests) {
+        MultiSearchRequest request = new MultiSearchRequest();
+        requests.forEach(request::add);
+        return executor.<MultiSearchResponse>executeAsync(EsOperation.MSEARCH, null, (options, listener) -> client.msearchAsync(request, options, listener))
+                .thenApply(response -> Arrays.asList(response.getResponses()));
+    }
+
+    private static SearchResponse toSearchResponse(MultiSearchResponse.Item item) {
+        if (item.isFailure()) {
+            throw ExceptionsHelper.convertToElastic(item.getFailure());
+        }
+        return item.getResponse();
     }
 
     /***
@@ -251,14 +549,56 @@ public class SearchOps {
      * @throws IOException
      */
     public Long count(String indexName, SearchSourceBuilder searchSourceBuilder) throws IOException {
-        CountRequest countRequest = new CountRequest(indexName);
-        searchSourceBuilder.query(QueryBuilders.matchAllQuery());
-        countRequest.source(searchSourceBuilder);
-        CountResponse countResponse = client
-                .count(countRequest, RequestOptions.DEFAULT);
+        CountRequest countRequest = buildCountRequest(indexName, searchSourceBuilder);
+        CountResponse countResponse = executor.execute(EsOperation.COUNT, indexName, options -> client.count(countRequest, options));
         return countResponse.getCount();
     }
 
+    /***
+     * count search document, each shard stops after terminateAfter matches so the result is a lower bound
+     * @param indexName
+     * @param searchSourceBuilder
+     * @param terminateAfter
+     * @return
+     * @throws IOException
+     */
+    public Long count(String indexName, SearchSourceBuilder searchSourceBuilder, int terminateAfter) throws IOException {
+        CountRequest countRequest = buildCountRequest(indexName, searchSourceBuilder);
+        countRequest.terminateAfter(terminateAfter);
+        return executor.execute(EsOperation.COUNT, indexName, options -> client.count(countRequest, options)).getCount();
+    }
+
+    /***
+     * whether any doc matches the query, each shard stops at its first match
+     * @param indexName
+     * @param queryBuilder
+     * @return
+     * @throws IOException
+     */
+    public Boolean hasMatch(String indexName, QueryBuilder queryBuilder) throws IOException {
+        return count(indexName, new SearchSourceBuilder().query(queryBuilder), 1) > 0;
+    }
+
+    /***
+     * count search document asynchronously
+     * @param indexName
+     * @param searchSourceBuilder
+     * @return
+     */
+    public CompletableFuture<Long> countAsync(String indexName, SearchSourceBuilder searchSourceBuilder) {
+        CountRequest countRequest = buildCountRequest(indexName, searchSourceBuilder);
+        return executor.<CountResponse>executeAsync(EsOperation.COUNT, indexName, (options, listener) -> client.countAsync(countRequest, options, listener))
+                .thenApply(CountResponse::getCount);
+    }
+
+    private CountRequest buildCountRequest(String indexName, SearchSourceBuilder searchSourceBuilder) {
+        CountRequest countRequest = new CountRequest(indexName);
+        // only the query is sent, size/sort/aggregations are not valid in a count request
+        countRequest.source(new SearchSourceBuilder().query(null == searchSourceBuilder || null == searchSourceBuilder.query()
+                ? QueryBuilders.matchAllQuery() : searchSourceBuilder.query()));
+        return countRequest;
+    }
+
 
     /***
      * search by After
@@ -266,48 +606,149 @@ public class SearchOps {
      * @param sourceBuilder
      * @param searchAfterList
      * @return
+     * @throws IOException
      */
-    public Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder,  List<Object> searchAfterList){
+    public Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder,  List<Object> searchAfterList) throws IOException {
+        return searchAfter(indexName, sourceBuilder, searchAfterList, SearchHit::getSourceAsMap);
+    }
 
-        Map<String, Object> result = new HashMap<>();
+    /***
+     * search by After returning only the projected fields
+     * @param indexName
+     * @param sourceBuilder
+     * @param searchAfterList
+     * @param sourceFilter
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList, SourceFilter sourceFilter) throws IOException {
+        sourceFilter.applyTo(sourceBuilder);
+        return searchAfter(indexName, sourceBuilder, searchAfterList, sourceFilter::toItem);
+    }
+
+    /***
+     * search by After with explicit hit counting, HitCount.none() skips counting on every page
+     * @param indexName
+     * @param sourceBuilder
+     * @param searchAfterList
+     * @param hitCount
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList, HitCount hitCount) throws IOException {
+        hitCount.applyTo(sourceBuilder);
+        return searchAfter(indexName, sourceBuilder, searchAfterList);
+    }
+
+    /***
+     * search by After, items are decoded straight from the source bytes into type
+     * @param indexName
+     * @param sourceBuilder
+     * @param searchAfterList
+     * @param type
+     * @return
+     * @throws IOException
+     */
+    public <T> Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList, Class<T> type) throws IOException {
+        return searchAfter(indexName, sourceBuilder, searchAfterList, hit -> DocumentCodec.decode(hit, type));
+    }
+
+    private Map<String, Object> searchAfter(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList, Function<SearchHit, ?> mapper) throws IOException {
+        SearchRequest searchRequest = buildSearchAfterRequest(indexName, sourceBuilder, searchAfterList);
+        SearchResponse response = executor.execute(EsOperation.SEARCH, indexName, options -> client.search(searchRequest, options));
+        return buildSearchAfterPage(response, sourceBuilder, searchAfterList, mapper);
+    }
+
+    /***
+     * search by After asynchronously, failures complete the future exceptionally
+     * @param indexName
+     * @param sourceBuilder
+     * @param searchAfterList
+     * @return
+     */
+    public CompletableFuture<Map<String, Object>> searchAfterAsync(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList) {
+        SearchRequest searchRequest = buildSearchAfterRequest(indexName, sourceBuilder, searchAfterList);
+        return executor.<SearchResponse>executeAsync(EsOperation.SEARCH, indexName, (options, listener) -> client.searchAsync(searchRequest, options, listener))
+                .thenApply(response -> buildSearchAfterPage(response, sourceBuilder, searchAfterList, SearchHit::getSourceAsMap));
+    }
+
+    private SearchRequest buildSearchAfterRequest(String indexName, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList) {
         if(null !=searchAfterList && searchAfterList.size()>0){
-            Object[] arr = searchAfterList.stream().toArray(String[] ::new);
-            sourceBuilder.searchAfter(arr);
+            // keep the sort values typed, numeric and date sorts fail when sent back as strings
+            sourceBuilder.searchAfter(searchAfterList.toArray());
         }
         SearchRequest searchRequest = new SearchRequest(indexName);
         searchRequest.indices(indexName);
-        searchRequest.types("_doc");
         searchRequest.source(sourceBuilder);
 
         log.info("index {}: {}",indexName,sourceBuilder.toString());
+        return searchRequest;
+    }
 
-        List<Map<String, Object>> items = new ArrayList<>();
+    private Map<String, Object> buildSearchAfterPage(SearchResponse response, SearchSourceBuilder sourceBuilder, List<Object> searchAfterList,
+                                                     Function<SearchHit, ?> mapper) {
+        Map<String, Object> result = new HashMap<>();
+        List<Object> items = new ArrayList<>();
         Object[] nextSearchAfter =  new Object[searchAfterList.size()];
 
-        try {
-            SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
-            if(searchResponseIsNotNull(response)){
-                Long total = response.getHits().getTotalHits().value;
-                result.put("total", total);
-                result.put("totalPage",  (int)Math.ceil(total/sourceBuilder.size()));
-                SearchHit[] hits = response.getHits().getHits();
-                List<SearchHit> hitList = Arrays.asList(hits);
-                for(SearchHit item: hitList){
-                    nextSearchAfter =  item.getSortValues();
-                    items.add(item.getSourceAsMap());
-                }
-            }else{
-                result.put("total", 0);
-                result.put("totalPage",  0);
+        if(searchResponseIsNotNull(response)){
+            // 只有第一页知道前面已返回多少条
+            long offset = null == searchAfterList || searchAfterList.isEmpty() ? 0 : -1;
+            Long total = putTotal(result, response, sourceBuilder.size(), offset);
+            if (null != total) {
+                result.put("totalPage",  (int)Math.ceil((double) total/sourceBuilder.size()));
             }
-        } catch (IOException e) {
-            log.error("ES searchAfter error:{}", e.getMessage());
+            SearchHit[] hits = response.getHits().getHits();
+            List<SearchHit> hitList = Arrays.asList(hits);
+            for(SearchHit item: hitList){
+                nextSearchAfter =  item.getSortValues();
+                items.add(mapper.apply(item));
+            }
+        }else{
+            result.put("total", 0);
+            result.put("totalPage",  0);
         }
         result.put("searchAfter", nextSearchAfter);
         result.put("items", items);
         return result;
     }
 
+    /***
+     * iterate every hit of the query with search_after, sorted by the builder's sort plus _id as tie-breaker;
+     * the next page is prefetched while the current one is consumed, close the cursor when stopping early
+     * @param indexName
+     * @param sourceBuilder page size is taken from sourceBuilder.size(), a searchAfter already set resumes after it
+     * @return
+     */
+    public SearchAfterCursor<Map<String, Object>> searchAfterCursor(String indexName, SearchSourceBuilder sourceBuilder) {
+        return searchAfterCursor(indexName, sourceBuilder, "_id", SearchHit::getSourceAsMap);
+    }
+
+    /***
+     * iterate every hit of the query with search_after, decoded into type
+     * @param indexName
+     * @param sourceBuilder
+     * @param type
+     * @return
+     */
+    public <T> SearchAfterCursor<T> searchAfterCursor(String indexName, SearchSourceBuilder sourceBuilder, Class<T> type) {
+        return searchAfterCursor(indexName, sourceBuilder, "_id", hit -> DocumentCodec.decode(hit, type));
+    }
+
+    /***
+     * iterate every hit of the query with search_after
+     * @param indexName
+     * @param sourceBuilder
+     * @param tieBreaker unique field appended to the sort, prefer a keyword field with doc values over _id
+     * @param mapper converts each hit into an item
+     * @return
+     */
+    public <T> SearchAfterCursor<T> searchAfterCursor(String indexName, SearchSourceBuilder sourceBuilder, String tieBreaker,
+                                                      Function<SearchHit, T> mapper) {
+        return new SearchAfterCursor<>(indexName, sourceBuilder, tieBreaker,
+                request -> executor.executeAsync(EsOperation.SEARCH, indexName, (options, listener) -> client.searchAsync(request, options, listener)), mapper);
+    }
+
     /***
      * search by Scroll
      * @param indexName
@@ -315,11 +756,61 @@ public class SearchOps {
      * @param minutes
      * @param scrollId
      * @return
+     * @throws IOException
      */
-    public Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId){
-        Map<String, Object> result = new HashMap<>();
+    public Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId) throws IOException {
+        return scrollSearch(indexName, sourceBuilder, minutes, scrollId, SearchHit::getSourceAsMap);
+    }
+
+    /***
+     * search by Scroll returning only the projected fields, the filter only matters on the
+     * first call since later pages reuse the scroll context
+     * @param indexName
+     * @param sourceBuilder
+     * @param minutes
+     * @param scrollId
+     * @param sourceFilter
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId, SourceFilter sourceFilter) throws IOException {
+        sourceFilter.applyTo(sourceBuilder);
+        return scrollSearch(indexName, sourceBuilder, minutes, scrollId, sourceFilter::toItem);
+    }
+
+    /***
+     * search by Scroll with explicit hit counting, only the first call counts since later pages
+     * reuse the scroll context
+     * @param indexName
+     * @param sourceBuilder
+     * @param minutes
+     * @param scrollId
+     * @param hitCount
+     * @return
+     * @throws IOException
+     */
+    public Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId, HitCount hitCount) throws IOException {
+        hitCount.applyTo(sourceBuilder);
+        return scrollSearch(indexName, sourceBuilder, minutes, scrollId);
+    }
+
+    /***
+     * search by Scroll, items are decoded straight from the source bytes into type
+     * @param indexName
+     * @param sourceBuilder
+     * @param minutes
+     * @param scrollId
+     * @param type
+     * @return
+     * @throws IOException
+     */
+    public <T> Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId, Class<T> type) throws IOException {
+        return scrollSearch(indexName, sourceBuilder, minutes, scrollId, hit -> DocumentCodec.decode(hit, type));
+    }
 
-        SearchResponse searchResponse = null;
+    private Map<String, Object> scrollSearch(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId,
+                                             Function<SearchHit, ?> mapper) throws IOException {
+        SearchResponse searchResponse;
         SearchRequest searchRequest = new SearchRequest(indexName);
         searchRequest.source(sourceBuilder);
 
@@ -330,28 +821,86 @@ public class SearchOps {
         if(StrUtil.isNotBlank(scrollId)){
             SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
             scrollRequest.scroll(scroll);
-            try {
-                searchResponse = client.scroll(scrollRequest, RequestOptions.DEFAULT);
-            } catch (IOException e) {
-                log.error("es scrollSearch exception: {}", e.getMessage());
-            }
-
+            searchResponse = executor.execute(EsOperation.SCROLL, indexName, options -> client.scroll(scrollRequest, options));
         }else{
-            try {
-                searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-            } catch (IOException e) {
-                log.error("es scrollSearch exception: {}", e.getMessage());
-            }
+            searchResponse = executor.execute(EsOperation.OPEN_SCROLL, indexName, options -> client.search(searchRequest, options));
         }
 
-        List<Map<String, Object>> items = this.buildResponse(searchResponse);
+        trackScroll(indexName, scrollId, scroll, searchResponse);
+        return buildScrollPage(searchResponse, sourceBuilder, mapper);
+    }
 
-        Long total = searchResponse.getHits().getTotalHits().value;
-        result.put("total", total);
+    /***
+     * search by Scroll asynchronously, failures complete the future exceptionally
+     * @param indexName
+     * @param sourceBuilder
+     * @param minutes
+     * @param scrollId
+     * @return
+     */
+    public CompletableFuture<Map<String, Object>> scrollSearchAsync(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes, String scrollId) {
+        Scroll scroll = new Scroll(TimeValue.timeValueMinutes(minutes));
+        CompletableFuture<SearchResponse> future;
+        if (StrUtil.isNotBlank(scrollId)) {
+            SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+            scrollRequest.scroll(scroll);
+            future = executor.executeAsync(EsOperation.SCROLL, indexName, (options, listener) -> client.scrollAsync(scrollRequest, options, listener));
+        } else {
+            SearchRequest searchRequest = new SearchRequest(indexName);
+            searchRequest.source(sourceBuilder);
+            searchRequest.scroll(scroll);
+            future = executor.executeAsync(EsOperation.OPEN_SCROLL, indexName, (options, listener) -> client.searchAsync(searchRequest, options, listener));
+        }
+        return future.thenApply(response -> {
+            trackScroll(indexName, scrollId, scroll, response);
+            return buildScrollPage(response, sourceBuilder, SearchHit::getSourceAsMap);
+        });
+    }
 
-        if(total>0){
-            result.put("totalPage",   (int)Math.ceil(total/sourceBuilder.size()));
-        }else{
+    /***
+     * open a scroll whose context is cleared once it is exhausted, fails or is closed
+     * <pre>
+     * try (ManagedScroll scroll = searchOps.openScroll(index, sourceBuilder, 1)) {
+     *     for (SearchHit[] hits = scroll.nextPage(); hits.length > 0; hits = scroll.nextPage()) { ... }
+     * }
+     * </pre>
+     * @param indexName
+     * @param sourceBuilder page size is taken from sourceBuilder.size()
+     * @param minutes scroll keep alive between pages
+     * @return
+     */
+    public ManagedScroll openScroll(String indexName, SearchSourceBuilder sourceBuilder, Integer minutes) {
+        SearchRequest searchRequest = new SearchRequest(indexName);
+        searchRequest.source(sourceBuilder);
+        searchRequest.scroll(new Scroll(TimeValue.timeValueMinutes(minutes)));
+        return new ManagedScroll(client, executor, scrollRegistry, searchRequest);
+    }
+
+    /***
+     * register the context of a returned scroll page, an exhausted scroll is cleared right away
+     */
+    private void trackScroll(String indexName, String previousId, Scroll scroll, SearchResponse response) {
+        if (null == response || null == response.getScrollId()) {
+            return;
+        }
+        if (response.getHits().getHits().length == 0) {
+            scrollRegistry.release(previousId);
+            scrollRegistry.clear(response.getScrollId());
+        } else {
+            scrollRegistry.touch(StrUtil.isNotBlank(previousId) ? previousId : null, response.getScrollId(),
+                    indexName, scroll.keepAlive().millis());
+        }
+    }
+
+    private Map<String, Object> buildScrollPage(SearchResponse searchResponse, SearchSourceBuilder sourceBuilder, Function<SearchHit, ?> mapper) {
+        Map<String, Object> result = new HashMap<>();
+        List<Object> items = this.buildResponse(searchResponse, mapper);
+
+        Long total = putTotal(result, searchResponse, sourceBuilder.size(), -1);
+
+        if(null != total && total>0){
+            result.put("totalPage",   (int)Math.ceil((double) total/sourceBuilder.size()));
+        }else if (null != total){
             result.put("totalPage",  0);
         }
         result.put("items", items);
@@ -367,15 +916,150 @@ public class SearchOps {
      * @param scrollId
      */
     public void clearScroll(String scrollId) {
+        scrollRegistry.release(scrollId);
         ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
         clearScrollRequest.addScrollId(scrollId);
         try {
-            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+            executor.execute(EsOperation.CLEAR_SCROLL, null, options -> client.clearScroll(clearScrollRequest, options));
         } catch (IOException e) {
             log.error("ES clear Scroll exception: {}", e.getMessage());
         }
     }
 
+    /***
+     * clear Scroll asynchronously
+     * @param scrollId
+     * @return
+     */
+    public CompletableFuture<Boolean> clearScrollAsync(String scrollId) {
+        scrollRegistry.release(scrollId);
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        return executor.<ClearScrollResponse>executeAsync(EsOperation.CLEAR_SCROLL, null, (options, listener) -> client.clearScrollAsync(clearScrollRequest, options, listener))
+                .thenApply(ClearScrollResponse::isSucceeded);
+    }
+
+    /***
+     * export every hit of the query with a sliced scroll, up to scroll.export-threads slices at once;
+     * all scroll contexts are cleared and every worker has stopped before this returns or throws
+     * @param indexName
+     * @param sourceBuilder page size is taken from sourceBuilder.size()
+     * @param slices number of slices, null or 0 uses the primary shard count of the index
+     * @param minutes scroll keep alive between pages
+     * @param sink receives pages concurrently from all slices
+     * @return number of exported hits
+     * @throws IOException
+     */
+    public Long sliceExport(String indexName, SearchSourceBuilder sourceBuilder, Integer slices, Integer minutes, HitSink sink) throws IOException {
+        int max = (null == slices || slices <= 0) ? primaryShards(indexName) : slices;
+        Scroll scroll = new Scroll(TimeValue.timeValueMinutes(minutes));
+        if (max == 1) {
+            return exportSlice(indexName, sourceBuilder, 0, scroll, sink, new AtomicBoolean());
+        }
+
+        int threads = Math.min(max, Math.max(1, properties.getScroll().getExportThreads()));
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "es-slice-export-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<Long>> futures = new ArrayList<>(max);
+        try {
+            for (int id = 0; id < max; id++) {
+                SearchSourceBuilder sliceSource = sourceBuilder.copyWithNewSlice(new SliceBuilder(id, max));
+                int slice = id;
+                futures.add(workers.submit(() -> exportSlice(indexName, sliceSource, slice, scroll, sink, aborted)));
+            }
+            long total = 0;
+            for (Future<Long> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } catch (ExecutionException e) {
+            aborted.set(true);
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("slice export failed", cause);
+        } catch (InterruptedException e) {
+            aborted.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("slice export interrupted");
+        } finally {
+            stopExport(workers, futures);
+        }
+    }
+
+    /***
+     * drop slices not started yet and wait for running ones, which stop after their current page
+     * once aborted and clear their scroll, so the sink is no longer written when the export returns
+     */
+    private void stopExport(ExecutorService workers, List<Future<Long>> futures) {
+        for (Future<Long> future : futures) {
+            future.cancel(false);
+        }
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.debug("waiting for running export slices to stop");
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /***
+     * drive one slice to the end, stops early once another slice has failed
+     */
+    private long exportSlice(String indexName, SearchSourceBuilder sourceBuilder, int slice, Scroll scroll,
+                             HitSink sink, AtomicBoolean aborted) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(indexName);
+        searchRequest.source(sourceBuilder);
+        searchRequest.scroll(scroll);
+
+        String scrollId = null;
+        long exported = 0;
+        try {
+            SearchResponse response = executor.execute(EsOperation.OPEN_SCROLL, indexName, options -> client.search(searchRequest, options));
+            scrollId = response.getScrollId();
+            scrollRegistry.touch(null, scrollId, indexName, scroll.keepAlive().millis());
+            while (response.getHits().getHits().length > 0 && !aborted.get()) {
+                sink.accept(slice, response.getHits().getHits());
+                exported += response.getHits().getHits().length;
+
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(scroll);
+                response = executor.execute(EsOperation.SCROLL, indexName, options -> client.scroll(scrollRequest, options));
+                scrollRegistry.touch(scrollId, response.getScrollId(), indexName, scroll.keepAlive().millis());
+                scrollId = response.getScrollId();
+            }
+        } catch (IOException | RuntimeException e) {
+            aborted.set(true);
+            throw e;
+        } finally {
+            if (null != scrollId) {
+                clearScroll(scrollId);
+            }
+        }
+        log.debug("slice {} of {} exported {} hits", slice, indexName, exported);
+        return exported;
+    }
+
+    /***
+     * primary shard count of the index, the largest one when the name resolves to several indices
+     */
+    private int primaryShards(String indexName) throws IOException {
+        GetSettingsRequest request = new GetSettingsRequest().indices(indexName).names("index.number_of_shards");
+        GetSettingsResponse response = executor.execute(EsOperation.GET_SETTINGS, indexName, options -> client.indices().getSettings(request, options));
+        int shards = 1;
+        Iterator<Settings> settings = response.getIndexToSettings().valuesIt();
+        while (settings.hasNext()) {
+            shards = Math.max(shards, settings.next().getAsInt("index.number_of_shards", 1));
+        }
+        return shards;
+    }
+
     /***
      * check searchResponse is not null
      * @param searchResponse
@@ -385,22 +1069,52 @@ public class SearchOps {
         return !Objects.isNull(searchResponse)
                 && !Objects.isNull(searchResponse.getHits())
                 && !Objects.isNull(searchResponse.getHits().getHits())
-                && searchResponse.getHits().getHits().length > 0
-                && searchResponse.getHits().getTotalHits().value > 0;
+                && searchResponse.getHits().getHits().length > 0;
+    }
+
+    /***
+     * put total and its relation (eq, or gte when counting stopped at the threshold) when hits are tracked,
+     * hasMore is always set, terminatedEarly when terminate_after kicked in.
+     * With an exact total and a known offset hasMore is offset + hits < total, otherwise it guesses from a full page
+     * @param page
+     * @param response
+     * @param size
+     * @param offset hits before this page, -1 when unknown (scroll and search_after pages after the first)
+     * @return total, null when hits are not tracked
+     */
+    static Long putTotal(Map<String, Object> page, SearchResponse response, int size, long offset) {
+        TotalHits totalHits = response.getHits().getTotalHits();
+        int hits = response.getHits().getHits().length;
+        if (Boolean.TRUE.equals(response.isTerminatedEarly())) {
+            page.put("terminatedEarly", true);
+        }
+        if (null == totalHits) {
+            page.put("hasMore", size > 0 && hits >= size);
+            return null;
+        }
+        page.put("total", totalHits.value);
+        page.put("totalRelation", totalHits.relation == TotalHits.Relation.EQUAL_TO ? "eq" : "gte");
+        if (totalHits.relation == TotalHits.Relation.EQUAL_TO && offset >= 0) {
+            page.put("hasMore", offset + hits < totalHits.value);
+        } else {
+            page.put("hasMore", size > 0 && hits >= size);
+        }
+        return totalHits.value;
     }
 
     /***
      * build response data
      * @param searchResponse
+     * @param mapper converts each hit into an item
      * @return
      */
-    private List<Map<String, Object>> buildResponse(SearchResponse searchResponse) {
-        List<Map<String, Object>> items = new ArrayList<>();
+    private List<Object> buildResponse(SearchResponse searchResponse, Function<SearchHit, ?> mapper) {
+        List<Object> items = new ArrayList<>();
 
         if (searchResponseIsNotNull(searchResponse)) {
             SearchHit[] hits = searchResponse.getHits().getHits();
             Arrays.asList(hits).forEach(item -> {
-                items.add(item.getSourceAsMap());
+                items.add(mapper.apply(item));
             });
         }
 
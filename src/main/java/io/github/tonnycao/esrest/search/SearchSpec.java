@@ -0,0 +1,56 @@
+package io.github.tonnycao.esrest.search;
+
+import lombok.Data;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+/**
+ * One query of a multi search: the same index, query and paging arguments as {@link SearchOps#fetch}.
+ */
+@Data
+public class SearchSpec {
+
+    private String index;
+
+    private SearchSourceBuilder searchSourceBuilder;
+
+    private Integer size;
+
+    private Integer from;
+
+    private String orderBy;
+
+    private String order;
+
+    private String unmappedType;
+
+    /***
+     * unsorted page of the query
+     * @param index
+     * @param searchSourceBuilder
+     * @param size
+     * @param from
+     * @return
+     */
+    public static SearchSpec of(String index, SearchSourceBuilder searchSourceBuilder, Integer size, Integer from) {
+        SearchSpec spec = new SearchSpec();
+        spec.index = index;
+        spec.searchSourceBuilder = searchSourceBuilder;
+        spec.size = size;
+        spec.from = from;
+        return spec;
+    }
+
+    /***
+     * sort the page by one field
+     * @param orderBy
+     * @param order asc or desc
+     * @param unmappedType type assumed by indices that do not map the field
+     * @return
+     */
+    public SearchSpec sort(String orderBy, String order, String unmappedType) {
+        this.orderBy = orderBy;
+        this.order = order;
+        this.unmappedType = unmappedType;
+        return this;
+    }
+}
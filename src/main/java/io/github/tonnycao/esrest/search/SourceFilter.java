@@ -0,0 +1,152 @@
+package io.github.tonnycao.esrest.search;
+
+import lombok.Getter;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.lookup.SourceLookup;
+
+import java.util.*;
+
+/**
+ * Field projection for fetch, searchAfter, scrollSearch and getDoc: _source includes/excludes,
+ * docvalue_fields, stored_fields, or no _source at all.
+ */
+@Getter
+public class SourceFilter {
+
+    private boolean fetchSource = true;
+
+    private String[] includes = Strings.EMPTY_ARRAY;
+
+    private String[] excludes = Strings.EMPTY_ARRAY;
+
+    private final List<String> docValueFields = new ArrayList<>();
+
+    private final List<String> storedFields = new ArrayList<>();
+
+    /***
+     * only return these _source fields, wildcards allowed
+     * @param fields
+     * @return
+     */
+    public static SourceFilter include(String... fields) {
+        SourceFilter filter = new SourceFilter();
+        filter.includes = fields;
+        return filter;
+    }
+
+    /***
+     * return _source without these fields, wildcards allowed
+     * @param fields
+     * @return
+     */
+    public static SourceFilter exclude(String... fields) {
+        SourceFilter filter = new SourceFilter();
+        filter.excludes = fields;
+        return filter;
+    }
+
+    /***
+     * do not load _source, combine with docValueFields or storedFields
+     * @return
+     */
+    public static SourceFilter noSource() {
+        SourceFilter filter = new SourceFilter();
+        filter.fetchSource = false;
+        return filter;
+    }
+
+    public SourceFilter excluding(String... fields) {
+        this.excludes = fields;
+        return this;
+    }
+
+    /***
+     * also read these fields from doc values, search requests only
+     * @param fields
+     * @return
+     */
+    public SourceFilter docValueFields(String... fields) {
+        docValueFields.addAll(Arrays.asList(fields));
+        return this;
+    }
+
+    /***
+     * also read these stored fields
+     * @param fields
+     * @return
+     */
+    public SourceFilter storedFields(String... fields) {
+        storedFields.addAll(Arrays.asList(fields));
+        return this;
+    }
+
+    /***
+     * apply the projection to a search; applying it again to the same builder, as the paging loops do, adds nothing
+     * @param builder
+     */
+    public void applyTo(SearchSourceBuilder builder) {
+        builder.fetchSource(toFetchSourceContext());
+        Set<String> present = new HashSet<>();
+        if (null != builder.docValueFields()) {
+            builder.docValueFields().forEach(field -> present.add(field.field));
+        }
+        for (String field : docValueFields) {
+            if (present.add(field)) {
+                builder.docValueField(field);
+            }
+        }
+        // storedFields appends to the builder's list, which keeps the list it was first given
+        List<String> missing = new ArrayList<>(storedFields);
+        if (null != builder.storedFields() && null != builder.storedFields().fieldNames()) {
+            missing.removeAll(builder.storedFields().fieldNames());
+        }
+        if (!missing.isEmpty()) {
+            builder.storedFields(missing);
+        }
+    }
+
+    public FetchSourceContext toFetchSourceContext() {
+        return fetchSource ? new FetchSourceContext(true, includes, excludes) : FetchSourceContext.DO_NOT_FETCH_SOURCE;
+    }
+
+    /***
+     * build the item of one hit: the filtered source plus any docvalue or stored fields,
+     * single valued fields are unwrapped
+     * @param hit
+     * @return
+     */
+    public Map<String, Object> toItem(SearchHit hit) {
+        // 命中可能来自结果缓存, 每次解析出新的 map 而不是修改 hit 内部缓存的 map
+        Map<String, Object> item = hit.hasSource() ? SourceLookup.sourceAsMap(hit.getSourceRef()) : new HashMap<>();
+        return withFields(item, hit.getFields());
+    }
+
+    /***
+     * build the item of one get response, see {@link #toItem(SearchHit)}
+     * @param response
+     * @return null when the doc does not exist
+     */
+    public Map<String, Object> toItem(GetResponse response) {
+        if (!response.isExists()) {
+            return null;
+        }
+        Map<String, Object> item = response.isSourceEmpty() ? new HashMap<>() : response.getSourceAsMap();
+        return withFields(item, response.getFields());
+    }
+
+    private static Map<String, Object> withFields(Map<String, Object> item, Map<String, DocumentField> fields) {
+        if (null == fields) {
+            return item;
+        }
+        for (DocumentField field : fields.values()) {
+            List<Object> values = field.getValues();
+            item.put(field.getName(), values.size() == 1 ? values.get(0) : values);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fails calls fast while the cluster is overloaded, one breaker per client.
+ * <p>
+ * Closed, it keeps the outcome of the last {@code window-size} calls and opens once at least
+ * {@code minimum-calls} are recorded and the share of overload failures reaches {@code failure-rate-threshold}.
+ * Open, calls throw {@link CircuitOpenException} without reaching the cluster for {@code open-millis}. Then it
+ * is half open: {@code half-open-calls} trial calls go through, it closes when all of them succeed and opens
+ * again on the first overload failure. Client errors such as 404 or a bad query count as successes, the cluster
+ * answered them.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final ElasticsearchProperties.Breaker settings;
+
+    /** true for an overload failure, a ring over the last calls */
+    private final boolean[] window;
+
+    private int position;
+
+    private int recorded;
+
+    private int failures;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int trials;
+
+    private int trialsSucceeded;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(ElasticsearchProperties.Breaker settings) {
+        this.settings = settings;
+        this.window = new boolean[Math.max(1, settings.getWindowSize())];
+    }
+
+    /***
+     * whether a call may go to the cluster now; every permitted call must be followed by {@link #record(boolean)}
+     * @return
+     */
+    public synchronized boolean tryAcquire() {
+        if (!settings.isEnabled()) {
+            return true;
+        }
+        if (State.OPEN == state) {
+            if (System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(settings.getOpenMillis())) {
+                rejected.increment();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trials = 0;
+            trialsSucceeded = 0;
+            log.info("circuit breaker half open, letting {} trial calls through", settings.getHalfOpenCalls());
+        }
+        if (State.HALF_OPEN == state) {
+            if (trials >= settings.getHalfOpenCalls()) {
+                rejected.increment();
+                return false;
+            }
+            trials++;
+        }
+        return true;
+    }
+
+    /***
+     * outcome of a permitted call
+     * @param overload the call failed in a way that says the cluster is saturated or unreachable
+     */
+    public synchronized void record(boolean overload) {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        switch (state) {
+            case HALF_OPEN:
+                if (overload) {
+                    open("a trial call failed");
+                } else if (++trialsSucceeded >= settings.getHalfOpenCalls()) {
+                    close();
+                }
+                break;
+            case CLOSED:
+                if (recorded == window.length) {
+                    failures -= window[position] ? 1 : 0;
+                } else {
+                    recorded++;
+                }
+                window[position] = overload;
+                failures += overload ? 1 : 0;
+                position = (position + 1) % window.length;
+                if (recorded >= settings.getMinimumCalls() && failures >= settings.getFailureRateThreshold() * recorded) {
+                    open(failures + " of the last " + recorded + " calls failed");
+                }
+                break;
+            default:
+                // calls started before the breaker opened
+        }
+    }
+
+    public synchronized State getState() {
+        if (State.OPEN == state && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(settings.getOpenMillis())) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /***
+     * calls failed fast
+     * @return
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        log.warn("circuit breaker open for {}ms: {}", settings.getOpenMillis(), reason);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        position = 0;
+        recorded = 0;
+        failures = 0;
+        log.info("circuit breaker closed");
+    }
+}
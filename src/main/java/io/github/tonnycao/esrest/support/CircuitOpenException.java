@@ -0,0 +1,13 @@
+package io.github.tonnycao.esrest.support;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the cluster while the {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.tonnycao.esrest.support;
+
+/**
+ * Elasticsearch APIs called by the starter, used as the "operation" tag of metrics and logs.
+ */
+public enum EsOperation {
+
+    INDEX("index", false),
+    GET("get", true),
+    MGET("mget", true),
+    EXISTS("exists", true),
+    UPDATE("update", false),
+    DELETE("delete", true),
+    BULK("bulk", false),
+    SEARCH("search", true),
+    MSEARCH("msearch", true),
+    COUNT("count", true),
+    SCROLL("scroll", false),
+    OPEN_SCROLL("open_scroll", false),
+    CLEAR_SCROLL("clear_scroll", true),
+    CREATE_INDEX("create_index", false),
+    DELETE_INDEX("delete_index", true),
+    INDEX_EXISTS("index_exists", true),
+    GET_INDEX("get_index", true),
+    GET_SETTINGS("get_settings", true),
+    PUT_MAPPING("put_mapping", true),
+    UPDATE_ALIASES("update_aliases", true),
+    ALIAS_EXISTS("alias_exists", true),
+    PUT_TEMPLATE("put_template", true),
+    GET_TEMPLATE("get_template", true),
+    DELETE_TEMPLATE("delete_template", true),
+    TEMPLATE_EXISTS("template_exists", true);
+
+    private final String value;
+
+    private final boolean idempotent;
+
+    EsOperation(String value, boolean idempotent) {
+        this.value = value;
+        this.idempotent = idempotent;
+    }
+
+    /***
+     * tag value
+     * @return
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /***
+     * whether sending the request twice has the same effect as sending it once, e.g. after a timeout
+     * whose outcome is unknown; scroll advances the cursor, a search opening a scroll leaves a context per
+     * request sent, and index/update/bulk may apply twice
+     * @return
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a duplicate of a slow call is sent to another host.
+ * <p>
+ * Only idempotent operations listed in {@code hedging.operations} are hedged. The delay is the
+ * {@code hedging.percentile} of the last latencies of the operation, so about 1 - percentile of the calls
+ * get a duplicate; duplicates also draw from a budget earned at {@code hedging.budget-ratio} per call, so a
+ * cluster that is slow everywhere is not sent twice the traffic.
+ */
+public class HedgingPolicy {
+
+    private static final int WINDOW = 1024;
+
+    /** latencies recorded between two sorts of the window */
+    private static final int RESORT_EVERY = 64;
+
+    /** duplicates that can be saved up for a burst of slow calls */
+    private static final int BURST = 10;
+
+    private final ElasticsearchProperties.Hedging settings;
+
+    private final Map<EsOperation, Window> windows = new EnumMap<>(EsOperation.class);
+
+    private double budget;
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder wins = new LongAdder();
+
+    public HedgingPolicy(ElasticsearchProperties.Hedging settings) {
+        this.settings = settings;
+        for (EsOperation operation : EsOperation.values()) {
+            if (operation.isIdempotent() && settings.getOperations().contains(operation.getValue())) {
+                windows.put(operation, new Window());
+            }
+        }
+    }
+
+    /***
+     * whether calls of operation may be hedged
+     * @param operation
+     * @return
+     */
+    public boolean applies(EsOperation operation) {
+        return settings.isEnabled() && windows.containsKey(operation);
+    }
+
+    /***
+     * record the latency of a successful attempt
+     * @param operation
+     * @param nanos
+     */
+    public void record(EsOperation operation, long nanos) {
+        Window window = windows.get(operation);
+        if (null != window) {
+            window.add(nanos);
+        }
+    }
+
+    /***
+     * a call of a hedged operation was made, earning budget-ratio of a duplicate
+     */
+    public synchronized void called() {
+        budget = Math.min(budget + settings.getBudgetRatio(), BURST);
+    }
+
+    /***
+     * how long to wait for the first attempt before sending a duplicate
+     * @param operation
+     * @return -1 while too few latencies are known
+     */
+    public long delayMillis(EsOperation operation) {
+        Window window = windows.get(operation);
+        long nanos = null == window ? -1 : window.percentile(settings.getPercentile(), settings.getMinSamples());
+        return nanos < 0 ? -1 : Math.max(settings.getMinDelayMillis(), TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /***
+     * take a duplicate from the budget
+     * @return false when the budget is spent
+     */
+    public synchronized boolean spend() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        hedges.increment();
+        return true;
+    }
+
+    void won() {
+        wins.increment();
+    }
+
+    /***
+     * duplicates sent
+     * @return
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /***
+     * duplicates that answered before the first attempt
+     * @return
+     */
+    public long getWins() {
+        return wins.sum();
+    }
+
+    private static class Window {
+
+        private final long[] samples = new long[WINDOW];
+
+        private long count;
+
+        private long[] sorted = new long[0];
+
+        synchronized void add(long nanos) {
+            samples[(int) (count++ % WINDOW)] = nanos;
+            if (count % RESORT_EVERY == 0) {
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW));
+                Arrays.sort(sorted);
+            }
+        }
+
+        synchronized long percentile(double percentile, int minSamples) {
+            if (sorted.length == 0 || sorted.length < minSamples) {
+                return -1;
+            }
+            int rank = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.tonnycao.esrest.support;
+
+import org.elasticsearch.client.RequestOptions;
+
+import java.io.IOException;
+
+/**
+ * A blocking client call, e.g. {@code options -> client.search(request, options)}.
+ */
+@FunctionalInterface
+public interface IoCall<R> {
+
+    /***
+     * @param options request options to send the request with, carrying the X-Opaque-Id of the operation when it is traced
+     * @return the response
+     * @throws IOException
+     */
+    R call(RequestOptions options) throws IOException;
+}
@@ -0,0 +1,267 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends each request to the living host with the lowest load, latency times (requests in flight + 1).
+ * <p>
+ * The latency of a host is a peak EWMA of its response times, measured by the http client interceptors from
+ * the request being written until the response head arrives: a slower response raises it at once, faster
+ * ones lower it gradually, and it decays towards zero while the host gets no traffic so a host that was slow
+ * is tried again later. A request that gets no response within {@code stale-millis} counts as that slow.
+ * <p>
+ * The low level client rotates over whatever the selector leaves, so all but the chosen host are removed,
+ * and with them the low level client's own failover to the next host. A failed host is still marked dead,
+ * but only calls {@link OperationExecutor} retries reach another one; it is installed only while retry is on.
+ */
+@Component
+public class LatencyAwareNodeSelector implements NodeSelector, HttpRequestInterceptor, HttpResponseInterceptor, MeterBinder {
+
+    private static final String CALL = LatencyAwareNodeSelector.class.getName() + ".call";
+
+    /** latency below which hosts only differ by their requests in flight */
+    private static final long FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private final ConcurrentHashMap<HttpHost, Stats> stats = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<HttpHost> selected = new ThreadLocal<>();
+
+    private final ThreadLocal<HttpHost> excluded = new ThreadLocal<>();
+
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    private volatile MeterRegistry registry;
+
+    /***
+     * whether the client routes through this selector: node-selection.enabled, and retry.enabled since a pinned
+     * request no longer fails over to another host on its own
+     * @return
+     */
+    public boolean isActive() {
+        return properties.getNodeSelection().isEnabled() && properties.getRetry().isEnabled();
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        sweep();
+        long now = System.nanoTime();
+        HttpHost skip = excluded.get();
+        Node best = null;
+        double bestLoad = Double.MAX_VALUE;
+        int ties = 0;
+        for (Node node : nodes) {
+            if (node.getHost().equals(skip)) {
+                continue;
+            }
+            double load = stats(node.getHost()).load(now);
+            if (load < bestLoad) {
+                best = node;
+                bestLoad = load;
+                ties = 1;
+            } else if (load == bestLoad && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                best = node;
+            }
+        }
+        if (null == best) {
+            // only the excluded host is alive
+            return;
+        }
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            if (iterator.next() != best) {
+                iterator.remove();
+            }
+        }
+        selected.set(best.getHost());
+    }
+
+    /***
+     * host chosen by the last selection on this thread, cleared by reading it
+     * @return null when nothing was selected since the last read
+     */
+    HttpHost takeSelected() {
+        HttpHost host = selected.get();
+        selected.remove();
+        return host;
+    }
+
+    /***
+     * run a call that must avoid host unless it is the only one alive; requests are selected on the calling thread
+     * @param host
+     * @param call
+     */
+    void excluding(HttpHost host, Runnable call) {
+        excluded.set(host);
+        try {
+            call.run();
+        } finally {
+            excluded.remove();
+        }
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+        if (null != host) {
+            context.setAttribute(CALL, stats(host).start());
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object call = context.getAttribute(CALL);
+        if (call instanceof Call) {
+            ((Call) call).finish(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        stats.forEach((host, node) -> node.register(registry));
+    }
+
+    @Override
+    public String toString() {
+        return "LATENCY_AWARE";
+    }
+
+    private Stats stats(HttpHost host) {
+        Stats node = stats.get(host);
+        if (null == node) {
+            node = stats.computeIfAbsent(host, Stats::new);
+            MeterRegistry meters = registry;
+            if (null != meters) {
+                node.register(meters);
+            }
+        }
+        return node;
+    }
+
+    /***
+     * finish requests that never got a response, at most once a second
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < TimeUnit.SECONDS.toNanos(1) || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        long stale = TimeUnit.MILLISECONDS.toNanos(properties.getNodeSelection().getStaleMillis());
+        for (Stats node : stats.values()) {
+            for (Call call : node.calls) {
+                if (now - call.startNanos > stale) {
+                    call.finish(now);
+                }
+            }
+        }
+    }
+
+    private class Stats {
+
+        private final HttpHost host;
+
+        private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private double latencyNanos;
+
+        private long updatedNanos = System.nanoTime();
+
+        Stats(HttpHost host) {
+            this.host = host;
+        }
+
+        Call start() {
+            Call call = new Call(this, System.nanoTime());
+            calls.add(call);
+            inFlight.incrementAndGet();
+            return call;
+        }
+
+        void finish(Call call, long now) {
+            calls.remove(call);
+            inFlight.decrementAndGet();
+            sample(now - call.startNanos, now);
+        }
+
+        synchronized void sample(long nanos, long now) {
+            double decayed = decayed(now);
+            latencyNanos = nanos > decayed ? nanos : decayed + (nanos - decayed) * (1 - weight(now));
+            updatedNanos = now;
+        }
+
+        synchronized double latency(long now) {
+            return decayed(now);
+        }
+
+        double load(long now) {
+            return Math.max(latency(now), FLOOR_NANOS) * (inFlight.get() + 1);
+        }
+
+        private double decayed(long now) {
+            return latencyNanos * weight(now);
+        }
+
+        /** share of the current average kept after the time since the last update */
+        private double weight(long now) {
+            double tau = TimeUnit.MILLISECONDS.toNanos(properties.getNodeSelection().getDecayMillis());
+            return Math.exp(-Math.max(0, now - updatedNanos) / tau);
+        }
+
+        void register(MeterRegistry meters) {
+            String node = host.toHostString();
+            Gauge.builder("es.client.node.latency", this, s -> s.latency(System.nanoTime()) / 1e9)
+                    .description("decaying peak average of response times of the host").baseUnit("seconds")
+                    .tag("node", node).register(meters);
+            Gauge.builder("es.client.node.in.flight", inFlight, AtomicInteger::get)
+                    .description("requests sent to the host and not answered yet").tag("node", node).register(meters);
+        }
+    }
+
+    private static class Call {
+
+        private final Stats node;
+
+        private final long startNanos;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Call(Stats node, long startNanos) {
+            this.node = node;
+            this.startNanos = startNanos;
+        }
+
+        void finish(long now) {
+            if (finished.compareAndSet(false, true)) {
+                node.finish(this, now);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.utils.ActionFutures;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.RequestOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Single path every Elasticsearch call of the starter goes through, timing it and notifying
+ * the {@link OperationListener}s with its outcome.
+ * <p>
+ * Calls pass the {@link CircuitBreaker} of the cluster first and failed attempts are retried as the
+ * {@link RetryPolicy} allows, both only once enabled by {@code circuit-breaker.enabled} and {@code retry.enabled};
+ * listeners are notified once per attempt. Async calls of hedged operations get a
+ * duplicate sent to another host when the first attempt is slower than the {@link HedgingPolicy} delay, the
+ * first answer wins.
+ */
+@Slf4j
+@Component
+public class OperationExecutor implements SmartInitializingSingleton {
+
+    @Autowired
+    private ObjectProvider<OperationListener> listenerProvider;
+
+    @Autowired
+    private RequestTracker tracker;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private LatencyAwareNodeSelector nodeSelector;
+
+    private volatile List<OperationListener> listeners = Collections.emptyList();
+
+    private RetryPolicy retryPolicy;
+
+    private CircuitBreaker circuitBreaker;
+
+    private HedgingPolicy hedgingPolicy;
+
+    @PostConstruct
+    public void init() {
+        retryPolicy = new RetryPolicy(properties.getRetry());
+        circuitBreaker = new CircuitBreaker(properties.getCircuitBreaker());
+        ElasticsearchProperties.Hedging hedging = properties.getHedging();
+        if (hedging.isEnabled() && !nodeSelector.isActive()) {
+            // 没有节点选择时副本按轮询发送，可能落在同一个慢节点上
+            log.warn("hedging needs node-selection.enabled and retry.enabled to send duplicates to another host, hedging is off");
+            hedging = new ElasticsearchProperties.Hedging();
+        }
+        hedgingPolicy = new HedgingPolicy(hedging);
+    }
+
+    /***
+     * listeners are looked up once every singleton exists, they may depend on beans that use this executor
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        listeners = listenerProvider.orderedStream().collect(Collectors.toList());
+    }
+
+    /***
+     * execute a blocking call
+     * @param operation
+     * @param index
+     * @param call e.g. {@code options -> client.search(request, options)}, invoked again on retries
+     * @return the response of the call
+     * @throws IOException the failure of the last attempt, CircuitOpenException while the breaker is open
+     */
+    public <R> R execute(EsOperation operation, String index, IoCall<R> call) throws IOException {
+        retryPolicy.called();
+        for (int retry = 0; ; retry++) {
+            acquire(operation, index);
+            OperationTrace trace = new OperationTrace(operation, index);
+            RequestOptions options = tracker.start(trace);
+            try {
+                R response = call.call(options);
+                complete(trace, response, null);
+                return response;
+            } catch (IOException | RuntimeException e) {
+                complete(trace, null, e);
+                long delay = retryPolicy.delayMillis(operation, retry, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                log.debug("retrying {} on [{}] in {}ms after {}", operation.getValue(), index, delay, e.toString());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while backing off " + operation.getValue());
+                }
+            }
+        }
+    }
+
+    /***
+     * execute an async call
+     * @param operation
+     * @param index
+     * @param call e.g. {@code (options, listener) -> client.searchAsync(request, options, listener)}, invoked again on retries
+     * @return future completed with the response, or exceptionally with the failure of the last attempt
+     */
+    public <R> CompletableFuture<R> executeAsync(EsOperation operation, String index, BiConsumer<RequestOptions, ActionListener<R>> call) {
+        retryPolicy.called();
+        CompletableFuture<R> first = new CompletableFuture<>();
+        if (!hedgingPolicy.applies(operation)) {
+            attempt(operation, index, call, 0, true, first);
+            return first;
+        }
+        hedgingPolicy.called();
+        nodeSelector.takeSelected();
+        attempt(operation, index, call, 0, true, first);
+        HttpHost firstHost = nodeSelector.takeSelected();
+        long delay = hedgingPolicy.delayMillis(operation);
+        return delay < 0 || first.isDone() ? first : hedge(operation, index, call, first, firstHost, delay);
+    }
+
+    /***
+     * whether async calls of operation may be hedged, blocking callers that want hedging wait on executeAsync
+     * @param operation
+     * @return
+     */
+    public boolean isHedged(EsOperation operation) {
+        return hedgingPolicy.applies(operation);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /***
+     * complete with the first answer of first or a duplicate sent to another host after delayMillis,
+     * fail only when every attempt sent failed
+     */
+    private <R> CompletableFuture<R> hedge(EsOperation operation, String index, BiConsumer<RequestOptions, ActionListener<R>> call,
+                                           CompletableFuture<R> first, HttpHost firstHost, long delayMillis) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        first.whenComplete((response, e) -> {
+            if (null == e) {
+                result.complete(response);
+            } else if (0 == running.decrementAndGet()) {
+                result.completeExceptionally(e);
+            }
+        });
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (result.isDone() || CircuitBreaker.State.CLOSED != circuitBreaker.getState() || !hedgingPolicy.spend()) {
+                return;
+            }
+            running.incrementAndGet();
+            log.debug("hedging {} on [{}] after {}ms, first sent to {}", operation.getValue(), index, delayMillis, firstHost);
+            CompletableFuture<R> duplicate = new CompletableFuture<>();
+            duplicate.whenComplete((response, e) -> {
+                if (null == e) {
+                    if (result.complete(response)) {
+                        hedgingPolicy.won();
+                    }
+                } else if (0 == running.decrementAndGet()) {
+                    result.completeExceptionally(e);
+                }
+            });
+            nodeSelector.excluding(firstHost, () -> attempt(operation, index, call, 0, false, duplicate));
+        });
+        return result;
+    }
+
+    private <R> void attempt(EsOperation operation, String index, BiConsumer<RequestOptions, ActionListener<R>> call,
+                             int retry, boolean retryable, CompletableFuture<R> result) {
+        try {
+            acquire(operation, index);
+        } catch (CircuitOpenException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        OperationTrace trace = new OperationTrace(operation, index);
+        RequestOptions options = tracker.start(trace);
+        ActionFutures.<R>execute(listener -> call.accept(options, listener)).whenComplete((response, e) -> {
+            complete(trace, response, e);
+            if (null == e) {
+                result.complete(response);
+                return;
+            }
+            long delay = retryable ? retryPolicy.delayMillis(operation, retry, e) : -1;
+            if (delay < 0) {
+                result.completeExceptionally(e);
+                return;
+            }
+            log.debug("retrying {} on [{}] in {}ms after {}", operation.getValue(), index, delay, e.toString());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(operation, index, call, retry + 1, true, result));
+        });
+    }
+
+    private void acquire(EsOperation operation, String index) throws CircuitOpenException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new CircuitOpenException("circuit breaker open, " + operation.getValue() + " on [" + index + "] not sent");
+        }
+    }
+
+    private void complete(OperationTrace trace, Object response, Throwable failure) {
+        tracker.finish(trace);
+        Throwable cause = null == failure ? null : RetryPolicy.unwrap(failure);
+        circuitBreaker.record(null != cause && (RetryPolicy.notExecuted(cause) || RetryPolicy.outcomeUnknown(cause)));
+        if (null == failure) {
+            hedgingPolicy.record(trace.getOperation(), trace.getNanos());
+        }
+        for (OperationListener listener : listeners) {
+            try {
+                listener.onOperation(trace, response, failure);
+            } catch (RuntimeException e) {
+                log.warn("operation listener {} failed: {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.tonnycao.esrest.support;
+
+/**
+ * Notified by {@link OperationExecutor} after every Elasticsearch call; beans implementing it are picked up automatically.
+ * Runs on the calling or the io reactor thread, so implementations must be cheap and must not block.
+ */
+public interface OperationListener {
+
+    /***
+     * @param trace operation, index and timings of the call
+     * @param response parsed response, null on failure
+     * @param failure null on success
+     */
+    void onOperation(OperationTrace trace, Object response, Throwable failure);
+}
@@ -0,0 +1,137 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.search.ScrollRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every call made through {@link OperationExecutor} in the application's {@link MeterRegistry}:
+ * <ul>
+ *     <li>{@code es.client.requests} client wall time, tagged operation, index and outcome</li>
+ *     <li>{@code es.client.took} server side took of search, msearch and bulk responses, tagged operation and index</li>
+ *     <li>{@code es.bulk.items} bulk items tagged index and outcome, {@code es.bulk.failures} failed items tagged index and status</li>
+ *     <li>{@code es.client.pool.*} leased, pending, available and max connections of the http pool</li>
+ *     <li>{@code es.scroll.open} scroll contexts opened through the starter and not cleared yet,
+ *     {@code es.scroll.oldest.age} age of the oldest of them</li>
+ *     <li>{@code es.client.retries} attempts sent again, {@code es.client.retries.exhausted} retryable failures given up
+ *     because the retry budget was spent</li>
+ *     <li>{@code es.client.circuit.state} 0 closed, 1 half open, 2 open; {@code es.client.circuit.rejected} calls failed fast</li>
+ *     <li>{@code es.client.hedges} duplicates sent to another host, {@code es.client.hedges.won} duplicates that answered first</li>
+ * </ul>
+ * Disabled with {@code elasticsearch.connection.metrics.enabled=false}.
+ */
+@Component
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+@ConditionalOnProperty(prefix = "elasticsearch.connection.metrics", name = "enabled", matchIfMissing = true)
+public class OperationMetrics implements OperationListener {
+
+    private static final String NO_INDEX = "none";
+
+    private static final String ANY_INDEX = "*";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private PoolingNHttpClientConnectionManager esConnectionManager;
+
+    @Autowired
+    private ScrollRegistry scrollRegistry;
+
+    @Autowired
+    private OperationExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("es.client.pool.leased", esConnectionManager, cm -> cm.getTotalStats().getLeased())
+                .description("connections in use by a request").register(registry);
+        Gauge.builder("es.client.pool.pending", esConnectionManager, cm -> cm.getTotalStats().getPending())
+                .description("requests waiting for a connection").register(registry);
+        Gauge.builder("es.client.pool.available", esConnectionManager, cm -> cm.getTotalStats().getAvailable())
+                .description("idle connections kept alive").register(registry);
+        Gauge.builder("es.client.pool.max", esConnectionManager, cm -> cm.getTotalStats().getMax())
+                .description("max connections of the pool").register(registry);
+        Gauge.builder("es.scroll.open", scrollRegistry, ScrollRegistry::openCount)
+                .description("scroll contexts not cleared yet").register(registry);
+        Gauge.builder("es.scroll.oldest.age", scrollRegistry, scrolls -> scrolls.oldestAgeMillis() / 1000.0)
+                .description("age of the oldest scroll context not cleared yet").baseUnit("seconds").register(registry);
+        FunctionCounter.builder("es.client.retries", executor.getRetryPolicy(), RetryPolicy::getRetries)
+                .description("attempts sent again after a retryable failure").register(registry);
+        FunctionCounter.builder("es.client.retries.exhausted", executor.getRetryPolicy(), RetryPolicy::getExhausted)
+                .description("retryable failures not retried because the retry budget was spent").register(registry);
+        Gauge.builder("es.client.circuit.state", executor.getCircuitBreaker(), breaker -> breaker.getState().ordinal())
+                .description("0 closed, 1 half open, 2 open").register(registry);
+        FunctionCounter.builder("es.client.circuit.rejected", executor.getCircuitBreaker(), CircuitBreaker::getRejected)
+                .description("calls failed fast while the circuit breaker was open").register(registry);
+        FunctionCounter.builder("es.client.hedges", executor.getHedgingPolicy(), HedgingPolicy::getHedges)
+                .description("duplicates of slow calls sent to another host").register(registry);
+        FunctionCounter.builder("es.client.hedges.won", executor.getHedgingPolicy(), HedgingPolicy::getWins)
+                .description("duplicates that answered before the first attempt").register(registry);
+    }
+
+    @Override
+    public void onOperation(OperationTrace trace, Object response, Throwable failure) {
+        String operation = trace.getOperation().getValue();
+        String indexTag = indexTag(trace.getIndex());
+        Timer.builder("es.client.requests")
+                .description("client wall time of elasticsearch calls")
+                .tags("operation", operation, "index", indexTag, "outcome", Responses.outcome(response, failure))
+                .publishPercentileHistogram(properties.getMetrics().isPercentileHistogram())
+                .register(registry)
+                .record(trace.getNanos(), TimeUnit.NANOSECONDS);
+
+        TimeValue took = Responses.took(response);
+        if (null != took) {
+            Timer.builder("es.client.took")
+                    .description("server side took of elasticsearch calls")
+                    .tags("operation", operation, "index", indexTag)
+                    .publishPercentileHistogram(properties.getMetrics().isPercentileHistogram())
+                    .register(registry)
+                    .record(took.millis(), TimeUnit.MILLISECONDS);
+        }
+        if (response instanceof BulkResponse) {
+            countItems((BulkResponse) response);
+        }
+    }
+
+    private void countItems(BulkResponse response) {
+        for (BulkItemResponse item : response.getItems()) {
+            String indexTag = indexTag(item.getIndex());
+            Counter.builder("es.bulk.items")
+                    .tags("index", indexTag, "outcome", item.isFailed() ? "failure" : "success")
+                    .register(registry)
+                    .increment();
+            if (item.isFailed()) {
+                Counter.builder("es.bulk.failures")
+                        .tags("index", indexTag, "status", String.valueOf(item.status().getStatus()))
+                        .register(registry)
+                        .increment();
+            }
+        }
+    }
+
+    private String indexTag(String index) {
+        if (!properties.getMetrics().isIndexTag()) {
+            return ANY_INDEX;
+        }
+        return null == index ? NO_INDEX : index;
+    }
+}
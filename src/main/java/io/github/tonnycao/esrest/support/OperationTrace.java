@@ -0,0 +1,122 @@
+package io.github.tonnycao.esrest.support;
+
+import org.apache.http.HttpRequest;
+
+/**
+ * Timeline of one call made through {@link OperationExecutor}.
+ * <p>
+ * Start and end are always set. The http phases are only filled in when the call is traced (see {@link RequestTracker}):
+ * sent when the request is written to a leased connection, received when the response head arrives.
+ * All times are {@link System#nanoTime()} values, unknown ones are 0.
+ */
+public class OperationTrace {
+
+    private final EsOperation operation;
+
+    private final String index;
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long sentNanos;
+
+    private volatile long receivedNanos;
+
+    private volatile int attempts;
+
+    private volatile HttpRequest httpRequest;
+
+    private volatile String opaqueId;
+
+    private long endNanos;
+
+    OperationTrace(EsOperation operation, String index) {
+        this.operation = operation;
+        this.index = index;
+    }
+
+    public EsOperation getOperation() {
+        return operation;
+    }
+
+    /***
+     * index name as passed by the caller, null for multi-index or cluster level calls
+     * @return
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /***
+     * X-Opaque-Id sent with the request, also shown in the cluster's slow log and tasks api; null when not traced
+     * @return
+     */
+    public String getOpaqueId() {
+        return opaqueId;
+    }
+
+    /***
+     * last http request sent for the call, null when not traced or when the call failed before sending
+     * @return
+     */
+    public HttpRequest getHttpRequest() {
+        return httpRequest;
+    }
+
+    /***
+     * http requests sent, more than one when the client retried on another node
+     * @return
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /***
+     * client side wall time, from the call to the parsed response
+     * @return
+     */
+    public long getNanos() {
+        return endNanos - startNanos;
+    }
+
+    /***
+     * waiting for a pooled connection, including connect and previous attempts, -1 when unknown
+     * @return
+     */
+    public long getPoolWaitNanos() {
+        return sentNanos == 0 ? -1 : sentNanos - startNanos;
+    }
+
+    /***
+     * from writing the request to receiving the response head: network and server time, -1 when unknown
+     * @return
+     */
+    public long getRequestNanos() {
+        return sentNanos == 0 || receivedNanos < sentNanos ? -1 : receivedNanos - sentNanos;
+    }
+
+    /***
+     * reading the response body and parsing it into the response object, -1 when unknown
+     * @return
+     */
+    public long getReadNanos() {
+        return receivedNanos == 0 || receivedNanos < sentNanos ? -1 : endNanos - receivedNanos;
+    }
+
+    void setOpaqueId(String opaqueId) {
+        this.opaqueId = opaqueId;
+    }
+
+    void sent(HttpRequest request) {
+        this.httpRequest = request;
+        this.sentNanos = System.nanoTime();
+        this.attempts++;
+    }
+
+    void received() {
+        this.receivedNanos = System.nanoTime();
+    }
+
+    void end() {
+        this.endNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.RequestOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows traced operations down to the http client.
+ * <p>
+ * Each traced operation is sent with its own X-Opaque-Id header; the http client interceptors registered in
+ * {@code ElasticsearchConfig} look the id up to stamp when the request left on a leased connection and when
+ * the response head came back. Tracing is on while the slow log is enabled.
+ */
+@Component
+public class RequestTracker implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    public static final String OPAQUE_ID = "X-Opaque-Id";
+
+    private static final String PREFIX = "esrest-";
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    private final ConcurrentHashMap<String, OperationTrace> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /***
+     * options to send the operation with
+     * @param trace
+     * @return RequestOptions.DEFAULT when tracing is off
+     */
+    RequestOptions start(OperationTrace trace) {
+        if (!properties.getSlowLog().isEnabled()) {
+            return RequestOptions.DEFAULT;
+        }
+        String opaqueId = PREFIX + Long.toHexString(sequence.incrementAndGet());
+        trace.setOpaqueId(opaqueId);
+        inFlight.put(opaqueId, trace);
+        return RequestOptions.DEFAULT.toBuilder().addHeader(OPAQUE_ID, opaqueId).build();
+    }
+
+    void finish(OperationTrace trace) {
+        if (null != trace.getOpaqueId()) {
+            inFlight.remove(trace.getOpaqueId());
+        }
+        trace.end();
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        OperationTrace trace = lookup(request);
+        if (null != trace) {
+            trace.sent(request);
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        OperationTrace trace = lookup(HttpCoreContext.adapt(context).getRequest());
+        if (null != trace) {
+            trace.received();
+        }
+    }
+
+    private OperationTrace lookup(HttpRequest request) {
+        if (null == request || inFlight.isEmpty()) {
+            return null;
+        }
+        Header header = request.getFirstHeader(OPAQUE_ID);
+        return null == header ? null : inFlight.get(header.getValue());
+    }
+}
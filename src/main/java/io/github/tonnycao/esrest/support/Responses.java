@@ -0,0 +1,65 @@
+package io.github.tonnycao.esrest.support;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * What the operation listeners read from the untyped responses and failures of the client.
+ */
+final class Responses {
+
+    private Responses() {
+    }
+
+    /***
+     * success, partial (timed out or some shards failed), client_error, server_error, timeout or error
+     */
+    static String outcome(Object response, Throwable failure) {
+        if (null == failure) {
+            if (response instanceof SearchResponse) {
+                SearchResponse search = (SearchResponse) response;
+                if (search.isTimedOut() || search.getFailedShards() > 0) {
+                    return "partial";
+                }
+            }
+            return "success";
+        }
+        int status = 0;
+        if (failure instanceof ElasticsearchStatusException) {
+            status = ((ElasticsearchStatusException) failure).status().getStatus();
+        } else if (failure instanceof ResponseException) {
+            status = ((ResponseException) failure).getResponse().getStatusLine().getStatusCode();
+        } else if (failure instanceof SocketTimeoutException) {
+            return "timeout";
+        }
+        if (status >= 500) {
+            return "server_error";
+        }
+        if (status >= 400) {
+            return "client_error";
+        }
+        return "error";
+    }
+
+    /***
+     * server side took of search, msearch and bulk responses, null for other responses
+     */
+    static TimeValue took(Object response) {
+        if (response instanceof SearchResponse) {
+            return ((SearchResponse) response).getTook();
+        }
+        if (response instanceof BulkResponse) {
+            return ((BulkResponse) response).getTook();
+        }
+        if (response instanceof MultiSearchResponse) {
+            return ((MultiSearchResponse) response).getTook();
+        }
+        return null;
+    }
+}
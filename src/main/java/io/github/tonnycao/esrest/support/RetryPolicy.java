@@ -0,0 +1,149 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.ResponseException;
+
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a failed call is sent again and after how long.
+ * <p>
+ * Failures are retried by what they say about the request:
+ * <pre>
+ * not executed     429, connection refused: retried for every operation
+ * outcome unknown  502, 503, 504, timeouts, connection reset or closed: retried only for idempotent operations,
+ *                  see {@link EsOperation#isIdempotent()}
+ * anything else    4xx client errors, parse errors: never retried
+ * </pre>
+ * Delays use full jitter, uniform in [0, min(max-delay, initial-delay * 2^retry)), so pods failing together
+ * do not come back together. Retries also draw from a budget earned at {@code budget-ratio} per call: once
+ * the cluster fails most calls, retries stop adding to its load.
+ */
+public class RetryPolicy {
+
+    private final ElasticsearchProperties.Retry settings;
+
+    /** retries that may be spent now */
+    private double budget;
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    public RetryPolicy(ElasticsearchProperties.Retry settings) {
+        this.settings = settings;
+        this.budget = settings.getBudgetBurst();
+    }
+
+    /***
+     * delay before retrying a failed attempt
+     * @param operation
+     * @param retry retries already made for the call, 0 after the first attempt
+     * @param failure
+     * @return -1 when the call must not be retried
+     */
+    public long delayMillis(EsOperation operation, int retry, Throwable failure) {
+        if (!settings.isEnabled() || retry >= maxRetries(operation)) {
+            return -1;
+        }
+        Throwable cause = unwrap(failure);
+        if (!notExecuted(cause) && !(operation.isIdempotent() && outcomeUnknown(cause))) {
+            return -1;
+        }
+        if (!spend()) {
+            exhausted.increment();
+            return -1;
+        }
+        retries.increment();
+        long cap = Math.min(settings.getMaxDelayMillis(), settings.getInitialDelayMillis() << Math.min(retry, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap);
+    }
+
+    /***
+     * a first attempt was made, earning budget-ratio of a retry
+     */
+    public synchronized void called() {
+        budget = Math.min(budget + settings.getBudgetRatio(), settings.getBudgetBurst());
+    }
+
+    /***
+     * retries made
+     * @return
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /***
+     * retryable failures not retried because the budget was spent
+     * @return
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    private synchronized boolean spend() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    private int maxRetries(EsOperation operation) {
+        Integer max = settings.getMaxRetriesByOperation().get(operation.getValue());
+        return null == max ? settings.getMaxRetries() : max;
+    }
+
+    /***
+     * the cluster (or the node) turned the request away before executing it
+     * @param failure
+     * @return
+     */
+    static boolean notExecuted(Throwable failure) {
+        return 429 == status(failure) || failure instanceof ConnectException;
+    }
+
+    /***
+     * the request may or may not have been executed
+     * @param failure
+     * @return
+     */
+    static boolean outcomeUnknown(Throwable failure) {
+        int status = status(failure);
+        return 502 == status || 503 == status || 504 == status
+                || failure instanceof SocketTimeoutException || failure instanceof SocketException
+                || failure instanceof ConnectionClosedException || failure instanceof NoHttpResponseException;
+    }
+
+    /***
+     * http status of a failure, 0 when it has none
+     * @param failure
+     * @return
+     */
+    static int status(Throwable failure) {
+        if (failure instanceof ElasticsearchException) {
+            return ((ElasticsearchException) failure).status().getStatus();
+        }
+        if (failure instanceof ResponseException) {
+            return ((ResponseException) failure).getResponse().getStatusLine().getStatusCode();
+        }
+        return 0;
+    }
+
+    static Throwable unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && null != cause.getCause()) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
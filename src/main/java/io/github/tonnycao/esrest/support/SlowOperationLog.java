@@ -0,0 +1,192 @@
+package io.github.tonnycao.esrest.support;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Logs operations slower than {@code slow-log.threshold-millis} to the {@code io.github.tonnycao.esrest.slowlog} logger,
+ * with where the time went:
+ * <pre>
+ * pool    waiting for a pooled connection (and connecting)
+ * request writing the request until the response head arrives, network plus cluster time
+ * took    the cluster's own took, when the response has one
+ * read    reading the response body and parsing it
+ * </pre>
+ * A sample of slow searches ({@code slow-log.profile-sample-rate}) is sent again with profile=true, one at a time,
+ * and the per shard query and collector times are logged. Profiling runs the query twice, keep the rate low.
+ */
+@Slf4j(topic = "io.github.tonnycao.esrest.slowlog")
+@Component
+@ConditionalOnProperty(prefix = "elasticsearch.connection.slow-log", name = "enabled")
+public class SlowOperationLog implements OperationListener {
+
+    private static final String PROFILE_SUFFIX = "-profile";
+
+    @Autowired
+    private ElasticsearchProperties properties;
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    private final AtomicBoolean profiling = new AtomicBoolean();
+
+    @Override
+    public void onOperation(OperationTrace trace, Object response, Throwable failure) {
+        ElasticsearchProperties.SlowLog settings = properties.getSlowLog();
+        if (trace.getNanos() < TimeUnit.MILLISECONDS.toNanos(settings.getThresholdMillis())) {
+            return;
+        }
+        TimeValue took = Responses.took(response);
+        HttpRequest request = trace.getHttpRequest();
+        log.warn("slow {} on [{}] {}ms [pool {}ms, request {}ms, took {}ms, read {}ms] {} outcome {} attempts {} opaque_id {} {} {}",
+                trace.getOperation().getValue(), trace.getIndex(), millis(trace.getNanos()),
+                millis(trace.getPoolWaitNanos()), millis(trace.getRequestNanos()), null == took ? -1 : took.millis(),
+                millis(trace.getReadNanos()), results(response), Responses.outcome(response, failure), trace.getAttempts(),
+                trace.getOpaqueId(), null == request ? "" : request.getRequestLine().getUri(),
+                source(request, settings.getMaxSourceChars()));
+
+        if (EsOperation.SEARCH == trace.getOperation() && null == failure && null != request
+                && settings.getProfileSampleRate() > ThreadLocalRandom.current().nextDouble()) {
+            profile(trace, request);
+        }
+    }
+
+    /***
+     * send the search again with profile=true, skipped while another profile is running
+     */
+    private void profile(OperationTrace trace, HttpRequest httpRequest) {
+        URI uri = URI.create(httpRequest.getRequestLine().getUri());
+        // a scroll search would open another context
+        if (null != uri.getRawQuery() && uri.getRawQuery().contains("scroll=")) {
+            return;
+        }
+        String body = source(httpRequest, Integer.MAX_VALUE);
+        JSONObject source = body.isEmpty() ? new JSONObject() : JSONObject.parseObject(body);
+        source.put("profile", true);
+        if (!profiling.compareAndSet(false, true)) {
+            return;
+        }
+
+        Request request = new Request(httpRequest.getRequestLine().getMethod(), uri.getRawPath());
+        for (NameValuePair param : URLEncodedUtils.parse(uri, StandardCharsets.UTF_8)) {
+            request.addParameter(param.getName(), param.getValue());
+        }
+        request.setJsonEntity(source.toJSONString());
+        request.setOptions(request.getOptions().toBuilder().addHeader(RequestTracker.OPAQUE_ID, trace.getOpaqueId() + PROFILE_SUFFIX));
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                profiling.set(false);
+                try {
+                    logProfile(trace, JSONObject.parseObject(EntityUtils.toString(response.getEntity())));
+                } catch (IOException | RuntimeException e) {
+                    log.warn("profile {} unreadable: {}", trace.getOpaqueId(), e.getMessage());
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                profiling.set(false);
+                log.warn("profile {} failed: {}", trace.getOpaqueId(), e.getMessage());
+            }
+        });
+    }
+
+    private void logProfile(OperationTrace trace, JSONObject response) {
+        JSONObject profile = response.getJSONObject("profile");
+        if (null == profile) {
+            return;
+        }
+        JSONArray shards = profile.getJSONArray("shards");
+        for (int i = 0; null != shards && i < shards.size(); i++) {
+            JSONObject shard = shards.getJSONObject(i);
+            JSONArray searches = shard.getJSONArray("searches");
+            for (int j = 0; null != searches && j < searches.size(); j++) {
+                JSONObject search = searches.getJSONObject(j);
+                StringBuilder queries = new StringBuilder();
+                JSONArray query = search.getJSONArray("query");
+                for (int k = 0; null != query && k < query.size(); k++) {
+                    JSONObject node = query.getJSONObject(k);
+                    queries.append(node.getString("type")).append(' ')
+                            .append(millis(node.getLongValue("time_in_nanos"))).append("ms ");
+                }
+                JSONArray collector = search.getJSONArray("collector");
+                long collectorNanos = null == collector || collector.isEmpty() ? 0 : collector.getJSONObject(0).getLongValue("time_in_nanos");
+                log.warn("profile {} shard {} query [{}] rewrite {}ms collector {}ms", trace.getOpaqueId(), shard.getString("id"),
+                        queries.toString().trim(), millis(search.getLongValue("rewrite_time")), millis(collectorNanos));
+            }
+        }
+        log.debug("profile {}: {}", trace.getOpaqueId(), profile);
+    }
+
+    private static String results(Object response) {
+        if (response instanceof SearchResponse) {
+            SearchResponse search = (SearchResponse) response;
+            String total = null == search.getHits().getTotalHits() ? "?" : String.valueOf(search.getHits().getTotalHits().value);
+            return "hits " + search.getHits().getHits().length + "/" + total;
+        }
+        if (response instanceof BulkResponse) {
+            return "items " + ((BulkResponse) response).getItems().length;
+        }
+        return "";
+    }
+
+    /***
+     * request body, truncated to maxChars; bodies of the client are in memory so reading them again is safe
+     */
+    private static String source(HttpRequest request, int maxChars) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return "";
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (null == entity || !entity.isRepeatable()) {
+            return "";
+        }
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[1024];
+        try (Reader reader = new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)) {
+            int read;
+            while (source.length() < maxChars && (read = reader.read(buffer)) >= 0) {
+                source.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            return "";
+        }
+        if (source.length() > maxChars) {
+            source.setLength(maxChars);
+            source.append("...");
+        }
+        return source.toString();
+    }
+
+    private static long millis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.tonnycao.esrest.utils;
+
+import org.elasticsearch.action.ActionListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Bridges the high level client's {@code *Async(request, options, ActionListener)} methods to {@link CompletableFuture}.
+ */
+public final class ActionFutures {
+
+    private ActionFutures() {
+    }
+
+    /**
+     * 执行异步请求，返回在 listener 回调时完成的 future
+     * @param call e.g. {@code listener -> client.searchAsync(request, RequestOptions.DEFAULT, listener)}
+     * @return future completed with the response, or exceptionally with the failure
+     */
+    public static <T> CompletableFuture<T> execute(Consumer<ActionListener<T>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            call.accept(ActionListener.wrap(future::complete, future::completeExceptionally));
+        } catch (RuntimeException e) {
+            // request validation fails synchronously, before any listener is invoked
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 阻塞等待 future 完成, 失败时抛出原始异常
+     * @param future e.g. a request queued in a {@link MicroBatcher}
+     * @return the result of the future
+     * @throws IOException the failure when it is an IOException, InterruptedIOException when interrupted
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
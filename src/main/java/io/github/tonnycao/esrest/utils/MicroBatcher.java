@@ -0,0 +1,142 @@
+package io.github.tonnycao.esrest.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces single requests submitted concurrently into one batched call.
+ * <p>
+ * A batch is dispatched once it holds {@code maxBatchSize} items or {@code windowMicros} after its first
+ * item arrived, whichever comes first. The batch call must return one result per item, in submission order;
+ * each caller's future is completed with its own result, or exceptionally when the whole batch fails.
+ *
+ * @param <T> item submitted by a caller
+ * @param <R> result handed back to that caller
+ */
+@Slf4j
+public class MicroBatcher<T, R> implements AutoCloseable {
+
+    private final int maxBatchSize;
+
+    private final long windowMicros;
+
+    private final Function<List<T>, CompletableFuture<List<R>>> batchCall;
+
+    private final ScheduledExecutorService timer;
+
+    private List<Pending<T, R>> pending = new ArrayList<>();
+
+    /***
+     * @param name thread name of the window timer
+     * @param maxBatchSize dispatch as soon as this many items are queued
+     * @param windowMicros dispatch at the latest this long after the first queued item
+     * @param batchCall executes one batch, e.g. an _mget of every queued id
+     */
+    public MicroBatcher(String name, int maxBatchSize, long windowMicros, Function<List<T>, CompletableFuture<List<R>>> batchCall) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.windowMicros = windowMicros;
+        this.batchCall = batchCall;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /***
+     * queue one item for the next batch
+     * @param item
+     * @return future completed with the item's result once its batch returns
+     */
+    public CompletableFuture<R> submit(T item) {
+        Pending<T, R> request = new Pending<>(item);
+        List<Pending<T, R>> full = null;
+        synchronized (this) {
+            List<Pending<T, R>> batch = pending;
+            batch.add(request);
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                pending = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                timer.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (null != full) {
+            dispatch(full);
+        }
+        return request.future;
+    }
+
+    /***
+     * dispatch whatever is queued and stop the window timer
+     */
+    @Override
+    public void close() {
+        List<Pending<T, R>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+        timer.shutdownNow();
+    }
+
+    private void flush(List<Pending<T, R>> batch) {
+        synchronized (this) {
+            // already dispatched because it filled up before the window elapsed
+            if (pending != batch) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(List<Pending<T, R>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        batch.forEach(request -> items.add(request.item));
+        CompletableFuture<List<R>> results;
+        try {
+            results = batchCall.apply(items);
+        } catch (RuntimeException e) {
+            results = new CompletableFuture<>();
+            results.completeExceptionally(e);
+        }
+        results.whenComplete((list, e) -> {
+            if (null != e) {
+                batch.forEach(request -> request.future.completeExceptionally(e));
+                return;
+            }
+            if (list.size() != batch.size()) {
+                IllegalStateException mismatch = new IllegalStateException(
+                        "batch of " + batch.size() + " items returned " + list.size() + " results");
+                batch.forEach(request -> request.future.completeExceptionally(mismatch));
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(list.get(i));
+            }
+        });
+        log.debug("dispatched batch of {} items", batch.size());
+    }
+
+    private static class Pending<T, R> {
+
+        private final T item;
+
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private Pending(T item) {
+            this.item = item;
+        }
+    }
+}
@@ -1,134 +1,281 @@
-package io.github.tonnycao.esrest.utils;
-/**
- * Twitter_Snowflake<br>
- * SnowFlake的结构如下(每部分用-分开):<br>
- * 0 - 0000000000 0000000000 0000000000 0000000000 0 - 00000 - 00000 - 000000000000 <br>
- * 1位标识，由于long基本类型在Java中是带符号的，最高位是符号位，正数是0，负数是1，所以id一般是正数，最高位是0<br>
- * 41位时间截(毫秒级)，注意，41位时间截不是存储当前时间的时间截，而是存储时间截的差值（当前时间截 - 开始时间截)
- * 得到的值），这里的的开始时间截，一般是我们的id生成器开始使用的时间，由我们程序来指定的（如下下面程序IdWorker类的startTime属性）。41位的时间截，可以使用69年，年T = (1L << 41) / (1000L * 60 * 60 * 24 * 365) = 69<br>
- * 10位的数据机器位，可以部署在1024个节点，包括5位datacenterId和5位workerId<br>
- * 12位序列，毫秒内的计数，12位的计数顺序号支持每个节点每毫秒(同一机器，同一时间截)产生4096个ID序号<br>
- * 加起来刚好64位，为一个Long型。<br>
- * SnowFlake的优点是，整体上按照时间自增排序，并且整个分布式系统内不会产生ID碰撞(由数据中心ID和机器ID作区分)，并且效率较高，经测试，SnowFlake每秒能够产生26万ID左右。
- */
-public class SnowflakeIdWorker {
-
-    // ==============================Fields===========================================
-    /** 开始时间截 (2015-01-01) */
-    private final long twepoch = 1420041600000L;
-
-    /** 机器id所占的位数 */
-    private final long workerIdBits = 5L;
-
-    /** 数据标识id所占的位数 */
-    private final long datacenterIdBits = 5L;
-
-    /** 支持的最大机器id，结果是31 (这个移位算法可以很快的计算出几位二进制数所能表示的最大十进制数) */
-    private final long maxWorkerId = -1L ^ (-1L << workerIdBits);
-
-    /** 支持的最大数据标识id，结果是31 */
-    private final long maxDatacenterId = -1L ^ (-1L << datacenterIdBits);
-
-    /** 序列在id中占的位数 */
-    private final long sequenceBits = 12L;
-
-    /** 机器ID向左移12位 */
-    private final long workerIdShift = sequenceBits;
-
-    /** 数据标识id向左移17位(12+5) */
-    private final long datacenterIdShift = sequenceBits + workerIdBits;
-
-    /** 时间截向左移22位(5+5+12) */
-    private final long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
-
-    /** 生成序列的掩码，这里为4095 (0b111111111111=0xfff=4095) */
-    private final long sequenceMask = -1L ^ (-1L << sequenceBits);
-
-    /** 工作机器ID(0~31) */
-    private long workerId;
-
-    /** 数据中心ID(0~31) */
-    private long datacenterId;
-
-    /** 毫秒内序列(0~4095) */
-    private long sequence = 0L;
-
-    /** 上次生成ID的时间截 */
-    private long lastTimestamp = -1L;
-
-    //==============================Constructors=====================================
-    /**
-     * 构造函数
-     * @param workerId 工作ID (0~31)
-     * @param datacenterId 数据中心ID (0~31)
-     */
-    public SnowflakeIdWorker(long workerId, long datacenterId) {
-        if (workerId > maxWorkerId || workerId < 0) {
-            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", maxWorkerId));
-        }
-        if (datacenterId > maxDatacenterId || datacenterId < 0) {
-            throw new IllegalArgumentException(String.format("datacenter Id can't be greater than %d or less than 0", maxDatacenterId));
-        }
-        this.workerId = workerId;
-        this.datacenterId = datacenterId;
-    }
-
-    // ==============================Methods==========================================
-    /**
-     * 获得下一个ID (该方法是线程安全的)
-     * @return SnowflakeId
-     */
-    public synchronized long nextId() {
-        long timestamp = timeGen();
-
-        //如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过这个时候应当抛出异常
-        if (timestamp < lastTimestamp) {
-            throw new RuntimeException(
-                    String.format("Clock moved backwards.  Refusing to generate id for %d milliseconds", lastTimestamp - timestamp));
-        }
-
-        //如果是同一时间生成的，则进行毫秒内序列
-        if (lastTimestamp == timestamp) {
-            sequence = (sequence + 1) & sequenceMask;
-            //毫秒内序列溢出
-            if (sequence == 0) {
-                //阻塞到下一个毫秒,获得新的时间戳
-                timestamp = tilNextMillis(lastTimestamp);
-            }
-        }
-        //时间戳改变，毫秒内序列重置
-        else {
-            sequence = 0L;
-        }
-
-        //上次生成ID的时间截
-        lastTimestamp = timestamp;
-
-        //移位并通过或运算拼到一起组成64位的ID
-        return ((timestamp - twepoch) << timestampLeftShift) //
-                | (datacenterId << datacenterIdShift) //
-                | (workerId << workerIdShift) //
-                | sequence;
-    }
-
-    /**
-     * 阻塞到下一个毫秒，直到获得新的时间戳
-     * @param lastTimestamp 上次生成ID的时间截
-     * @return 当前时间戳
-     */
-    protected long tilNextMillis(long lastTimestamp) {
-        long timestamp = timeGen();
-        while (timestamp <= lastTimestamp) {
-            timestamp = timeGen();
-        }
-        return timestamp;
-    }
-
-    /**
-     * 返回以毫秒为单位的当前时间
-     * @return 当前时间(毫秒)
-     */
-    protected long timeGen() {
-        return System.currentTimeMillis();
-    }
-}
\ No newline at end of file
+package io.github.tonnycao.esrest.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Twitter_Snowflake<br>
+ * SnowFlake的结构如下(每部分用-分开):<br>
+ * 0 - 0000000000 0000000000 0000000000 0000000000 0 - 00000 - 00000 - 000000000000 <br>
+ * 1位标识，由于long基本类型在Java中是带符号的，最高位是符号位，正数是0，负数是1，所以id一般是正数，最高位是0<br>
+ * 41位时间截(毫秒级)，注意，41位时间截不是存储当前时间的时间截，而是存储时间截的差值（当前时间截 - 开始时间截)
+ * 得到的值），这里的的开始时间截，一般是我们的id生成器开始使用的时间，由我们程序来指定的（如下下面程序IdWorker类的startTime属性）。41位的时间截，可以使用69年，年T = (1L << 41) / (1000L * 60 * 60 * 24 * 365) = 69<br>
+ * 10位的数据机器位，可以部署在1024个节点，包括5位datacenterId和5位workerId<br>
+ * 12位序列，毫秒内的计数，12位的计数顺序号支持每个节点每毫秒(同一机器，同一时间截)产生4096个ID序号<br>
+ * 加起来刚好64位，为一个Long型。<br>
+ * SnowFlake的优点是，整体上按照时间自增排序，并且整个分布式系统内不会产生ID碰撞(由数据中心ID和机器ID作区分)，并且效率较高，经测试，SnowFlake每秒能够产生26万ID左右。
+ * <p>
+ * 实现上不加锁: 上次发出的 (时间截差值, 序列) 打包在一个 AtomicLong 中, 通过 CAS 推进。
+ * 毫秒内序列用尽时进位到下一毫秒, 即向未来借用序列空间; 时钟小幅回拨时继续在上次的时间截上递增。
+ * 两种情况下发出的时间截最多领先系统时钟 maxDriftMillis, 超过时等待时钟追上, 时钟回拨超过该值则抛出异常。
+ */
+public class SnowflakeIdWorker implements MeterBinder {
+
+    // ==============================Fields===========================================
+    /** 开始时间截 (2015-01-01) */
+    private static final long TWEPOCH = 1420041600000L;
+
+    /** 机器id所占的位数 */
+    private static final long WORKER_ID_BITS = 5L;
+
+    /** 数据标识id所占的位数 */
+    private static final long DATACENTER_ID_BITS = 5L;
+
+    /** 支持的最大机器id，结果是31 (这个移位算法可以很快的计算出几位二进制数所能表示的最大十进制数) */
+    public static final long MAX_WORKER_ID = -1L ^ (-1L << WORKER_ID_BITS);
+
+    /** 支持的最大数据标识id，结果是31 */
+    public static final long MAX_DATACENTER_ID = -1L ^ (-1L << DATACENTER_ID_BITS);
+
+    /** 序列在id中占的位数 */
+    private static final long SEQUENCE_BITS = 12L;
+
+    /** 机器ID向左移12位 */
+    private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
+
+    /** 数据标识id向左移17位(12+5) */
+    private static final long DATACENTER_ID_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
+
+    /** 时间截向左移22位(5+5+12) */
+    private static final long TIMESTAMP_LEFT_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS + DATACENTER_ID_BITS;
+
+    /** 生成序列的掩码，这里为4095 (0b111111111111=0xfff=4095) */
+    private static final long SEQUENCE_MASK = -1L ^ (-1L << SEQUENCE_BITS);
+
+    /** 默认允许领先系统时钟的毫秒数 */
+    public static final long DEFAULT_MAX_DRIFT_MILLIS = 5L;
+
+    /** 工作机器ID(0~31) */
+    private final long workerId;
+
+    /** 数据中心ID(0~31) */
+    private final long datacenterId;
+
+    /** 数据中心ID与机器ID移位后的值, 每个ID都相同 */
+    private final long nodeBits;
+
+    /** 允许领先系统时钟的毫秒数, 既是时钟回拨的容忍度也是借用未来序列的上限 */
+    private final long maxDriftMillis;
+
+    /** 上次发出的ID的 (时间截差值 << 12 | 毫秒内序列), 初始为 -1 */
+    private final AtomicLong state = new AtomicLong(-1L);
+
+    /** CAS 失败重试次数, 反映竞争程度 */
+    private final LongAdder casRetries = new LongAdder();
+
+    /** 等待时钟追上的次数及总时长 */
+    private final LongAdder waits = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    /** 时间截领先系统时钟的预留次数, 序列用尽或时钟回拨时发生 */
+    private final LongAdder borrowed = new LongAdder();
+
+    /** 时钟回拨超过容忍范围而拒绝生成的次数 */
+    private final LongAdder clockRegressions = new LongAdder();
+
+    //==============================Constructors=====================================
+    /**
+     * 构造函数
+     * @param workerId 工作ID (0~31)
+     * @param datacenterId 数据中心ID (0~31)
+     */
+    public SnowflakeIdWorker(long workerId, long datacenterId) {
+        this(workerId, datacenterId, DEFAULT_MAX_DRIFT_MILLIS);
+    }
+
+    /**
+     * 构造函数
+     * @param workerId 工作ID (0~31)
+     * @param datacenterId 数据中心ID (0~31)
+     * @param maxDriftMillis 允许领先系统时钟的毫秒数, 0 表示时钟回拨即抛出异常
+     */
+    public SnowflakeIdWorker(long workerId, long datacenterId, long maxDriftMillis) {
+        if (workerId > MAX_WORKER_ID || workerId < 0) {
+            throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", MAX_WORKER_ID));
+        }
+        if (datacenterId > MAX_DATACENTER_ID || datacenterId < 0) {
+            throw new IllegalArgumentException(String.format("datacenter Id can't be greater than %d or less than 0", MAX_DATACENTER_ID));
+        }
+        if (maxDriftMillis < 0) {
+            throw new IllegalArgumentException("max drift can't be less than 0");
+        }
+        this.workerId = workerId;
+        this.datacenterId = datacenterId;
+        this.nodeBits = (datacenterId << DATACENTER_ID_SHIFT) | (workerId << WORKER_ID_SHIFT);
+        this.maxDriftMillis = maxDriftMillis;
+    }
+
+    // ==============================Methods==========================================
+    /**
+     * 获得下一个ID (该方法是线程安全的)
+     * @return SnowflakeId
+     */
+    public long nextId() {
+        long last = reserve(1);
+        return toId(last);
+    }
+
+    /**
+     * 一次预留 n 个连续的ID, 供批量写入使用, 每 4096 个ID只需一次 CAS
+     * @param n ID个数
+     * @return 递增的 n 个ID
+     */
+    public long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n can't be less than 0");
+        }
+        long[] ids = new long[n];
+        int filled = 0;
+        while (filled < n) {
+            int count = (int) Math.min(n - filled, SEQUENCE_MASK + 1);
+            long last = reserve(count);
+            long first = last - count + 1;
+            // 序列在 state 中连续, 跨毫秒时进位到时间截, 逐个还原即可
+            for (long packed = first; packed <= last; packed++) {
+                ids[filled++] = toId(packed);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 预留 count 个连续的序列, count 不超过 4096
+     * @return 预留的最后一个序列 (时间截差值 << 12 | 毫秒内序列)
+     */
+    private long reserve(int count) {
+        for (;;) {
+            long current = state.get();
+            long now = timeGen() - TWEPOCH;
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            if (current >= 0 && lastTimestamp > now + maxDriftMillis) {
+                //时钟回拨超过容忍范围, 抛出异常
+                clockRegressions.increment();
+                throw new IllegalStateException(
+                        String.format("Clock moved backwards.  Refusing to generate id for %d milliseconds", lastTimestamp - now));
+            }
+            //新的毫秒从0开始, 否则接着上次的序列(包括时钟小幅回拨时)
+            long first = Math.max(current + 1, now << SEQUENCE_BITS);
+            long last = first + count - 1;
+            //最多借用到 now + maxDriftMillis 这一毫秒, 超出时等待时钟追上
+            if (last >>> SEQUENCE_BITS > now + maxDriftMillis) {
+                awaitNextMillis(now);
+                continue;
+            }
+            if (state.compareAndSet(current, last)) {
+                if (last >>> SEQUENCE_BITS > now) {
+                    borrowed.increment();
+                }
+                return last;
+            }
+            casRetries.increment();
+        }
+    }
+
+    /**
+     * 序列用尽且已领先时钟 maxDriftMillis, 让出CPU直到下一毫秒, 而不是忙等
+     * @param now 当前时间截差值
+     */
+    private void awaitNextMillis(long now) {
+        long start = System.nanoTime();
+        while (timeGen() - TWEPOCH <= now) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        waits.increment();
+        waitNanos.add(System.nanoTime() - start);
+    }
+
+    private long toId(long packed) {
+        //移位并通过或运算拼到一起组成64位的ID
+        return ((packed >>> SEQUENCE_BITS) << TIMESTAMP_LEFT_SHIFT) //
+                | nodeBits //
+                | (packed & SEQUENCE_MASK);
+    }
+
+    /**
+     * 返回以毫秒为单位的当前时间
+     * @return 当前时间(毫秒)
+     */
+    protected long timeGen() {
+        return System.currentTimeMillis();
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    /**
+     * CAS 失败重试的次数
+     * @return
+     */
+    public long getCasRetries() {
+        return casRetries.sum();
+    }
+
+    /**
+     * 等待时钟追上的次数
+     * @return
+     */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    /**
+     * 等待时钟追上的总时长
+     * @return
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * 时间截领先系统时钟的预留次数
+     * @return
+     */
+    public long getBorrowed() {
+        return borrowed.sum();
+    }
+
+    /**
+     * 时钟回拨超过容忍范围而拒绝生成的次数
+     * @return
+     */
+    public long getClockRegressions() {
+        return clockRegressions.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        String worker = datacenterId + "-" + workerId;
+        FunctionCounter.builder("es.id.cas.retries", this, SnowflakeIdWorker::getCasRetries)
+                .description("id reservations retried after losing a CAS race").tag("worker", worker).register(registry);
+        FunctionCounter.builder("es.id.waits", this, SnowflakeIdWorker::getWaits)
+                .description("waits for the clock after the sequence ran out").tag("worker", worker).register(registry);
+        FunctionCounter.builder("es.id.wait.seconds", this, w -> w.getWaitNanos() / 1e9)
+                .description("time spent waiting for the clock").tag("worker", worker).register(registry);
+        FunctionCounter.builder("es.id.borrowed", this, SnowflakeIdWorker::getBorrowed)
+                .description("reservations stamped ahead of the clock").tag("worker", worker).register(registry);
+        FunctionCounter.builder("es.id.clock.regressions", this, SnowflakeIdWorker::getClockRegressions)
+                .description("ids refused because the clock stepped back too far").tag("worker", worker).register(registry);
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.tonnycao.esrest.cache;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentCacheTest {
+
+    private static final String INDEX = "news";
+
+    private ElasticsearchProperties properties;
+
+    private DocumentCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ElasticsearchProperties();
+        properties.getDocumentCache().setEnabled(true);
+        cache = new DocumentCache();
+        ReflectionTestUtils.setField(cache, "properties", properties);
+        cache.init();
+    }
+
+    static GetResponse found(String index, String id) {
+        return new GetResponse(new GetResult(index, "_doc", id, 0, 1, 1, true,
+                new BytesArray("{\"id\":\"" + id + "\"}"), Collections.emptyMap(), Collections.emptyMap()));
+    }
+
+    @Test
+    void getThatRacedAWriteIsNotCached() {
+        long generation = cache.generation(INDEX);
+        // the write completes while the get is in flight
+        cache.invalidate(INDEX, "1");
+        cache.put(INDEX, "1", generation, found(INDEX, "1"));
+        assertThat(cache.getResponse(INDEX, "1")).isNull();
+
+        cache.put(INDEX, "1", cache.generation(INDEX), found(INDEX, "1"));
+        assertThat(cache.getResponse(INDEX, "1")).isNotNull();
+    }
+
+    @Test
+    void writeOnAnotherIndexDoesNotSkipThePut() {
+        long generation = cache.generation(INDEX);
+        cache.invalidate("other", "1");
+        cache.put(INDEX, "1", generation, found(INDEX, "1"));
+        assertThat(cache.getResponse(INDEX, "1")).isNotNull();
+    }
+
+    @Test
+    void existsNeverReplacesAFullResponse() {
+        cache.put(INDEX, "1", cache.generation(INDEX), found(INDEX, "1"));
+        cache.putExists(INDEX, "1", cache.generation(INDEX), false);
+        assertThat(cache.exists(INDEX, "1")).isTrue();
+        assertThat(cache.getResponse(INDEX, "1")).isNotNull();
+
+        long generation = cache.generation(INDEX);
+        cache.invalidate(INDEX, "2");
+        cache.putExists(INDEX, "2", generation, true);
+        assertThat(cache.exists(INDEX, "2")).isNull();
+    }
+
+    @Test
+    void bulkWritesInvalidateEveryDoc() {
+        cache.put(INDEX, "1", cache.generation(INDEX), found(INDEX, "1"));
+        cache.put(INDEX, "2", cache.generation(INDEX), found(INDEX, "2"));
+        cache.put(INDEX, "3", cache.generation(INDEX), found(INDEX, "3"));
+        cache.invalidate(Arrays.asList(new IndexRequest(INDEX).id("1"), new DeleteRequest(INDEX, "2")));
+        assertThat(cache.getResponse(INDEX, "1")).isNull();
+        assertThat(cache.getResponse(INDEX, "2")).isNull();
+        assertThat(cache.getResponse(INDEX, "3")).isNotNull();
+    }
+
+    @Test
+    void includedAndExcludedIndices() {
+        assertThat(cache.isCached(INDEX)).isTrue();
+        properties.getDocumentCache().setExcludedIndices(Collections.singletonList(INDEX));
+        assertThat(cache.isCached(INDEX)).isFalse();
+        properties.getDocumentCache().setExcludedIndices(Collections.emptyList());
+        properties.getDocumentCache().setIndices(Collections.singletonList("other"));
+        assertThat(cache.isCached(INDEX)).isFalse();
+        assertThat(cache.isCached("other")).isTrue();
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.tonnycao.esrest.cache;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class SearchCacheTest {
+
+    private static final String INDEX = "news";
+
+    private ElasticsearchProperties properties;
+
+    private OperationExecutor executor;
+
+    private SearchCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ElasticsearchProperties();
+        properties.getSearchCache().setEnabled(true);
+        executor = mock(OperationExecutor.class);
+        cache = new SearchCache();
+        ReflectionTestUtils.setField(cache, "properties", properties);
+        ReflectionTestUtils.setField(cache, "executor", executor);
+        cache.init();
+        refreshIntervals();
+    }
+
+    private static SearchRequest request(String term) {
+        return new SearchRequest(INDEX).source(new SearchSourceBuilder().query(QueryBuilders.termQuery("tag", term)));
+    }
+
+    private static SearchResponse response(boolean timedOut, ShardSearchFailure... failures) {
+        InternalSearchResponse sections = new InternalSearchResponse(SearchHits.empty(), null, null, null, timedOut, null, 1);
+        return new SearchResponse(sections, null, 2, 2 - failures.length, 0, 3, failures, SearchResponse.Clusters.EMPTY);
+    }
+
+    private void refreshIntervals(Settings... settings) {
+        ImmutableOpenMap.Builder<String, Settings> indices = ImmutableOpenMap.builder();
+        for (int i = 0; i < settings.length; i++) {
+            indices.put(INDEX + "-" + i, settings[i]);
+        }
+        GetSettingsResponse response = new GetSettingsResponse(indices.build(), ImmutableOpenMap.of());
+        doReturn(CompletableFuture.completedFuture(response)).when(executor).executeAsync(eq(EsOperation.GET_SETTINGS), anyString(), any());
+    }
+
+    private long ttlMillis() {
+        Long nanos = ReflectionTestUtils.invokeMethod(cache, "ttlNanos", INDEX);
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Test
+    void keyFollowsTheBodyAndTheWriteGeneration() {
+        String key = cache.key(INDEX, request("a"));
+        assertThat(cache.key(INDEX, request("a"))).isEqualTo(key);
+        assertThat(cache.key(INDEX, request("b"))).isNotEqualTo(key);
+
+        cache.put(INDEX, key, response(false));
+        assertThat(cache.get(cache.key(INDEX, request("a")))).isNotNull();
+
+        cache.invalidate(INDEX);
+        assertThat(cache.key(INDEX, request("a"))).isNotEqualTo(key);
+        assertThat(cache.get(cache.key(INDEX, request("a")))).isNull();
+    }
+
+    @Test
+    void responseOfASearchRacingAWriteIsNotServed() {
+        String key = cache.key(INDEX, request("a"));
+        // the write completes while the search is in flight
+        cache.invalidate(Arrays.asList(new IndexRequest(INDEX).id("1"), new DeleteRequest("other", "2")));
+        cache.put(INDEX, key, response(false));
+        assertThat(cache.get(cache.key(INDEX, request("a")))).isNull();
+    }
+
+    @Test
+    void partialAndTimedOutResponsesAreSkipped() {
+        String key = cache.key(INDEX, request("a"));
+        cache.put(INDEX, key, response(true));
+        assertThat(cache.get(key)).isNull();
+        cache.put(INDEX, key, response(false, new ShardSearchFailure(new RuntimeException("shard failed"))));
+        assertThat(cache.get(key)).isNull();
+        cache.put(INDEX, key, response(false));
+        assertThat(cache.get(key)).isNotNull();
+    }
+
+    @Test
+    void ttlIsTheShortestRefreshInterval() {
+        refreshIntervals(Settings.builder().put("index.refresh_interval", "5s").build(),
+                Settings.builder().put("index.refresh_interval", "-1").build(),
+                Settings.builder().put("index.refresh_interval", "10s").build());
+        assertThat(ttlMillis()).isEqualTo(5000);
+    }
+
+    @Test
+    void ttlIsKeptWhenRefreshIsDisabledOrAlignmentIsOff() {
+        refreshIntervals(Settings.builder().put("index.refresh_interval", "-1").build());
+        assertThat(ttlMillis()).isEqualTo(30000);
+
+        setUp();
+        properties.getSearchCache().setAlignToRefreshInterval(false);
+        assertThat(ttlMillis()).isEqualTo(30000);
+    }
+
+    @Test
+    void ttlFallsBackToOneSecondWhenSettingsAreUnavailable() {
+        doReturn(CompletableFuture.failedFuture(new RuntimeException("forbidden")))
+                .when(executor).executeAsync(eq(EsOperation.GET_SETTINGS), anyString(), any());
+        assertThat(ttlMillis()).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationTrace;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * AIMD of batch size and concurrency, fed bulk traces the way OperationExecutor does.
+ */
+class AdaptiveBulkControllerTest {
+
+    private static final ShardId SHARD = new ShardId("news", "_na_", 0);
+
+    private ElasticsearchProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ElasticsearchProperties();
+        ElasticsearchProperties.Adaptive adaptive = properties.getBulk().getAdaptive();
+        adaptive.setEnabled(true);
+        adaptive.setTargetLatencyMillis(100);
+        adaptive.setSpikeFactor(2);
+        adaptive.setDecreaseFactor(0.5);
+        adaptive.setActionsStep(100);
+        adaptive.setMinActions(100);
+        adaptive.setMaxActions(300);
+        adaptive.setMaxConcurrentRequests(2);
+    }
+
+    private AdaptiveBulkController controller(int actions, int concurrentRequests) {
+        properties.getBulk().setActions(actions);
+        properties.getBulk().setConcurrentRequests(concurrentRequests);
+        AdaptiveBulkController controller = new AdaptiveBulkController();
+        ReflectionTestUtils.setField(controller, "properties", properties);
+        controller.init();
+        // no decrease yet: every bulk counts
+        ReflectionTestUtils.setField(controller, "lastDecrease", System.nanoTime() - TimeUnit.MINUTES.toNanos(1));
+        return controller;
+    }
+
+    private static OperationTrace bulk(long millis) {
+        OperationTrace trace = mock(OperationTrace.class);
+        when(trace.getOperation()).thenReturn(EsOperation.BULK);
+        when(trace.getNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+        return trace;
+    }
+
+    private static BulkResponse items(int succeeded, int rejected) {
+        BulkItemResponse[] items = new BulkItemResponse[succeeded + rejected];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i < succeeded
+                    ? new BulkItemResponse(i, DocWriteRequest.OpType.INDEX, new IndexResponse(SHARD, "_doc", String.valueOf(i), 1, 1, 1, true))
+                    : new BulkItemResponse(i, DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure("news", "_doc",
+                    String.valueOf(i), new EsRejectedExecutionException("rejected execution of bulk")));
+        }
+        return new BulkResponse(items, 5);
+    }
+
+    @Test
+    void fastBulksGrowTheBatchSizeThenTheConcurrency() {
+        AdaptiveBulkController controller = controller(100, 1);
+
+        controller.onOperation(bulk(1), items(1, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(200);
+        controller.onOperation(bulk(1), items(1, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(300);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+
+        controller.onOperation(bulk(1), items(1, 0), null);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+        controller.onOperation(bulk(1), items(1, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(300);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+    }
+
+    @Test
+    void slowButNotSpikingBulksChangeNothing() {
+        AdaptiveBulkController controller = controller(200, 2);
+
+        controller.onOperation(bulk(150), items(1, 0), null);
+
+        assertThat(controller.getBatchSize()).isEqualTo(200);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+    }
+
+    @Test
+    void oneOverloadCostsOneStepBack() throws Exception {
+        AdaptiveBulkController controller = controller(300, 2);
+
+        controller.onOperation(bulk(1), items(3, 1), null);
+        assertThat(controller.getBatchSize()).isEqualTo(150);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        assertThat(controller.getRejectionRatio()).isGreaterThan(0);
+
+        // sent before the decrease: neither its rejection nor its speed counts
+        controller.onOperation(bulk(10_000), items(0, 4), null);
+        controller.onOperation(bulk(10_000), items(4, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(150);
+
+        Thread.sleep(5);
+        controller.onOperation(bulk(1), items(1, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(250);
+    }
+
+    @Test
+    void latencySpikeAndWholeBulkRejectionDecrease() throws Exception {
+        AdaptiveBulkController controller = controller(300, 2);
+
+        controller.onOperation(bulk(250), items(1, 0), null);
+        assertThat(controller.getBatchSize()).isEqualTo(150);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+
+        Thread.sleep(5);
+        controller.onOperation(bulk(1), null, new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS));
+        assertThat(controller.getBatchSize()).isEqualTo(100);
+
+        Thread.sleep(5);
+        controller.onOperation(bulk(1), null, new SocketTimeoutException());
+        assertThat(controller.getBatchSize()).isEqualTo(100);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+    }
+
+    @Test
+    void disabledKeepsTheConfiguredSizeAndConcurrency() {
+        properties.getBulk().getAdaptive().setEnabled(false);
+        AdaptiveBulkController controller = controller(1000, 3);
+
+        controller.onOperation(bulk(1), items(0, 2), null);
+        controller.onOperation(bulk(1), items(2, 0), null);
+
+        assertThat(controller.getBatchSize()).isEqualTo(1000);
+        assertThat(controller.getConcurrency()).isEqualTo(3);
+        assertThat(controller.getRejectionRatio()).isGreaterThan(0);
+    }
+
+    @Test
+    void acquireWaitsForAFreeSlot() throws Exception {
+        AdaptiveBulkController controller = controller(100, 1);
+        controller.acquire();
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+            try {
+                controller.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+        assertThat(controller.getInFlight()).isEqualTo(1);
+
+        controller.release();
+        second.get(1, TimeUnit.SECONDS);
+        assertThat(controller.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void growingConcurrencyWakesWaitingProducers() throws Exception {
+        AdaptiveBulkController controller = controller(300, 1);
+        controller.acquire();
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+            try {
+                controller.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        controller.onOperation(bulk(1), items(1, 0), null);
+
+        await().atMost(1, TimeUnit.SECONDS).until(second::isDone);
+        assertThat(controller.getInFlight()).isEqualTo(2);
+    }
+}
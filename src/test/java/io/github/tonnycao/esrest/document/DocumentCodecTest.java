@@ -0,0 +1,34 @@
+package io.github.tonnycao.esrest.document;
+
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson.serializer.ToStringSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentCodecTest {
+
+    static class Money {
+
+        private final long cents;
+
+        Money(long cents) {
+            this.cents = cents;
+        }
+
+        @Override
+        public String toString() {
+            return cents / 100 + "." + String.format("%02d", cents % 100);
+        }
+    }
+
+    @Test
+    void encodeUsesGloballyRegisteredSerializers() {
+        SerializeConfig.getGlobalInstance().put(Money.class, ToStringSerializer.instance);
+        byte[] json = DocumentCodec.encode(Collections.singletonMap("price", new Money(1999)));
+        assertThat(new String(json, StandardCharsets.UTF_8)).isEqualTo("{\"price\":\"19.99\"}");
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.cache.DocumentCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DocumentOpsBatchingTest {
+
+    private static final String INDEX = "news";
+
+    private OperationExecutor executor;
+
+    private DocumentOps documentOps;
+
+    @BeforeEach
+    void setUp() {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.getMgetBatching().setEnabled(true);
+        properties.getMgetBatching().setMaxBatchSize(2);
+        properties.getMgetBatching().setWindowMicros(TimeUnit.SECONDS.toMicros(10));
+        executor = mock(OperationExecutor.class);
+        DocumentCache documentCache = new DocumentCache();
+        ReflectionTestUtils.setField(documentCache, "properties", properties);
+        documentCache.init();
+
+        documentOps = new DocumentOps();
+        ReflectionTestUtils.setField(documentOps, "executor", executor);
+        ReflectionTestUtils.setField(documentOps, "properties", properties);
+        ReflectionTestUtils.setField(documentOps, "documentCache", documentCache);
+        documentOps.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        documentOps.close();
+    }
+
+    @Test
+    void concurrentGetsShareOneMgetAndFailPerItem() throws Exception {
+        GetResponse found = new GetResponse(new GetResult(INDEX, "_doc", "1", 0, 1, 1, true,
+                new BytesArray("{\"id\":\"1\"}"), Collections.emptyMap(), Collections.emptyMap()));
+        MultiGetResponse response = new MultiGetResponse(new MultiGetItemResponse[]{
+                new MultiGetItemResponse(found, null),
+                new MultiGetItemResponse(null, new MultiGetResponse.Failure(INDEX, "_doc", "2", new IllegalStateException("shard unavailable")))});
+        doReturn(CompletableFuture.completedFuture(response)).when(executor).executeAsync(eq(EsOperation.MGET), isNull(), any());
+
+        CompletableFuture<Map<String, Object>> first = documentOps.getDocAsync(INDEX, "1");
+        CompletableFuture<Map<String, Object>> second = documentOps.getDocAsync(INDEX, "2");
+
+        assertThat(first.get(1, TimeUnit.SECONDS)).containsEntry("id", "1");
+        assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(ElasticsearchException.class);
+        verify(executor, times(1)).executeAsync(eq(EsOperation.MGET), isNull(), any());
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.cache.DocumentCache;
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.id.DocumentIds;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Streaming bulks of DocumentOps: chunking, ordering and the rejected-item retries.
+ */
+class DocumentOpsBulkTest {
+
+    private static final String INDEX = "news";
+
+    private static final ShardId SHARD = new ShardId(INDEX, "_na_", 0);
+
+    private ElasticsearchProperties properties;
+
+    private RestHighLevelClient client;
+
+    private AdaptiveBulkController bulkController;
+
+    private DocumentOps documentOps;
+
+    /** ids of each bulk sent, in the order sent */
+    private final List<List<String>> bulks = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        properties = new ElasticsearchProperties();
+        client = mock(RestHighLevelClient.class);
+        OperationExecutor executor = mock(OperationExecutor.class);
+        doAnswer(invocation -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            BiConsumer<RequestOptions, ActionListener<Object>> call = invocation.getArgument(2);
+            call.accept(RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }).when(executor).executeAsync(any(), any(), any());
+        DocumentIds documentIds = mock(DocumentIds.class);
+        when(documentIds.id(anyString(), anyMap())).thenAnswer(invocation -> ((Map<?, ?>) invocation.getArgument(1)).get("id"));
+        bulkController = new AdaptiveBulkController();
+        ReflectionTestUtils.setField(bulkController, "properties", properties);
+
+        documentOps = new DocumentOps();
+        ReflectionTestUtils.setField(documentOps, "client", client);
+        ReflectionTestUtils.setField(documentOps, "executor", executor);
+        ReflectionTestUtils.setField(documentOps, "properties", properties);
+        ReflectionTestUtils.setField(documentOps, "documentCache", mock(DocumentCache.class));
+        ReflectionTestUtils.setField(documentOps, "searchCache", mock(SearchCache.class));
+        ReflectionTestUtils.setField(documentOps, "documentIds", documentIds);
+        ReflectionTestUtils.setField(documentOps, "bulkController", bulkController);
+    }
+
+    private static Map<String, Object> doc(String id) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("id", id);
+        return doc;
+    }
+
+    private static BulkItemResponse succeeded(int i, DocWriteRequest<?> request) {
+        return new BulkItemResponse(i, request.opType(), new IndexResponse(SHARD, "_doc", request.id(), 1, 1, 1, true));
+    }
+
+    @Test
+    void rejectsChunkSizeBelowOneBeforeReadingDocs() {
+        AtomicInteger read = new AtomicInteger();
+        Stream<Map<String, Object>> items = Stream.of(Collections.<String, Object>singletonMap("id", "1"))
+                .peek(item -> read.incrementAndGet());
+
+        assertThatThrownBy(() -> documentOps.bulkAddDoc("news", items, 0))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("0");
+        assertThat(read).hasValue(0);
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void rejectsNegativeChunkSize() {
+        Stream<DocWriteRequest<?>> requests = Stream.of(new DeleteRequest("news", "1"));
+
+        assertThatThrownBy(() -> documentOps.bulk(requests, -1)).isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void withoutAdaptiveChunksAreSentOneAfterAnother() throws Exception {
+        properties.getBulk().setActions(2);
+        properties.getBulk().setConcurrentRequests(2);
+        bulkController.init();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            BulkRequest bulk = invocation.getArgument(0);
+            bulks.add(bulk.requests().stream().map(DocWriteRequest::id).collect(Collectors.toList()));
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            BulkItemResponse[] items = IntStream.range(0, bulk.requests().size())
+                    .mapToObj(i -> succeeded(i, bulk.requests().get(i))).toArray(BulkItemResponse[]::new);
+            CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS).execute(() -> {
+                running.decrementAndGet();
+                invocation.<ActionListener<BulkResponse>>getArgument(2).onResponse(new BulkResponse(items, 1));
+            });
+            return null;
+        }).when(client).bulkAsync(any(), any(), any());
+
+        // a change feed updating doc 1 twice
+        BulkResult result = documentOps.bulkAddDoc(INDEX, Stream.of(doc("1"), doc("2"), doc("3"), doc("1"), doc("4")));
+
+        assertThat(result.getSucceeded()).isEqualTo(5);
+        assertThat(bulks).containsExactly(List.of("1", "2"), List.of("3", "1"), List.of("4"));
+        assertThat(mostRunning.get()).isEqualTo(1);
+    }
+
+    @Test
+    void onlyRejectedItemsAreSentAgainAndFailuresKeepTheirPosition() throws Exception {
+        properties.getBulk().setBackoffDelayMillis(1);
+        properties.getBulk().setBackoffRetries(1);
+        // status of each attempt by id, 200 once the scripted ones are used up
+        Map<String, Deque<RestStatus>> statuses = new ConcurrentHashMap<>();
+        statuses.put("b", new ArrayDeque<>(List.of(RestStatus.TOO_MANY_REQUESTS)));
+        statuses.put("c", new ArrayDeque<>(List.of(RestStatus.BAD_REQUEST)));
+        statuses.put("d", new ArrayDeque<>(List.of(RestStatus.TOO_MANY_REQUESTS, RestStatus.TOO_MANY_REQUESTS)));
+        doAnswer(invocation -> {
+            BulkRequest bulk = invocation.getArgument(0);
+            bulks.add(bulk.requests().stream().map(DocWriteRequest::id).collect(Collectors.toList()));
+            BulkItemResponse[] items = new BulkItemResponse[bulk.requests().size()];
+            for (int i = 0; i < items.length; i++) {
+                DocWriteRequest<?> request = bulk.requests().get(i);
+                RestStatus status = statuses.getOrDefault(request.id(), new ArrayDeque<>()).poll();
+                items[i] = null == status ? succeeded(i, request) : new BulkItemResponse(i, request.opType(),
+                        new BulkItemResponse.Failure(INDEX, "_doc", request.id(), new ElasticsearchStatusException(status.name(), status)));
+            }
+            invocation.<ActionListener<BulkResponse>>getArgument(2).onResponse(new BulkResponse(items, 1));
+            return null;
+        }).when(client).bulkAsync(any(), any(), any());
+
+        BulkResult result = documentOps.bulkAddDoc(INDEX, Stream.of(doc("a"), doc("b"), doc("c"), doc("d")), 2);
+
+        assertThat(bulks).containsExactly(List.of("a", "b"), List.of("b"), List.of("c", "d"), List.of("d"));
+        assertThat(result.getSucceeded()).isEqualTo(2);
+        assertThat(result.getFailures()).extracting(BulkResult.Failure::getPosition, BulkResult.Failure::getId, BulkResult.Failure::getStatus)
+                .containsExactly(tuple(2L, "c", 400), tuple(3L, "d", 429));
+    }
+}
@@ -0,0 +1,206 @@
+package io.github.tonnycao.esrest.document;
+
+import io.github.tonnycao.esrest.cache.DocumentCache;
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.id.DocumentIds;
+import io.github.tonnycao.esrest.support.IoCall;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Every write path of DocumentOps and BulkIngestor drops the cached doc and bumps the search generation of its index.
+ */
+class DocumentOpsCacheTest {
+
+    private static final String INDEX = "news";
+
+    private static final ShardId SHARD = new ShardId(INDEX, "_na_", 0);
+
+    private ElasticsearchProperties properties;
+
+    private RestHighLevelClient client;
+
+    private OperationExecutor executor;
+
+    private DocumentCache documentCache;
+
+    private SearchCache searchCache;
+
+    private DocumentIds documentIds;
+
+    private DocumentOps documentOps;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = new ElasticsearchProperties();
+        properties.getDocumentCache().setEnabled(true);
+        client = mock(RestHighLevelClient.class);
+        executor = mock(OperationExecutor.class);
+        when(executor.execute(any(), any(), any())).thenAnswer(invocation ->
+                ((IoCall<?>) invocation.getArgument(2)).call(RequestOptions.DEFAULT));
+        documentCache = new DocumentCache();
+        ReflectionTestUtils.setField(documentCache, "properties", properties);
+        documentCache.init();
+        searchCache = mock(SearchCache.class);
+        documentIds = mock(DocumentIds.class);
+        when(documentIds.id(anyString(), anyMap())).thenAnswer(invocation -> ((Map<?, ?>) invocation.getArgument(1)).get("id"));
+        when(documentIds.ids(anyString(), any())).thenAnswer(invocation -> new String[]{"1"});
+
+        documentOps = new DocumentOps();
+        inject(documentOps);
+        when(client.get(any(GetRequest.class), any(RequestOptions.class))).thenAnswer(invocation ->
+                found(((GetRequest) invocation.getArgument(0)).id()));
+    }
+
+    private void inject(Object target) {
+        ReflectionTestUtils.setField(target, "client", client);
+        ReflectionTestUtils.setField(target, "executor", executor);
+        ReflectionTestUtils.setField(target, "properties", properties);
+        ReflectionTestUtils.setField(target, "documentCache", documentCache);
+        ReflectionTestUtils.setField(target, "searchCache", searchCache);
+        ReflectionTestUtils.setField(target, "documentIds", documentIds);
+    }
+
+    private static GetResponse found(String id) {
+        return new GetResponse(new GetResult(INDEX, "_doc", id, 0, 1, 1, true,
+                new BytesArray("{\"id\":\"" + id + "\"}"), Collections.emptyMap(), Collections.emptyMap()));
+    }
+
+    private static Map<String, Object> doc(String id) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("id", id);
+        return doc;
+    }
+
+    /***
+     * get the doc twice, the second one must come from the cache
+     */
+    private void warm() throws Exception {
+        documentOps.getDoc(INDEX, "1");
+        documentOps.getDoc(INDEX, "1");
+        assertThat(documentCache.getResponse(INDEX, "1")).isNotNull();
+    }
+
+    @Test
+    void getsAreServedFromTheCache() throws Exception {
+        warm();
+        verify(client, times(1)).get(any(GetRequest.class), any(RequestOptions.class));
+    }
+
+    @Test
+    void getRacingAWriteIsNotCached() throws Exception {
+        when(client.get(any(GetRequest.class), any(RequestOptions.class))).thenAnswer(invocation -> {
+            // a write of the doc completes before the get response arrives
+            documentCache.invalidate(INDEX, "1");
+            return found("1");
+        });
+        documentOps.getDoc(INDEX, "1");
+        assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+    }
+
+    @Test
+    void excludedIndexIsNotCached() throws Exception {
+        properties.getDocumentCache().setExcludedIndices(Collections.singletonList(INDEX));
+        documentOps.getDoc(INDEX, "1");
+        documentOps.getDoc(INDEX, "1");
+        verify(client, times(2)).get(any(GetRequest.class), any(RequestOptions.class));
+        assertThat(documentCache.size()).isZero();
+    }
+
+    @Test
+    void indexInvalidates() throws Exception {
+        warm();
+        when(client.index(any(), any(RequestOptions.class))).thenReturn(new IndexResponse(SHARD, "_doc", "1", 1, 1, 2, false));
+        documentOps.addDoc(INDEX, doc("1"));
+        assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+        verify(searchCache).invalidate(INDEX);
+    }
+
+    @Test
+    void updateInvalidatesEvenWhenItFails() throws Exception {
+        warm();
+        when(client.update(any(), any(RequestOptions.class))).thenThrow(new IOException("connection reset"));
+        try {
+            documentOps.updateById(INDEX, "1", doc("1"));
+        } catch (IOException expected) {
+            // the outcome of the update is unknown
+        }
+        assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+        verify(searchCache).invalidate(INDEX);
+    }
+
+    @Test
+    void deleteInvalidates() throws Exception {
+        warm();
+        when(client.delete(any(), any(RequestOptions.class))).thenReturn(new DeleteResponse(SHARD, "_doc", "1", 1, 1, 2, true));
+        documentOps.deleteById(INDEX, "1");
+        assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+        assertThat(documentCache.exists(INDEX, "1")).isNull();
+    }
+
+    @Test
+    void bulkInvalidates() throws Exception {
+        warm();
+        when(client.bulk(any(BulkRequest.class), any(RequestOptions.class))).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                new BulkItemResponse(0, DocWriteRequest.OpType.INDEX, new IndexResponse(SHARD, "_doc", "1", 1, 1, 2, false))}, 3));
+        assertThat(documentOps.bulkAddDoc(INDEX, Collections.singletonList(doc("1")))).isEqualTo(1);
+        assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+        verify(searchCache).invalidate(any(Iterable.class));
+    }
+
+    @Test
+    void ingestorInvalidatesAfterEachBulk() throws Exception {
+        warm();
+        BulkIngestor ingestor = new BulkIngestor();
+        inject(ingestor);
+        ReflectionTestUtils.setField(ingestor, "bulkController", mock(AdaptiveBulkController.class));
+        BulkResponse response = new BulkResponse(new BulkItemResponse[]{new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse(SHARD, "_doc", "1", 2, DocWriteResponse.Result.UPDATED))}, 3);
+        when(executor.executeAsync(any(), eq(null), any())).thenReturn(CompletableFuture.completedFuture(response));
+        ingestor.init();
+        try {
+            ingestor.update(INDEX, "1", doc("1"));
+            ingestor.flush();
+            await().atMost(5, TimeUnit.SECONDS).until(() -> ingestor.getSucceeded() == 1);
+            assertThat(documentCache.getResponse(INDEX, "1")).isNull();
+        } finally {
+            ingestor.close();
+        }
+    }
+}
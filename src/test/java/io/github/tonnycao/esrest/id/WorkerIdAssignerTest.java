@@ -0,0 +1,168 @@
+package io.github.tonnycao.esrest.id;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.IoCall;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lease decisions of WorkerIdAssigner against a lease index kept in a map: create, skip a held id,
+ * take over an expired one, and stop issuing ids as soon as a renewal finds the lease taken.
+ */
+class WorkerIdAssignerTest {
+
+    private static final String LEASE_INDEX = "esrest-worker-ids";
+
+    private static final ShardId SHARD = new ShardId(LEASE_INDEX, "_na_", 0);
+
+    /** id -> {seqNo, expiresAt} */
+    private final Map<String, long[]> leases = new ConcurrentHashMap<>();
+
+    private ElasticsearchProperties properties;
+
+    private RestHighLevelClient client;
+
+    private WorkerIdAssigner assigner;
+
+    private int start;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = new ElasticsearchProperties();
+        properties.getIds().setLeaseProbes(4);
+        client = mock(RestHighLevelClient.class);
+        when(client.index(any(), any(RequestOptions.class))).thenAnswer(invocation -> index(invocation.getArgument(0)));
+        when(client.get(any(), any(RequestOptions.class))).thenAnswer(invocation -> get(invocation.getArgument(0)));
+        OperationExecutor executor = mock(OperationExecutor.class);
+        when(executor.execute(any(), any(), any())).thenAnswer(invocation ->
+                ((IoCall<?>) invocation.getArgument(2)).call(RequestOptions.DEFAULT));
+        assigner = new WorkerIdAssigner();
+        ReflectionTestUtils.setField(assigner, "client", client);
+        ReflectionTestUtils.setField(assigner, "executor", executor);
+        ReflectionTestUtils.setField(assigner, "properties", properties);
+        ReflectionTestUtils.setField(assigner, "meterRegistry", new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+        start = Math.floorMod(ReflectionTestUtils.getField(assigner, "owner").hashCode(), 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        assigner.close();
+    }
+
+    @Test
+    void createsTheLeaseOfTheFirstFreeId() {
+        assigner.worker();
+
+        assertThat(assigner.getNodeId()).isEqualTo(start);
+        assertThat(leases).containsKey(String.valueOf(start));
+    }
+
+    @Test
+    void skipsAnIdLeasedByAnotherJvm() {
+        hold(start, 5, System.currentTimeMillis() + 60_000);
+
+        assigner.worker();
+
+        assertThat(assigner.getNodeId()).isEqualTo((start + 1) % 1024);
+        assertThat(leases.get(String.valueOf(start))[0]).isEqualTo(5);
+    }
+
+    @Test
+    void takesOverAnExpiredLeaseAtItsSeqNo() {
+        hold(start, 5, System.currentTimeMillis() - 1);
+
+        assigner.worker();
+
+        assertThat(assigner.getNodeId()).isEqualTo(start);
+        assertThat(leases.get(String.valueOf(start))[0]).isEqualTo(6);
+    }
+
+    @Test
+    void givesUpAfterTheConfiguredProbes() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            hold((start + i) % 1024, 1, System.currentTimeMillis() + 60_000);
+        }
+
+        assertThatThrownBy(() -> assigner.worker()).isInstanceOf(IllegalStateException.class);
+        verify(client, times(4)).get(any(), any(RequestOptions.class));
+    }
+
+    @Test
+    void refusesIdsOnceTheLeaseIsTakenOverUntilAnotherIsLeased() {
+        assigner.worker();
+        for (int i = 0; i < 4; i++) {
+            hold((start + i) % 1024, 9, System.currentTimeMillis() + 60_000);
+        }
+
+        ReflectionTestUtils.invokeMethod(assigner, "renew");
+
+        assertThatThrownBy(() -> assigner.worker()).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("taken over");
+
+        leases.remove(String.valueOf((start + 2) % 1024));
+        ReflectionTestUtils.invokeMethod(assigner, "renew");
+
+        assertThat(assigner.worker().nextId()).isPositive();
+        assertThat(assigner.getNodeId()).isEqualTo((start + 2) % 1024);
+    }
+
+    private void hold(int nodeId, long seqNo, long expiresAt) {
+        leases.put(String.valueOf(nodeId), new long[]{seqNo, expiresAt});
+    }
+
+    /***
+     * op_type create and if_seq_no conflict the way Elasticsearch does
+     */
+    private IndexResponse index(IndexRequest request) {
+        long[] current = leases.get(request.id());
+        boolean conflict = DocWriteRequest.OpType.CREATE == request.opType()
+                ? null != current
+                : SequenceNumbers.UNASSIGNED_SEQ_NO != request.ifSeqNo() && (null == current || current[0] != request.ifSeqNo());
+        if (conflict) {
+            throw new ElasticsearchStatusException("version conflict", RestStatus.CONFLICT);
+        }
+        long seqNo = null == current ? 0 : current[0] + 1;
+        leases.put(request.id(), new long[]{seqNo, ((Number) request.sourceAsMap().get("expiresAt")).longValue()});
+        return new IndexResponse(SHARD, "_doc", request.id(), seqNo, 1, seqNo + 1, null == current);
+    }
+
+    private GetResponse get(GetRequest request) {
+        long[] current = leases.get(request.id());
+        if (null == current) {
+            return new GetResponse(new GetResult(LEASE_INDEX, "_doc", request.id(), SequenceNumbers.UNASSIGNED_SEQ_NO, 0, -1, false,
+                    null, Collections.emptyMap(), Collections.emptyMap()));
+        }
+        return new GetResponse(new GetResult(LEASE_INDEX, "_doc", request.id(), current[0], 1, current[0] + 1, true,
+                new BytesArray("{\"owner\":\"other\",\"expiresAt\":" + current[1] + "}"), Collections.emptyMap(), Collections.emptyMap()));
+    }
+}
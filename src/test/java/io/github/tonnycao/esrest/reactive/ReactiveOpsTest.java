@@ -0,0 +1,146 @@
+package io.github.tonnycao.esrest.reactive;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.search.ScrollRegistry;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ReactiveOpsTest {
+
+    private static final String INDEX = "news";
+
+    private RestHighLevelClient client;
+
+    private OperationExecutor executor;
+
+    private ScrollRegistry scrollRegistry;
+
+    private ReactiveOps reactiveOps;
+
+    private final Deque<SearchResponse> pages = new ArrayDeque<>();
+
+    private final List<SearchRequest> searches = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        client = mock(RestHighLevelClient.class);
+        executor = mock(OperationExecutor.class);
+        doAnswer(invocation -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            BiConsumer<RequestOptions, ActionListener<Object>> call = invocation.getArgument(2);
+            call.accept(RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }).when(executor).executeAsync(any(), any(), any());
+        doAnswer(invocation -> {
+            searches.add(invocation.getArgument(0));
+            invocation.<ActionListener<SearchResponse>>getArgument(2).onResponse(pages.poll());
+            return null;
+        }).when(client).searchAsync(any(), any(), any());
+        doAnswer(invocation -> {
+            invocation.<ActionListener<SearchResponse>>getArgument(2).onResponse(pages.poll());
+            return null;
+        }).when(client).scrollAsync(any(), any(), any());
+
+        scrollRegistry = new ScrollRegistry();
+        ReflectionTestUtils.setField(scrollRegistry, "client", client);
+        ReflectionTestUtils.setField(scrollRegistry, "executor", executor);
+        ReflectionTestUtils.setField(scrollRegistry, "properties", new ElasticsearchProperties());
+
+        reactiveOps = new ReactiveOps();
+        ReflectionTestUtils.setField(reactiveOps, "client", client);
+        ReflectionTestUtils.setField(reactiveOps, "executor", executor);
+        ReflectionTestUtils.setField(reactiveOps, "scrollRegistry", scrollRegistry);
+    }
+
+    private static SearchResponse page(String scrollId, Object... sortValues) {
+        SearchHit[] hits = new SearchHit[sortValues.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new SearchHit(i);
+            hits[i].sortValues(new Object[]{sortValues[i], "id-" + sortValues[i]}, new DocValueFormat[]{DocValueFormat.RAW, DocValueFormat.RAW});
+        }
+        SearchHits searchHits = new SearchHits(hits, new TotalHits(hits.length, TotalHits.Relation.EQUAL_TO), 1f);
+        InternalSearchResponse sections = new InternalSearchResponse(searchHits, null, null, null, false, null, 1);
+        return new SearchResponse(sections, scrollId, 1, 1, 0, 2, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    @Test
+    void searchAfterPagesWithCopiesAndATieBreaker() {
+        SearchSourceBuilder builder = new SearchSourceBuilder().size(2).sort(SortBuilders.fieldSort("date"));
+        pages.add(page(null, 1L, 2L));
+        pages.add(page(null, 3L));
+
+        assertThat(reactiveOps.searchAfter(INDEX, builder).collectList().block()).hasSize(3);
+        assertThat(searches).hasSize(2);
+        assertThat(searches.get(0).source().searchAfter()).isNull();
+        assertThat(searches.get(1).source().searchAfter()).containsExactly(2L, "id-2");
+        assertThat(builder.searchAfter()).isNull();
+        assertThat(builder.sorts()).extracting(sort -> ((FieldSortBuilder) sort).getFieldName()).containsExactly("date", "_id");
+
+        // subscribing again starts over and does not add the tie-breaker twice
+        pages.add(page(null, 1L));
+        assertThat(reactiveOps.searchAfter(INDEX, builder).collectList().block()).hasSize(1);
+        assertThat(searches.get(2).source().searchAfter()).isNull();
+        assertThat(builder.sorts()).hasSize(2);
+    }
+
+    @Test
+    void scrollContextsAreTrackedUntilExhausted() {
+        pages.add(page("s1", 1L));
+        pages.add(page("s2"));
+        List<Integer> openWhileStreaming = new ArrayList<>();
+
+        reactiveOps.scroll(INDEX, new SearchSourceBuilder().size(1), 1)
+                .doOnNext(hit -> openWhileStreaming.add(scrollRegistry.openCount()))
+                .blockLast();
+
+        assertThat(openWhileStreaming).containsExactly(1);
+        assertThat(scrollRegistry.openCount()).isZero();
+        ArgumentCaptor<ClearScrollRequest> cleared = ArgumentCaptor.forClass(ClearScrollRequest.class);
+        verify(client).clearScrollAsync(cleared.capture(), any(), any());
+        assertThat(cleared.getValue().getScrollIds()).containsExactly("s2");
+        // both pages are attributed to the index, for the breaker and the metrics
+        verify(executor).executeAsync(eq(EsOperation.OPEN_SCROLL), eq(INDEX), any());
+        verify(executor).executeAsync(eq(EsOperation.SCROLL), eq(INDEX), any());
+    }
+
+    @Test
+    void cancelledScrollIsReleased() {
+        pages.add(page("s1", 1L, 2L));
+        assertThat(reactiveOps.scroll(INDEX, new SearchSourceBuilder().size(2), 1).take(1).collectList().block()).hasSize(1);
+        assertThat(scrollRegistry.openCount()).isZero();
+    }
+}
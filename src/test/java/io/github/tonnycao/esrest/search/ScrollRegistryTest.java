@@ -0,0 +1,172 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.IoCall;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Reaping of idle contexts, and ManagedScroll clearing its context on exhaustion, failure and close.
+ */
+class ScrollRegistryTest {
+
+    private static final String INDEX = "news";
+
+    private ElasticsearchProperties properties;
+
+    private RestHighLevelClient client;
+
+    private OperationExecutor executor;
+
+    private ScrollRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        properties = new ElasticsearchProperties();
+        client = mock(RestHighLevelClient.class);
+        executor = mock(OperationExecutor.class);
+        when(executor.execute(any(), any(), any())).thenAnswer(invocation ->
+                ((IoCall<?>) invocation.getArgument(2)).call(RequestOptions.DEFAULT));
+        doAnswer(invocation -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            BiConsumer<RequestOptions, ActionListener<Object>> call = invocation.getArgument(2);
+            call.accept(RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }).when(executor).executeAsync(any(), any(), any());
+
+        registry = new ScrollRegistry();
+        ReflectionTestUtils.setField(registry, "client", client);
+        ReflectionTestUtils.setField(registry, "executor", executor);
+        ReflectionTestUtils.setField(registry, "properties", properties);
+    }
+
+    private static SearchResponse page(String scrollId, int hits) {
+        SearchHit[] page = new SearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            page[i] = new SearchHit(i);
+        }
+        SearchHits searchHits = new SearchHits(page, new TotalHits(hits, TotalHits.Relation.EQUAL_TO), 1f);
+        InternalSearchResponse sections = new InternalSearchResponse(searchHits, null, null, null, false, null, 1);
+        return new SearchResponse(sections, scrollId, 1, 1, 0, 2, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    private List<String> cleared() {
+        ArgumentCaptor<ClearScrollRequest> requests = ArgumentCaptor.forClass(ClearScrollRequest.class);
+        verify(client, atLeast(0)).clearScrollAsync(requests.capture(), any(), any());
+        return requests.getAllValues().stream().flatMap(request -> request.getScrollIds().stream()).collect(Collectors.toList());
+    }
+
+    private ManagedScroll openScroll() {
+        SearchRequest request = new SearchRequest(INDEX).scroll(TimeValue.timeValueMinutes(1));
+        return new ManagedScroll(client, executor, registry, request);
+    }
+
+    @Test
+    void reaperClearsContextsIdlePastTheirKeepAlive() {
+        registry.touch(null, "idle", INDEX, 0);
+        registry.touch(null, "busy", INDEX, TimeUnit.MINUTES.toMillis(1));
+
+        registry.reap();
+
+        assertThat(cleared()).containsExactly("idle");
+        assertThat(registry.openCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reaperClearsContextsIdlePastTheIdleTimeout() {
+        properties.getScroll().setIdleTimeoutSeconds(0);
+        registry.touch(null, "s1", INDEX, TimeUnit.MINUTES.toMillis(1));
+        registry.touch("s1", "s2", INDEX, TimeUnit.MINUTES.toMillis(1));
+
+        registry.reap();
+
+        assertThat(cleared()).containsExactly("s2");
+        assertThat(registry.openCount()).isZero();
+        assertThat(registry.oldestAgeMillis()).isZero();
+    }
+
+    @Test
+    void oldestAgeCountsFromTheFirstPage() throws Exception {
+        registry.touch(null, "s1", INDEX, TimeUnit.MINUTES.toMillis(1));
+        Thread.sleep(20);
+        registry.touch("s1", "s2", INDEX, TimeUnit.MINUTES.toMillis(1));
+        registry.touch(null, "t1", INDEX, TimeUnit.MINUTES.toMillis(1));
+
+        assertThat(registry.oldestAgeMillis()).isGreaterThanOrEqualTo(20);
+    }
+
+    @Test
+    void managedScrollIsClearedOnceExhausted() throws Exception {
+        when(client.search(any(), any(RequestOptions.class))).thenReturn(page("s1", 2));
+        when(client.scroll(any(SearchScrollRequest.class), any(RequestOptions.class))).thenReturn(page("s2", 0));
+
+        try (ManagedScroll scroll = openScroll()) {
+            assertThat(scroll.nextPage()).hasSize(2);
+            assertThat(registry.openCount()).isEqualTo(1);
+            assertThat(scroll.nextPage()).isEmpty();
+            assertThat(scroll.isClosed()).isTrue();
+            assertThat(scroll.nextPage()).isEmpty();
+        }
+
+        assertThat(registry.openCount()).isZero();
+        assertThat(cleared()).containsExactly("s2");
+        verify(client, times(1)).scroll(any(SearchScrollRequest.class), any(RequestOptions.class));
+    }
+
+    @Test
+    void managedScrollIsClearedWhenAPageFails() throws Exception {
+        when(client.search(any(), any(RequestOptions.class))).thenReturn(page("s1", 2));
+        when(client.scroll(any(SearchScrollRequest.class), any(RequestOptions.class))).thenThrow(new IOException("node left"));
+        ManagedScroll scroll = openScroll();
+
+        scroll.nextPage();
+        assertThatThrownBy(scroll::nextPage).isInstanceOf(IOException.class);
+
+        assertThat(scroll.isClosed()).isTrue();
+        assertThat(registry.openCount()).isZero();
+        assertThat(cleared()).containsExactly("s1");
+    }
+
+    @Test
+    void managedScrollClosedBeforeItsFirstPageClearsNothing() {
+        openScroll().close();
+
+        assertThat(registry.openCount()).isZero();
+        verify(client, never()).clearScrollAsync(any(), any(), any());
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * search_after paging: tie-breaker, typed sort values between pages, prefetch and close.
+ */
+class SearchAfterCursorTest {
+
+    private static final String INDEX = "news";
+
+    /** requests sent and the futures handed back for them, completed by the test */
+    private final List<SearchRequest> requests = new ArrayList<>();
+
+    private final List<CompletableFuture<SearchResponse>> responses = new ArrayList<>();
+
+    private SearchAfterCursor<String> cursor(SearchSourceBuilder sourceBuilder) {
+        return new SearchAfterCursor<>(INDEX, sourceBuilder, "_id", request -> {
+            requests.add(request);
+            CompletableFuture<SearchResponse> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        }, SearchHit::getId);
+    }
+
+    /***
+     * hit sorted by a long field, all with the same value, and the _id tie-breaker
+     * @param ids
+     * @return
+     */
+    private static SearchResponse page(String... ids) {
+        SearchHit[] hits = new SearchHit[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            hits[i] = new SearchHit(i, ids[i], null, Collections.emptyMap());
+            hits[i].sortValues(new Object[]{1L, ids[i]}, new DocValueFormat[]{DocValueFormat.RAW, DocValueFormat.RAW});
+        }
+        SearchHits searchHits = new SearchHits(hits, new TotalHits(ids.length, TotalHits.Relation.EQUAL_TO), 1f);
+        InternalSearchResponse sections = new InternalSearchResponse(searchHits, null, null, null, false, null, 1);
+        return new SearchResponse(sections, null, 1, 1, 0, 2, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    private static List<String> sortFields(SearchRequest request) {
+        return request.source().sorts().stream().map(sort -> ((FieldSortBuilder) sort).getFieldName()).collect(Collectors.toList());
+    }
+
+    @Test
+    void hitsWithEqualSortValuesAreNeitherSkippedNorRepeatedAcrossPages() {
+        SearchAfterCursor<String> cursor = cursor(new SearchSourceBuilder().size(2).sort("timestamp", SortOrder.DESC));
+        responses.get(0).complete(page("a", "b"));
+
+        List<String> ids = new ArrayList<>();
+        ids.add(cursor.next());
+        ids.add(cursor.next());
+        responses.get(1).complete(page("c"));
+        cursor.forEachRemaining(ids::add);
+
+        assertThat(ids).containsExactly("a", "b", "c");
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(0).source().searchAfter()).isNull();
+        assertThat(requests.get(1).source().searchAfter()).containsExactly(1L, "b");
+        assertThat(requests.get(1).source().searchAfter()[0]).isInstanceOf(Long.class);
+        assertThat(requests).allSatisfy(request -> {
+            assertThat(sortFields(request)).containsExactly("timestamp", "_id");
+            assertThat(request.source().size()).isEqualTo(2);
+            assertThat(request.source().trackTotalHitsUpTo()).isEqualTo(SearchContext.TRACK_TOTAL_HITS_DISABLED);
+        });
+        assertThat(cursor.getSearchAfter()).containsExactly(1L, "c");
+    }
+
+    @Test
+    void nextPageIsRequestedAsSoonAsThePreviousArrives() {
+        SearchAfterCursor<String> cursor = cursor(new SearchSourceBuilder().size(2));
+        assertThat(requests).hasSize(1);
+
+        responses.get(0).complete(page("a", "b"));
+        assertThat(cursor.hasNext()).isTrue();
+
+        // nothing consumed yet, page 2 is already on its way
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(1).source().searchAfter()).containsExactly(1L, "b");
+    }
+
+    @Test
+    void shortPageEndsWithoutAnotherRequest() {
+        SearchAfterCursor<String> cursor = cursor(new SearchSourceBuilder().size(2));
+        responses.get(0).complete(page("a"));
+
+        assertThat(cursor.stream().collect(Collectors.toList())).containsExactly("a");
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    void closeCancelsThePrefetchedPage() {
+        SearchAfterCursor<String> cursor = cursor(new SearchSourceBuilder().size(2));
+        responses.get(0).complete(page("a", "b"));
+        assertThat(cursor.next()).isEqualTo("a");
+
+        cursor.close();
+
+        assertThat(responses.get(1)).isCancelled();
+        assertThat(cursor.hasNext()).isFalse();
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    void closingTheStreamClosesTheCursor() {
+        SearchAfterCursor<String> cursor = cursor(new SearchSourceBuilder().size(2));
+        responses.get(0).complete(page("a", "b"));
+
+        try (Stream<String> hits = cursor.stream()) {
+            assertThat(hits.findFirst()).hasValue("a");
+        }
+
+        assertThat(responses.get(1)).isCancelled();
+    }
+
+    @Test
+    void existingTieBreakerSortIsNotAddedTwice() {
+        cursor(new SearchSourceBuilder().size(2).sort("_id", SortOrder.DESC).trackTotalHits(true));
+
+        assertThat(sortFields(requests.get(0))).containsExactly("_id");
+        assertThat(((FieldSortBuilder) requests.get(0).source().sorts().get(0)).order()).isEqualTo(SortOrder.DESC);
+        assertThat(requests.get(0).source().trackTotalHitsUpTo()).isEqualTo(SearchContext.TRACK_TOTAL_HITS_ACCURATE);
+    }
+
+    @Test
+    void searchOpsSortsBy_idByDefault() {
+        RestHighLevelClient client = mock(RestHighLevelClient.class);
+        OperationExecutor executor = mock(OperationExecutor.class);
+        doAnswer(invocation -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            BiConsumer<RequestOptions, ActionListener<Object>> call = invocation.getArgument(2);
+            call.accept(RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }).when(executor).executeAsync(any(), any(), any());
+        doAnswer(invocation -> {
+            requests.add(invocation.getArgument(0));
+            invocation.<ActionListener<SearchResponse>>getArgument(2).onResponse(page());
+            return null;
+        }).when(client).searchAsync(any(), any(), any());
+        SearchOps searchOps = new SearchOps();
+        ReflectionTestUtils.setField(searchOps, "client", client);
+        ReflectionTestUtils.setField(searchOps, "executor", executor);
+        ReflectionTestUtils.setField(searchOps, "properties", new ElasticsearchProperties());
+
+        assertThat(searchOps.searchAfterCursor(INDEX, new SearchSourceBuilder().sort("timestamp")).hasNext()).isFalse();
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0).indices()).containsExactly(INDEX);
+        assertThat(sortFields(requests.get(0))).containsExactly("timestamp", "_id");
+        assertThat(requests.get(0).source().size()).isEqualTo(10);
+    }
+}
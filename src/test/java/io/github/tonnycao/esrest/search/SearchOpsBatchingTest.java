@@ -0,0 +1,82 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.cache.SearchCache;
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.EsOperation;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class SearchOpsBatchingTest {
+
+    private static final String INDEX = "news";
+
+    private OperationExecutor executor;
+
+    private SearchOps searchOps;
+
+    @BeforeEach
+    void setUp() {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.getMsearchBatching().setEnabled(true);
+        properties.getMsearchBatching().setMaxBatchSize(2);
+        properties.getMsearchBatching().setWindowMicros(TimeUnit.SECONDS.toMicros(10));
+        executor = mock(OperationExecutor.class);
+
+        searchOps = new SearchOps();
+        ReflectionTestUtils.setField(searchOps, "executor", executor);
+        ReflectionTestUtils.setField(searchOps, "properties", properties);
+        ReflectionTestUtils.setField(searchOps, "searchCache", mock(SearchCache.class));
+        searchOps.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        searchOps.close();
+    }
+
+    private CompletableFuture<Map<String, Object>> fetch(String tag) {
+        return searchOps.fetchAsync(INDEX, new SearchSourceBuilder().query(QueryBuilders.termQuery("tag", tag)), 10, 0, null, null, null);
+    }
+
+    @Test
+    void concurrentFetchesShareOneMsearchAndFailPerItem() throws Exception {
+        SearchResponse ok = new SearchResponse(InternalSearchResponse.empty(), null, 1, 1, 0, 2,
+                ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+        MultiSearchResponse response = new MultiSearchResponse(new MultiSearchResponse.Item[]{
+                new MultiSearchResponse.Item(ok, null),
+                new MultiSearchResponse.Item(null, new IllegalArgumentException("no mapping for [tag]"))}, 3);
+        doReturn(CompletableFuture.completedFuture(response)).when(executor).executeAsync(eq(EsOperation.MSEARCH), isNull(), any());
+
+        CompletableFuture<Map<String, Object>> first = fetch("a");
+        CompletableFuture<Map<String, Object>> second = fetch("b");
+
+        assertThat(first.get(1, TimeUnit.SECONDS)).isNotNull();
+        assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(ElasticsearchException.class)
+                .hasMessageContaining("no mapping for [tag]");
+        verify(executor, times(1)).executeAsync(eq(EsOperation.MSEARCH), isNull(), any());
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.tonnycao.esrest.search;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import io.github.tonnycao.esrest.support.IoCall;
+import io.github.tonnycao.esrest.support.OperationExecutor;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Slice export stops every worker and clears every context before it returns, also when a slice fails.
+ */
+class SearchOpsExportTest {
+
+    private static final String INDEX = "news";
+
+    private ElasticsearchProperties properties;
+
+    private RestHighLevelClient client;
+
+    private SearchOps searchOps;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = new ElasticsearchProperties();
+        client = mock(RestHighLevelClient.class);
+        OperationExecutor executor = mock(OperationExecutor.class);
+        when(executor.execute(any(), any(), any())).thenAnswer(invocation ->
+                ((IoCall<?>) invocation.getArgument(2)).call(RequestOptions.DEFAULT));
+        when(client.clearScroll(any(), any(RequestOptions.class))).thenReturn(new ClearScrollResponse(true, 1));
+        ScrollRegistry scrollRegistry = new ScrollRegistry();
+        ReflectionTestUtils.setField(scrollRegistry, "properties", properties);
+
+        searchOps = new SearchOps();
+        ReflectionTestUtils.setField(searchOps, "client", client);
+        ReflectionTestUtils.setField(searchOps, "executor", executor);
+        ReflectionTestUtils.setField(searchOps, "properties", properties);
+        ReflectionTestUtils.setField(searchOps, "scrollRegistry", scrollRegistry);
+    }
+
+    private static SearchResponse page(String scrollId, int hits) {
+        SearchHit[] page = new SearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            page[i] = new SearchHit(i);
+        }
+        SearchHits searchHits = new SearchHits(page, new TotalHits(hits, TotalHits.Relation.EQUAL_TO), 1f);
+        InternalSearchResponse sections = new InternalSearchResponse(searchHits, null, null, null, false, null, 1);
+        return new SearchResponse(sections, scrollId, 1, 1, 0, 2, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    private static int slice(SearchRequest request) {
+        return request.source().slice().getId();
+    }
+
+    @Test
+    void failedExportReturnsOnlyOnceRunningSlicesStopped() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        AtomicBoolean written = new AtomicBoolean();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        when(client.search(any(), any(RequestOptions.class))).thenAnswer(invocation -> {
+            if (0 == slice(invocation.getArgument(0))) {
+                writing.await(1, TimeUnit.SECONDS);
+                throw new IOException("node left");
+            }
+            return page("s1", 2);
+        });
+        when(client.scroll(any(SearchScrollRequest.class), any(RequestOptions.class))).thenReturn(page("s1", 0));
+
+        HitSink sink = (slice, hits) -> {
+            threads.add(Thread.currentThread().getName() + (Thread.currentThread().isDaemon() ? "" : " (not daemon)"));
+            writing.countDown();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.set(true);
+        };
+
+        assertThatThrownBy(() -> searchOps.sliceExport(INDEX, new SearchSourceBuilder().size(2), 2, 1, sink))
+                .isInstanceOf(IOException.class).hasMessage("node left");
+        assertThat(written).isTrue();
+        assertThat(threads).allMatch(name -> name.startsWith("es-slice-export-") && !name.endsWith("(not daemon)"));
+        ArgumentCaptor<ClearScrollRequest> cleared = ArgumentCaptor.forClass(ClearScrollRequest.class);
+        verify(client, atLeastOnce()).clearScroll(cleared.capture(), any(RequestOptions.class));
+        assertThat(cleared.getAllValues()).flatExtracting(ClearScrollRequest::getScrollIds).contains("s1");
+    }
+
+    @Test
+    void slicesBeyondExportThreadsWaitForAFreeWorker() throws Exception {
+        properties.getScroll().setExportThreads(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        when(client.search(any(), any(RequestOptions.class))).thenAnswer(invocation ->
+                page("s" + slice(invocation.getArgument(0)), 3));
+        when(client.scroll(any(SearchScrollRequest.class), any(RequestOptions.class))).thenAnswer(invocation ->
+                page(((SearchScrollRequest) invocation.getArgument(0)).scrollId(), 0));
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+
+        Long exported = searchOps.sliceExport(INDEX, new SearchSourceBuilder().size(3), 5, 1, (slice, hits) -> {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            seen.add(slice);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        });
+
+        assertThat(exported).isEqualTo(15);
+        assertThat(seen.stream().sorted().collect(Collectors.toList())).containsExactly(0, 1, 2, 3, 4);
+        assertThat(mostRunning.get()).isLessThanOrEqualTo(2);
+    }
+}
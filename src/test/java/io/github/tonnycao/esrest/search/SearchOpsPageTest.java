@@ -0,0 +1,49 @@
+package io.github.tonnycao.esrest.search;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchOpsPageTest {
+
+    private static SearchResponse response(int hits, TotalHits total) {
+        SearchHit[] page = new SearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            page[i] = new SearchHit(i);
+        }
+        InternalSearchResponse sections = new InternalSearchResponse(new SearchHits(page, total, 1f), null, null, null, false, null, 1);
+        return new SearchResponse(sections, null, 1, 1, 0, 2, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    private static Object hasMore(SearchResponse response, int size, long offset) {
+        Map<String, Object> page = new HashMap<>();
+        SearchOps.putTotal(page, response, size, offset);
+        return page.get("hasMore");
+    }
+
+    @Test
+    void exactTotalEndsOnTheLastFullPage() {
+        TotalHits total = new TotalHits(20, TotalHits.Relation.EQUAL_TO);
+        assertThat(hasMore(response(10, total), 10, 0)).isEqualTo(true);
+        assertThat(hasMore(response(10, total), 10, 10)).isEqualTo(false);
+        assertThat(hasMore(response(0, total), 10, 20)).isEqualTo(false);
+    }
+
+    @Test
+    void fullPageHeuristicWithoutAnExactTotalOrOffset() {
+        TotalHits atLeast = new TotalHits(10000, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+        assertThat(hasMore(response(10, atLeast), 10, 0)).isEqualTo(true);
+        assertThat(hasMore(response(4, atLeast), 10, 0)).isEqualTo(false);
+        assertThat(hasMore(response(10, null), 10, 0)).isEqualTo(true);
+        assertThat(hasMore(response(10, new TotalHits(20, TotalHits.Relation.EQUAL_TO)), 10, -1)).isEqualTo(true);
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.tonnycao.esrest.search;
+
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SourceFilterTest {
+
+    @Test
+    void applyingTwiceDoesNotRepeatDocValueFields() {
+        SourceFilter filter = SourceFilter.include("title").docValueFields("createdAt", "count").storedFields("tag");
+        SearchSourceBuilder builder = new SearchSourceBuilder().docValueField("count");
+        filter.applyTo(builder);
+        filter.applyTo(builder);
+        assertThat(builder.docValueFields()).extracting(field -> field.field).containsExactly("count", "createdAt");
+        assertThat(builder.storedFields().fieldNames()).containsExactly("tag");
+        assertThat(builder.fetchSource().includes()).containsExactly("title");
+        assertThat(filter.getStoredFields()).containsExactly("tag");
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static ElasticsearchProperties.Breaker settings(long openMillis) {
+        ElasticsearchProperties.Breaker settings = new ElasticsearchProperties.Breaker();
+        settings.setEnabled(true);
+        settings.setWindowSize(10);
+        settings.setMinimumCalls(4);
+        settings.setFailureRateThreshold(0.5);
+        settings.setOpenMillis(openMillis);
+        settings.setHalfOpenCalls(2);
+        return settings;
+    }
+
+    private static void call(CircuitBreaker breaker, boolean overload) {
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.record(overload);
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(settings(60000));
+        call(breaker, true);
+        call(breaker, true);
+        call(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensAtFailureRateAndFailsFast() {
+        CircuitBreaker breaker = new CircuitBreaker(settings(60000));
+        call(breaker, false);
+        call(breaker, false);
+        call(breaker, true);
+        call(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    void halfOpenClosesAfterSuccessfulTrials() {
+        CircuitBreaker breaker = new CircuitBreaker(settings(0));
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+        // only half-open-calls trials at a time
+        assertThat(breaker.tryAcquire()).isFalse();
+        breaker.record(false);
+        breaker.record(false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpenReopensOnFailedTrial() {
+        ElasticsearchProperties.Breaker settings = settings(0);
+        CircuitBreaker breaker = new CircuitBreaker(settings);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+        call(breaker, true);
+        settings.setOpenMillis(60000);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgingPolicyTest {
+
+    @Test
+    void searchesOpeningAScrollAreNeverHedged() {
+        ElasticsearchProperties.Hedging settings = new ElasticsearchProperties.Hedging();
+        settings.setEnabled(true);
+        settings.setOperations(List.of("search", "open_scroll", "scroll"));
+        HedgingPolicy policy = new HedgingPolicy(settings);
+
+        assertThat(policy.applies(EsOperation.SEARCH)).isTrue();
+        assertThat(policy.applies(EsOperation.OPEN_SCROLL)).isFalse();
+        assertThat(policy.applies(EsOperation.SCROLL)).isFalse();
+    }
+
+    @Test
+    void delayIsThePercentileOfRecordedLatencies() {
+        ElasticsearchProperties.Hedging settings = new ElasticsearchProperties.Hedging();
+        settings.setEnabled(true);
+        settings.setMinSamples(64);
+        HedgingPolicy policy = new HedgingPolicy(settings);
+
+        assertThat(policy.delayMillis(EsOperation.SEARCH)).isEqualTo(-1);
+        for (int i = 1; i <= 64; i++) {
+            policy.record(EsOperation.SEARCH, i * 1_000_000L);
+        }
+        assertThat(policy.delayMillis(EsOperation.SEARCH)).isEqualTo(61);
+    }
+
+    @Test
+    void hedgingIsOffUnlessDuplicatesCanAvoidTheFirstHost() {
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.getHedging().setEnabled(true);
+        assertThat(executor(properties).isHedged(EsOperation.SEARCH)).isFalse();
+
+        properties.getNodeSelection().setEnabled(true);
+        assertThat(executor(properties).isHedged(EsOperation.SEARCH)).isFalse();
+
+        properties.getRetry().setEnabled(true);
+        assertThat(executor(properties).isHedged(EsOperation.SEARCH)).isTrue();
+    }
+
+    private static OperationExecutor executor(ElasticsearchProperties properties) {
+        LatencyAwareNodeSelector nodeSelector = new LatencyAwareNodeSelector();
+        ReflectionTestUtils.setField(nodeSelector, "properties", properties);
+        OperationExecutor executor = new OperationExecutor();
+        ReflectionTestUtils.setField(executor, "properties", properties);
+        ReflectionTestUtils.setField(executor, "nodeSelector", nodeSelector);
+        executor.init();
+        return executor;
+    }
+}
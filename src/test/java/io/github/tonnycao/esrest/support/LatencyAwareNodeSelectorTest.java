@@ -0,0 +1,82 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyAwareNodeSelectorTest {
+
+    private static final HttpHost A = new HttpHost("es-a", 9200, "http");
+
+    private static final HttpHost B = new HttpHost("es-b", 9200, "http");
+
+    private LatencyAwareNodeSelector selector;
+
+    @BeforeEach
+    void setUp() {
+        selector = new LatencyAwareNodeSelector();
+        ReflectionTestUtils.setField(selector, "properties", new ElasticsearchProperties());
+    }
+
+    private HttpContext send(HttpHost host) {
+        HttpContext context = new BasicHttpContext();
+        HttpCoreContext.adapt(context).setTargetHost(host);
+        selector.process(new BasicHttpRequest("GET", "/_search"), context);
+        return context;
+    }
+
+    private void answer(HttpContext context) {
+        selector.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"), context);
+    }
+
+    private List<HttpHost> select() {
+        List<Node> nodes = new ArrayList<>(Arrays.asList(new Node(A), new Node(B)));
+        selector.select(nodes);
+        List<HttpHost> hosts = new ArrayList<>();
+        nodes.forEach(node -> hosts.add(node.getHost()));
+        return hosts;
+    }
+
+    @Test
+    void keepsOnlyTheLeastLoadedHost() {
+        send(A);
+        assertThat(select()).containsExactly(B);
+        assertThat(selector.takeSelected()).isEqualTo(B);
+        assertThat(selector.takeSelected()).isNull();
+    }
+
+    @Test
+    void avoidsTheSlowerHost() throws InterruptedException {
+        HttpContext slow = send(A);
+        Thread.sleep(50);
+        answer(slow);
+        answer(send(B));
+        assertThat(select()).containsExactly(B);
+    }
+
+    @Test
+    void excludedHostIsSkippedUnlessAlone() {
+        send(B);
+        selector.excluding(A, () -> assertThat(select()).containsExactly(B));
+        selector.excluding(A, () -> {
+            List<Node> nodes = new ArrayList<>(Arrays.asList(new Node(A)));
+            selector.select(nodes);
+            assertThat(nodes).hasSize(1);
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.tonnycao.esrest.support;
+
+import io.github.tonnycao.esrest.config.ElasticsearchProperties;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private static ElasticsearchProperties.Retry settings() {
+        ElasticsearchProperties.Retry settings = new ElasticsearchProperties.Retry();
+        settings.setEnabled(true);
+        settings.setMaxRetries(2);
+        settings.setInitialDelayMillis(100);
+        settings.setMaxDelayMillis(150);
+        return settings;
+    }
+
+    @Test
+    void rejectedCallsAreRetriedForEveryOperation() {
+        RetryPolicy policy = new RetryPolicy(settings());
+        ElasticsearchStatusException rejected = new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS);
+        assertThat(policy.delayMillis(EsOperation.BULK, 0, rejected)).isBetween(0L, 99L);
+        assertThat(policy.delayMillis(EsOperation.INDEX, 1, new ConnectException("refused"))).isBetween(0L, 149L);
+        assertThat(policy.delayMillis(EsOperation.INDEX, 2, rejected)).isEqualTo(-1);
+    }
+
+    @Test
+    void unknownOutcomesAreRetriedOnlyWhenIdempotent() {
+        RetryPolicy policy = new RetryPolicy(settings());
+        ElasticsearchStatusException unavailable = new ElasticsearchStatusException("unavailable", RestStatus.SERVICE_UNAVAILABLE);
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, unavailable)).isNotNegative();
+        assertThat(policy.delayMillis(EsOperation.GET, 0, new SocketTimeoutException())).isNotNegative();
+        assertThat(policy.delayMillis(EsOperation.INDEX, 0, unavailable)).isEqualTo(-1);
+        assertThat(policy.delayMillis(EsOperation.SCROLL, 0, new SocketTimeoutException())).isEqualTo(-1);
+        // a second attempt would open a second context, the first one's id is never seen
+        assertThat(policy.delayMillis(EsOperation.OPEN_SCROLL, 0, new SocketTimeoutException())).isEqualTo(-1);
+        assertThat(policy.delayMillis(EsOperation.OPEN_SCROLL, 0, new ConnectException("refused"))).isNotNegative();
+    }
+
+    @Test
+    void clientErrorsAreNotRetried() {
+        RetryPolicy policy = new RetryPolicy(settings());
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, new ElasticsearchStatusException("bad", RestStatus.BAD_REQUEST))).isEqualTo(-1);
+    }
+
+    @Test
+    void retriesStopWhenTheBudgetIsSpent() {
+        ElasticsearchProperties.Retry settings = settings();
+        settings.setBudgetBurst(2);
+        settings.setBudgetRatio(0.5);
+        RetryPolicy policy = new RetryPolicy(settings);
+        ConnectException refused = new ConnectException("refused");
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, refused)).isNotNegative();
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, refused)).isNotNegative();
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, refused)).isEqualTo(-1);
+        assertThat(policy.getExhausted()).isEqualTo(1);
+        policy.called();
+        policy.called();
+        assertThat(policy.delayMillis(EsOperation.SEARCH, 0, refused)).isNotNegative();
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.tonnycao.esrest.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MicroBatcherTest {
+
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    /***
+     * batch call answering each item with its square
+     */
+    private CompletableFuture<List<Integer>> squares(List<Integer> items) {
+        batches.add(items);
+        List<Integer> results = new ArrayList<>();
+        items.forEach(item -> results.add(item * item));
+        return CompletableFuture.completedFuture(results);
+    }
+
+    @Test
+    void dispatchesAsSoonAsTheBatchIsFull() throws Exception {
+        try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 3, TimeUnit.SECONDS.toMicros(10), this::squares)) {
+            CompletableFuture<Integer> first = batcher.submit(1);
+            CompletableFuture<Integer> second = batcher.submit(2);
+            assertThat(first).isNotDone();
+            CompletableFuture<Integer> third = batcher.submit(3);
+            assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo(4);
+            assertThat(third.get(1, TimeUnit.SECONDS)).isEqualTo(9);
+            assertThat(batches).containsExactly(List.of(1, 2, 3));
+
+            CompletableFuture<Integer> next = batcher.submit(4);
+            assertThat(next).isNotDone();
+        }
+    }
+
+    @Test
+    void dispatchesWhenTheWindowElapses() throws Exception {
+        try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 100, 20_000, this::squares)) {
+            CompletableFuture<Integer> first = batcher.submit(2);
+            CompletableFuture<Integer> second = batcher.submit(3);
+            assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo(4);
+            assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo(9);
+            assertThat(batches).containsExactly(List.of(2, 3));
+        }
+    }
+
+    @Test
+    void closeDispatchesWhatIsQueued() throws Exception {
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 100, TimeUnit.SECONDS.toMicros(10), this::squares);
+        CompletableFuture<Integer> queued = batcher.submit(5);
+        batcher.close();
+        assertThat(queued.get(1, TimeUnit.SECONDS)).isEqualTo(25);
+    }
+
+    @Test
+    void failedBatchFailsEveryCaller() {
+        IllegalStateException down = new IllegalStateException("cluster down");
+        assertEveryCallerFails(items -> CompletableFuture.failedFuture(down), "cluster down");
+        assertEveryCallerFails(items -> {
+            throw down;
+        }, "cluster down");
+        assertEveryCallerFails(items -> CompletableFuture.completedFuture(Collections.singletonList(1)), "returned 1 results");
+    }
+
+    private void assertEveryCallerFails(Function<List<Integer>, CompletableFuture<List<Integer>>> batchCall, String message) {
+        try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 2, TimeUnit.SECONDS.toMicros(10), batchCall)) {
+            CompletableFuture<Integer> first = batcher.submit(1);
+            CompletableFuture<Integer> second = batcher.submit(2);
+            assertThatThrownBy(() -> first.get(1, TimeUnit.SECONDS)).hasMessageContaining(message);
+            assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)).hasMessageContaining(message);
+        }
+    }
+}
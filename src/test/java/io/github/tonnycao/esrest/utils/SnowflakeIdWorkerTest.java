@@ -0,0 +1,109 @@
+package io.github.tonnycao.esrest.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnowflakeIdWorkerTest {
+
+    private static final long NOW = 1700000000000L;
+
+    /** worker reading a clock the test moves by hand */
+    private static class ManualClockWorker extends SnowflakeIdWorker {
+
+        private final AtomicLong clock = new AtomicLong(NOW);
+
+        ManualClockWorker(long maxDriftMillis) {
+            super(1, 2, maxDriftMillis);
+        }
+
+        @Override
+        protected long timeGen() {
+            return clock.get();
+        }
+    }
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws Exception {
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(3, 4);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            tasks.add(() -> {
+                long[] ids = new long[20000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = worker.nextId();
+                }
+                return ids;
+            });
+        }
+        Set<Long> seen = new HashSet<>();
+        for (Future<long[]> future : pool.invokeAll(tasks)) {
+            long[] ids = future.get();
+            for (int i = 0; i < ids.length; i++) {
+                assertThat(seen.add(ids[i])).isTrue();
+                if (i > 0) {
+                    assertThat(ids[i]).isGreaterThan(ids[i - 1]);
+                }
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void batchIsIncreasingAndCarriesIntoTheNextMillisecond() {
+        ManualClockWorker worker = new ManualClockWorker(5);
+        long first = worker.nextId();
+        long[] ids = worker.nextIds(5000);
+
+        assertThat(ids).hasSize(5000);
+        assertThat(ids[0]).isGreaterThan(first);
+        for (int i = 1; i < ids.length; i++) {
+            assertThat(ids[i]).isGreaterThan(ids[i - 1]);
+        }
+        // 5001 ids in a frozen millisecond borrow the next one
+        assertThat(ids[ids.length - 1] >>> 22).isEqualTo((first >>> 22) + 1);
+        assertThat(worker.getBorrowed()).isPositive();
+        assertThat(ids[0] >>> 12 & 0x3ff).isEqualTo(2 << 5 | 1);
+    }
+
+    @Test
+    void smallClockRegressionIsTolerated() {
+        ManualClockWorker worker = new ManualClockWorker(5);
+        long before = worker.nextId();
+        worker.clock.addAndGet(-3);
+
+        assertThat(worker.nextId()).isGreaterThan(before);
+        assertThat(worker.getClockRegressions()).isZero();
+    }
+
+    @Test
+    void largeClockRegressionIsRefused() {
+        ManualClockWorker worker = new ManualClockWorker(5);
+        worker.nextId();
+        worker.clock.addAndGet(-10);
+
+        assertThatThrownBy(worker::nextId).isInstanceOf(IllegalStateException.class);
+        assertThat(worker.getClockRegressions()).isEqualTo(1);
+    }
+
+    @Test
+    void noDriftRefusesAnyRegression() {
+        ManualClockWorker worker = new ManualClockWorker(0);
+        worker.nextId();
+        worker.clock.decrementAndGet();
+
+        assertThatThrownBy(worker::nextId).isInstanceOf(IllegalStateException.class);
+    }
+}